@@ -18,6 +18,51 @@ dependencies {
     implementation("io.lettuce:lettuce-core:6.5.3.RELEASE") // Lettuce
     implementation("com.google.code.gson:gson:2.8.9") // Gson
     implementation("com.google.guava:guava:30.1-jre") // Guava
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2")) // JUnit
+    testImplementation("org.junit.jupiter:junit-jupiter") // JUnit
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher") // JUnit
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+// JMH 基准测试, 源码位于 src/jmh/java
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation: Configuration by configurations.getting { extendsFrom(configurations.implementation.get()) }
+val jmhAnnotationProcessor: Configuration by configurations.getting
+
+dependencies {
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37") // JMH
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37") // JMH
+}
+
+// 运行基准测试: gradle jmh -Pjmh.includes=ListenerDispatch
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "运行 JMH 基准测试"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args(project.findProperty("jmh.includes")?.toString() ?: ".*")
+}
+
+// 端到端压测: gradle e2e -Pe2e.nodes=4 -Pe2e.seconds=10, 需要本机安装 redis-server 或通过 -Pe2e.redisUri 指定已有的 Redis,
+// -Pe2e.transport=loopback 时所有节点在同一个 JVM 中通过内存传输层通信
+tasks.register<JavaExec>("e2e") {
+    group = "benchmark"
+    description = "启动 redis-server 和多个节点进程, 测量端到端吞吐量和请求回复延迟"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("top.catnies.firredismessenger.EndToEndHarness")
+    args(listOf("nodes", "seconds", "inflight", "payloadBytes", "codec", "redisServer", "redisUri", "transport",
+            "publishConnections", "subscriberConnections")
+        .mapNotNull { key -> project.findProperty("e2e.$key")?.let { "$key=$it" } })
 }
 
 // 发布到 Maven 仓库
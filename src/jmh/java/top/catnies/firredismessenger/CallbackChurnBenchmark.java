@@ -0,0 +1,73 @@
+package top.catnies.firredismessenger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisCallback 注册与取消的开销: 写入关联表、在时间轮上挂一个超时任务, 收到回复后移除并取消超时任务.
+ * 多线程版本模拟多个业务线程同时发请求、IO 线程同时处理回复时的分段锁竞争.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackChurnBenchmark {
+    private static final int POOL_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        RedisCallback callback;
+
+        @Setup
+        public void setup() {
+            callback = new RedisCallback();
+        }
+
+        @TearDown
+        public void tearDown() {
+            callback.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Packets {
+        RedisPacket[] packets = new RedisPacket[POOL_SIZE];
+        int cursor;
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                packets[i] = RedisPacket.of("Lobby", "Survival-1", "查询人数", "").withCallback(payload -> { });
+            }
+        }
+
+        RedisPacket next() {
+            return packets[cursor++ & (POOL_SIZE - 1)];
+        }
+    }
+
+    @Benchmark
+    public Object registerComplete(Shared shared, Packets packets) {
+        RedisPacket packet = packets.next();
+        shared.callback.registerCallbackTask(packet, 10000);
+        return shared.callback.completeCallbackTask(packet.getMessageId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object registerCompleteContended(Shared shared, Packets packets) {
+        RedisPacket packet = packets.next();
+        shared.callback.registerCallbackTask(packet, 10000);
+        return shared.callback.completeCallbackTask(packet.getMessageId());
+    }
+
+    // CompletableFuture 请求使用的路径
+    @Benchmark
+    public Object registerRequestAccept(Shared shared, Packets packets) {
+        RedisPacket packet = packets.next();
+        shared.callback.registerRequest(packet, 10000, 1, response -> { }, () -> { });
+        return shared.callback.acceptResponse(packet.getMessageId());
+    }
+}
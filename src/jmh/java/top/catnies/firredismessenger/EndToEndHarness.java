@@ -0,0 +1,268 @@
+package top.catnies.firredismessenger;
+
+import top.catnies.firredismessenger.api.RedisListener;
+import top.catnies.firredismessenger.api.RedisSubject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 端到端压测: 在本机启动一个 redis-server 和 N 个节点进程, 每个节点运行一个 RedisManager,
+ * 同时向其他节点发送请求并回复其他节点的请求, 统计每秒消息数和请求回复延迟的分位数.
+ * 每个节点单独一个进程, 与实际部署时一个服务器一个 RedisManager 的方式一致.
+ * <pre>
+ * gradle e2e -Pe2e.nodes=4 -Pe2e.seconds=10 -Pe2e.codec=binary
+ * gradle e2e -Pe2e.redisUri=redis://127.0.0.1:6379/0   使用已有的 Redis, 不再启动 redis-server
+ * gradle e2e -Pe2e.transport=loopback   所有节点在同一个 JVM 中通过内存传输层通信, 不需要 Redis
+ * </pre>
+ * 参数: nodes 节点数, seconds 压测时长, inflight 每个节点同时等待回复的请求数, payloadBytes 消息内容大小,
+ * codec 编解码器 (json / binary), redisServer redis-server 可执行文件, redisUri 已有的 Redis 地址, transport 传输层 (redis / loopback),
+ * publishConnections 发布连接数量, subscriberConnections 订阅连接数量.
+ */
+public class EndToEndHarness {
+    private static final String CHANNEL = "fir:bench";
+    private static final String SUBJECT = "echo";
+    private static final String RESULT_PREFIX = "RESULT ";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = parse(args);
+        if (params.containsKey("node")) {
+            runNode(params);
+        } else if ("loopback".equals(params.get("transport"))) {
+            runInProcess(params);
+        } else {
+            runCoordinator(params);
+        }
+    }
+
+    /* 协调进程 */
+
+    private static void runCoordinator(Map<String, String> params) throws Exception {
+        int nodes = Integer.parseInt(params.getOrDefault("nodes", "4"));
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "10"));
+
+        // 启动 redis-server, 或者使用已有的 Redis
+        Process redisServer = null;
+        String redisUri = params.get("redisUri");
+        if (redisUri == null) {
+            int port = freePort();
+            String executable = params.getOrDefault("redisServer", "redis-server");
+            try {
+                redisServer = new ProcessBuilder(executable, "--port", String.valueOf(port), "--save", "", "--appendonly", "no")
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+            } catch (IOException e) {
+                System.err.println("无法启动 " + executable + ", 请安装 Redis 或通过 -Pe2e.redisUri 指定已有的 Redis: " + e.getMessage());
+                System.exit(1);
+            }
+            awaitPort(port, 5000);
+            redisUri = "redis://127.0.0.1:" + port + "/0";
+        }
+
+        try {
+            // 所有节点在同一时刻开始发送, 留出启动和订阅的时间
+            long startAt = System.currentTimeMillis() + 3000 + nodes * 200L;
+            List<Process> processes = new ArrayList<>();
+            List<String> results = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                List<String> command = new ArrayList<>(List.of(
+                        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                        "-cp", System.getProperty("java.class.path"),
+                        EndToEndHarness.class.getName(),
+                        "node=" + i, "redisUri=" + redisUri, "startAt=" + startAt
+                ));
+                for (Map.Entry<String, String> param : params.entrySet()) {
+                    if (!param.getKey().equals("redisUri")) command.add(param.getKey() + "=" + param.getValue());
+                }
+                Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+                processes.add(process);
+                readers.add(forwardOutput("node-" + i, process, results));
+            }
+            for (Process process : processes) process.waitFor(seconds + 60L, TimeUnit.SECONDS);
+            for (Thread reader : readers) reader.join(1000);
+
+            report(results, seconds);
+        } finally {
+            if (redisServer != null) redisServer.destroy();
+        }
+    }
+
+    // 转发节点输出, 收集结果行
+    private static Thread forwardOutput(String name, Process process, List<String> results) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(RESULT_PREFIX)) results.add(line.substring(RESULT_PREFIX.length()));
+                    else System.out.println("[" + name + "] " + line);
+                }
+            } catch (IOException ignored) { }
+        }, "Harness-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void report(List<String> results, int seconds) {
+        long replies = 0;
+        long timeouts = 0;
+        long worstP99 = 0;
+        System.out.println();
+        System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "node", "replies", "timeouts", "p50(us)", "p99(us)", "p999(us)");
+        for (String result : results) {
+            Map<String, String> values = parse(result.split(" "));
+            replies += Long.parseLong(values.get("replies"));
+            timeouts += Long.parseLong(values.get("timeouts"));
+            worstP99 = Math.max(worstP99, Long.parseLong(values.get("p99")));
+            System.out.printf("%-8s %10s %10s %10d %10d %10d%n", values.get("node"), values.get("replies"), values.get("timeouts"),
+                    Long.parseLong(values.get("p50")) / 1000, Long.parseLong(values.get("p99")) / 1000, Long.parseLong(values.get("p999")) / 1000);
+        }
+        // 每个请求和它的回复各算一条消息
+        System.out.printf("%n节点数 %d, 消息 %.0f 条/秒, 请求 %.0f 次/秒, 超时 %d, 最差节点 p99 %d us%n",
+                results.size(), replies * 2.0 / seconds, (double) replies / seconds, timeouts, worstP99 / 1000);
+    }
+
+    /* 节点进程 */
+
+    private static void runNode(Map<String, String> params) throws Exception {
+        int node = Integer.parseInt(params.get("node"));
+        long startAt = Long.parseLong(params.get("startAt"));
+        RedisManager manager = new RedisManager(new RedisUri(params.get("redisUri")), "node-" + node, options(params));
+        manager.registerListeners(new EchoListener(manager));
+
+        Thread.sleep(Math.max(0, startAt - System.currentTimeMillis()));
+        System.out.println(RESULT_PREFIX + runLoad(manager, node, params));
+        manager.shutdown();
+        System.exit(0);
+    }
+
+    /* 单进程模式: 所有节点在同一个 JVM 中, 通过内存传输层通信, 不需要 Redis */
+
+    private static void runInProcess(Map<String, String> params) throws Exception {
+        int nodes = Integer.parseInt(params.getOrDefault("nodes", "4"));
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "10"));
+
+        LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+        List<RedisManager> managers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            RedisManager manager = new RedisManager("node-" + i, options(params), new LoopbackTransport(hub));
+            manager.registerListeners(new EchoListener(manager));
+            managers.add(manager);
+        }
+
+        List<String> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            int node = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    results.add(runLoad(managers.get(node), node, params));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Harness-node-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) thread.join();
+
+        report(results, seconds);
+        managers.forEach(RedisManager::shutdown);
+    }
+
+    /* 压测逻辑 */
+
+    private static RedisOptions options(Map<String, String> params) {
+        return RedisOptions.builder()
+                .codec("binary".equals(params.get("codec")) ? new BinaryPacketCodec(List.of(SUBJECT)) : JsonPacketCodec.INSTANCE)
+                .publishConnections(Integer.parseInt(params.getOrDefault("publishConnections", "0")))
+                .subscriberConnections(Integer.parseInt(params.getOrDefault("subscriberConnections", "1")))
+                .build();
+    }
+
+    // 闭环压测: 同时最多 inflight 个请求等待回复, 返回结果行
+    private static String runLoad(RedisManager manager, int node, Map<String, String> params) throws InterruptedException {
+        int nodes = Integer.parseInt(params.getOrDefault("nodes", "4"));
+        int seconds = Integer.parseInt(params.getOrDefault("seconds", "10"));
+        int inflight = Integer.parseInt(params.getOrDefault("inflight", "64"));
+        String payload = "x".repeat(Integer.parseInt(params.getOrDefault("payloadBytes", "64")));
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder timeouts = new LongAdder();
+        Semaphore permits = new Semaphore(inflight);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < deadline) {
+            if (!permits.tryAcquire(100, TimeUnit.MILLISECONDS)) continue;
+            int target = nodes == 1 ? node : (node + 1 + ThreadLocalRandom.current().nextInt(nodes - 1)) % nodes;
+            RedisPacket request = RedisPacket.of(manager.getServerId(), "node-" + target, SUBJECT, payload);
+            long start = System.nanoTime();
+            manager.request(CHANNEL, request, 5000).whenComplete((response, error) -> {
+                if (error == null) latency.record(System.nanoTime() - start);
+                else timeouts.increment();
+                permits.release();
+            });
+        }
+        permits.tryAcquire(inflight, 6, TimeUnit.SECONDS); // 等待最后一批请求结束
+
+        MetricsSnapshot.HistogramSnapshot snapshot = latency.snapshot();
+        return "node=node-" + node + " replies=" + snapshot.count() + " timeouts=" + timeouts.sum()
+                + " p50=" + snapshot.p50() + " p99=" + snapshot.p99() + " p999=" + snapshot.p999();
+    }
+
+    // 回复收到的请求
+    public static class EchoListener implements RedisListener {
+        private final RedisManager manager;
+
+        public EchoListener(RedisManager manager) {
+            this.manager = manager;
+        }
+
+        @RedisSubject(channel = CHANNEL, subject = SUBJECT)
+        public void onEcho(RedisPacket packet) {
+            manager.publish(CHANNEL, RedisPacket.ofResponse(packet, packet.getPayload()));
+        }
+    }
+
+    /* 工具方法 */
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index > 0) params.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        return params;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitPort(int port, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 200);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("redis-server 没有在 " + timeoutMs + " 毫秒内启动 !");
+    }
+}
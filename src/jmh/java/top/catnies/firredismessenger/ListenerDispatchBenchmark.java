@@ -0,0 +1,105 @@
+package top.catnies.firredismessenger;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import top.catnies.firredismessenger.api.RedisListener;
+import top.catnies.firredismessenger.api.RedisSubject;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 对比监听器方法的几种调用方式:
+ * 直接调用、旧版的 Method.invoke 反射调用、LambdaMetafactory 生成的调用器 (公开方法和私有方法)、
+ * 常量 MethodHandle 调用器 (插件类加载器中的私有方法使用)、普通字段上的 MethodHandle 调用器.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerDispatchBenchmark {
+
+    private PublicListener listener;
+    private RedisPacket packet;
+    private Consumer<RedisPacket> reflective;
+    private Consumer<RedisPacket> lambda;
+    private Consumer<RedisPacket> privateLambda;
+    private Consumer<RedisPacket> constantHandle;
+    private Consumer<RedisPacket> methodHandle;
+
+    @Setup
+    public void setup() throws Throwable {
+        listener = new PublicListener();
+        packet = RedisPacket.of("Lobby", "Survival-1", "查询人数", "现在有几个玩家在Lobby服务器啊?");
+        Method method = PublicListener.class.getMethod("onPacket", RedisPacket.class);
+
+        // 旧版 RedisManager.registerMethod 中的调用方式
+        reflective = p -> {
+            try {
+                method.setAccessible(true);
+                method.invoke(listener, p);
+            } catch (Exception e) {
+                System.err.println("Error in Redis message handler: " + e.getMessage());
+            }
+        };
+        Method privateMethod = PublicListener.class.getDeclaredMethod("onPrivatePacket", RedisPacket.class);
+        lambda = ListenerInvoker.lambdaInvoker(listener, method);
+        privateLambda = ListenerInvoker.lambdaInvoker(listener, privateMethod);
+        constantHandle = ListenerInvoker.constantHandleInvoker(listener, privateMethod);
+        methodHandle = ListenerInvoker.methodHandleInvoker(listener, privateMethod);
+    }
+
+    @Benchmark
+    public void direct(Blackhole blackhole) {
+        listener.onPacket(packet);
+        blackhole.consume(listener.count);
+    }
+
+    @Benchmark
+    public void reflective(Blackhole blackhole) {
+        reflective.accept(packet);
+        blackhole.consume(listener.count);
+    }
+
+    @Benchmark
+    public void lambdaMetafactory(Blackhole blackhole) {
+        lambda.accept(packet);
+        blackhole.consume(listener.count);
+    }
+
+    @Benchmark
+    public void privateLambdaMetafactory(Blackhole blackhole) {
+        privateLambda.accept(packet);
+        blackhole.consume(listener.count);
+    }
+
+    @Benchmark
+    public void constantMethodHandle(Blackhole blackhole) {
+        constantHandle.accept(packet);
+        blackhole.consume(listener.count);
+    }
+
+    @Benchmark
+    public void methodHandle(Blackhole blackhole) {
+        methodHandle.accept(packet);
+        blackhole.consume(listener.count);
+    }
+
+
+    public static class PublicListener implements RedisListener {
+        private int count;
+
+        @RedisSubject(channel = "bench", subject = "查询人数")
+        public void onPacket(RedisPacket packet) {
+            count += packet.getSubject().length();
+        }
+
+        @RedisSubject(channel = "bench", subject = "查询人数")
+        private void onPrivatePacket(RedisPacket packet) {
+            count += packet.getSubject().length();
+        }
+    }
+}
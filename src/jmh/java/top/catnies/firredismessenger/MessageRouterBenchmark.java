@@ -0,0 +1,90 @@
+package top.catnies.firredismessenger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisMessageRouter.handleMessage 的路由耗时: 解码信封、过滤接收方、查找处理器并在调用线程上执行.
+ * 一部分消息发给其他服务器, 用来衡量不属于本服务器的消息被丢弃的开销.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRouterBenchmark {
+    private static final String SERVER_ID = "bench";
+    private static final int FRAME_COUNT = 1024;
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    @Param({"64"})
+    private int channels;
+
+    @Param({"16"})
+    private int subjectsPerChannel;
+
+    private RedisManager manager;
+    private RedisMessageRouter router;
+    private String[] frameChannels;
+    private byte[][] frames;
+    private int cursor;
+    private long handled;
+
+    @Setup
+    public void setup() {
+        PacketCodec codec = "binary".equals(codecName) ? new BinaryPacketCodec() : JsonPacketCodec.INSTANCE;
+        RedisOptions options = RedisOptions.builder()
+                .codec(codec)
+                .inboxRouting(false)
+                .dispatchExecutor(Runnable::run) // 在调用线程上执行处理器, 只测路由本身
+                .build();
+        // 内存传输层只用来创建管理器, 消息直接交给路由器
+        manager = new RedisManager(SERVER_ID, options, new LoopbackTransport(new LoopbackTransport.Hub()));
+        router = manager.getMessageRouter();
+
+        List<String> channelNames = new ArrayList<>();
+        for (int c = 0; c < channels; c++) {
+            String channel = "channel-" + c;
+            channelNames.add(channel);
+            for (int s = 0; s < subjectsPerChannel; s++) {
+                router.registerHandler(new RedisMessageRouter.SubjectHandler(channel, "subject-" + s, p -> handled++, 0));
+            }
+        }
+
+        Random random = new Random(42);
+        frameChannels = new String[FRAME_COUNT];
+        frames = new byte[FRAME_COUNT][];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            String channel = channelNames.get(random.nextInt(channels));
+            String subject = "subject-" + random.nextInt(subjectsPerChannel);
+            String receiver = switch (random.nextInt(4)) {
+                case 0 -> "other-server";
+                case 1 -> SERVER_ID;
+                default -> RedisManager.ALL_RECEIVERS;
+            };
+            RedisPacket packet = RedisPacket.of("sender-" + random.nextInt(8), receiver, subject, "{\"online\":" + i + "}");
+            packet.setChannel(channel);
+            frameChannels[i] = channel;
+            frames[i] = codec.encode(packet);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Benchmark
+    public long handleMessage() {
+        int i = cursor++ & (FRAME_COUNT - 1);
+        router.handleMessage(frameChannels[i], frames[i]);
+        return handled;
+    }
+}
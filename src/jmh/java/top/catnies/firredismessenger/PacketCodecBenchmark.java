@@ -0,0 +1,58 @@
+package top.catnies.firredismessenger;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据包编解码的耗时, 对比 JSON 与二进制格式, 以及只解码信封的延迟解码.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark {
+
+    @Param({"json", "binary"})
+    private String codecName;
+
+    @Param({"32", "1024"})
+    private int payloadBytes;
+
+    private PacketCodec codec;
+    private RedisPacket packet;
+    private byte[] frame;
+
+    @Setup
+    public void setup() {
+        codec = "binary".equals(codecName) ? new BinaryPacketCodec(List.of("Lobby", "查询人数")) : JsonPacketCodec.INSTANCE;
+        packet = RedisPacket.of("Lobby", "Survival-1", "查询人数", "x".repeat(payloadBytes));
+        packet.setResponseId(UUID.randomUUID());
+        packet.setPublishTimestamp(System.currentTimeMillis());
+        packet.setChannel("myChannel");
+        frame = codec.encode(packet);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(packet);
+    }
+
+    @Benchmark
+    public RedisPacket decode() {
+        return codec.decode(frame);
+    }
+
+    // 路由器的实际用法: 只读取信封, 不属于本服务器的消息不会解码消息内容
+    @Benchmark
+    public void decodeLazyEnvelope(Blackhole blackhole) {
+        RedisPacket decoded = codec.decodeLazy(frame);
+        blackhole.consume(decoded.getReceiver());
+        blackhole.consume(decoded.getSubject());
+    }
+}
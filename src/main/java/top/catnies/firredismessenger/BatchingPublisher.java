@@ -0,0 +1,155 @@
+package top.catnies.firredismessenger;
+
+import io.lettuce.core.api.StatefulRedisConnection;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量发布器.
+ * 使用一条关闭了自动刷新的独立连接, PUBLISH 命令先写入 Lettuce 的缓冲区,
+ * 攒够 batchSize 条或等待 lingerMs 毫秒后统一刷新到网络, 把大量小写入合并成少量大写入.
+ * 开启打包模式时, 同一频道的多个数据包会被打包成一条 Redis 消息, 由接收方的路由器透明拆包.
+ */
+public class BatchingPublisher {
+    private static final int MAX_ENVELOPE_BYTES = 512 * 1024; // 单个打包消息的大小上限
+
+    private final StatefulRedisConnection<byte[], byte[]> connection;
+    private final int batchSize;
+    private final long lingerMs;
+    private final boolean envelope;
+
+    private final ScheduledExecutorService scheduler;
+    private final AtomicInteger pending = new AtomicInteger(); // 尚未刷新的命令数量
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Map<String, ChannelBuffer> envelopes = new ConcurrentHashMap<>(); // 打包模式下每个频道的缓冲
+
+    @Getter private final LongAdder publishedPackets = new LongAdder(); // 发布的数据包数量
+    @Getter private final LongAdder publishedMessages = new LongAdder(); // 实际发送的 PUBLISH 命令数量
+    @Getter private final LongAdder flushes = new LongAdder(); // 刷新次数
+
+    /**
+     * @param connection 专用于发布的连接, 会被关闭自动刷新
+     * @param batchSize 攒够多少条后立即刷新
+     * @param lingerMs 第一条未刷新的命令最多等待的毫秒数
+     * @param envelope 是否把同一频道的多个数据包打包成一条消息
+     */
+    public BatchingPublisher(@NotNull StatefulRedisConnection<byte[], byte[]> connection, int batchSize, long lingerMs, boolean envelope) {
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize 必须大于 0 !");
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.lingerMs = Math.max(lingerMs, 0);
+        this.envelope = envelope;
+        this.connection.setAutoFlushCommands(false);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FirRedisMessenger-PublishFlusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 发布已编码的数据包
+     * @param channel 频道名
+     * @param channelBytes 频道名的字节形式
+     * @param frame 已编码的数据包
+     */
+    public void publish(@NotNull String channel, byte @NotNull [] channelBytes, byte @NotNull [] frame) {
+        publishedPackets.increment();
+        if (!envelope) {
+            connection.async().publish(channelBytes, frame);
+            publishedMessages.increment();
+            afterWrite(pending.incrementAndGet());
+            return;
+        }
+
+        // 打包模式: 先放入频道缓冲, 缓冲满了就封口发送
+        ChannelBuffer buffer = envelopes.computeIfAbsent(channel, c -> new ChannelBuffer(channelBytes));
+        boolean full;
+        synchronized (buffer) {
+            buffer.frames.add(frame);
+            buffer.bytes += frame.length;
+            full = buffer.frames.size() >= batchSize || buffer.bytes >= MAX_ENVELOPE_BYTES;
+            if (full) sealLocked(buffer);
+        }
+        if (full) {
+            flush();
+        } else {
+            afterWrite(pending.incrementAndGet());
+        }
+    }
+
+    /**
+     * 立即把所有缓冲的数据包发送出去
+     */
+    public void flush() {
+        if (envelope) {
+            for (ChannelBuffer buffer : envelopes.values()) {
+                synchronized (buffer) {
+                    sealLocked(buffer);
+                }
+            }
+        }
+        pending.set(0);
+        connection.flushCommands();
+        flushes.increment();
+    }
+
+    /**
+     * 刷新剩余数据并关闭发布器, 连接由调用方关闭
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    // 写入一条命令后, 攒够一批立即刷新, 否则确保有一个延迟刷新任务
+    private void afterWrite(int pendingCount) {
+        if (pendingCount >= batchSize || lingerMs == 0) {
+            flush();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                }, lingerMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                flushScheduled.set(false);
+                flush();
+            }
+        }
+    }
+
+    // 把频道缓冲中的数据包打包成一条 PUBLISH 命令写入连接缓冲区, 调用时必须持有该缓冲的锁
+    private void sealLocked(ChannelBuffer buffer) {
+        if (buffer.frames.isEmpty()) return;
+        byte[] message = buffer.frames.size() == 1 ? buffer.frames.get(0) : PacketEnvelope.pack(buffer.frames);
+        connection.async().publish(buffer.channelBytes, message);
+        publishedMessages.increment();
+        buffer.frames = new ArrayList<>();
+        buffer.bytes = 0;
+    }
+
+
+    private static final class ChannelBuffer {
+        private final byte[] channelBytes;
+        private List<byte[]> frames = new ArrayList<>();
+        private int bytes;
+
+        ChannelBuffer(byte[] channelBytes) {
+            this.channelBytes = channelBytes;
+        }
+    }
+}
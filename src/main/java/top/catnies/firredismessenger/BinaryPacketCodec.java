@@ -0,0 +1,329 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编解码器.
+ * <pre>
+ * byte     版本号 (0xF1)
+ * byte     标志位: 是否携带 responseId / publishTimestamp / channel, 消息内容是否压缩 / 是否是二进制数据
+ * str      receiver
+ * str      subject
+ * str      sender
+ * 16 bytes messageId
+ * 16 bytes responseId (可选)
+ * varlong  createTimestamp
+ * varlong  publishTimestamp (可选)
+ * str      channel (可选)
+ * varint   payload 长度 + UTF-8 内容 (二进制消息内容为原始字节, 解码时不复制)
+ *          启用压缩且内容被压缩时 (标志位 compressed): varint 原始长度 + varint 压缩后长度 + Deflate 内容
+ * </pre>
+ * str 以一个 varint 开头: 最低位为 1 时, 其余位是共享字典中的下标; 否则其余位是紧随其后的 UTF-8 字节长度.
+ * 共享字典用于常用的服务器ID、主题和频道名, 所有客户端必须使用相同顺序的字典, 只能在末尾追加.
+ * 解码时会对未命中字典的短字符串做驻留, 相同的发送者和主题不会重复创建字符串对象.
+ * 解码器同时兼容 JSON 格式的消息, 新版本的 {@link JsonPacketCodec} 也能解码本格式,
+ * 所有客户端升级到新版本后, 可以在集群中逐台切换编解码器; 使用共享字典时需要给 JsonPacketCodec 传入相同配置的实例.
+ * 消息内容放在最后, {@link #decodeLazy(byte[])} 只解析前面的信封, 消息内容在首次访问时才解码.
+ * 配置 {@link PayloadCompressor} 后, 达到阈值的消息内容会被压缩; 任何版本的解码器都能解码未压缩的消息,
+ * 但只有支持压缩标志位的新版本客户端能解码压缩过的消息, 请先让所有客户端升级, 再逐台开启压缩.
+ */
+public class BinaryPacketCodec implements PacketCodec {
+    public static final byte VERSION_1 = (byte) 0xF1;
+
+    private static final int FLAG_RESPONSE_ID = 1;
+    private static final int FLAG_PUBLISH_TIMESTAMP = 1 << 1;
+    private static final int FLAG_CHANNEL = 1 << 2;
+    private static final int FLAG_COMPRESSED = 1 << 3;
+    private static final int FLAG_BINARY_PAYLOAD = 1 << 4;
+    private static final PayloadCompressor PLAIN_DECOMPRESSOR = new PayloadCompressor(Integer.MAX_VALUE, null); // 未配置压缩时用来解压不带字典的消息
+
+    private static final int ENCODE_CACHE_LIMIT = 4096; // 编码缓存最多保存的字符串数量
+    private static final int INTERN_CACHE_SIZE = 1024; // 解码驻留缓存的槽位数量, 必须是 2 的幂
+    private static final int INTERN_MAX_LENGTH = 64; // 超过该长度的字符串不做驻留
+
+    private final String[] dictionary; // 共享字典
+    private final Map<String, Integer> dictionaryIndex = new HashMap<>(); // 字典反查
+    private final Map<String, byte[]> encodeCache = new ConcurrentHashMap<>(); // 常用字符串的 UTF-8 编码缓存
+    private final InternedString[] internCache = new InternedString[INTERN_CACHE_SIZE]; // 解码驻留缓存
+    @Getter @Nullable private final PayloadCompressor compressor; // 消息内容压缩器, 为空时不压缩
+
+    public BinaryPacketCodec() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * @param dictionary 共享字典, 填写常用的服务器ID、主题和频道名, 所有客户端必须一致
+     */
+    public BinaryPacketCodec(@NotNull List<String> dictionary) {
+        this(dictionary, null);
+    }
+
+    /**
+     * @param dictionary 共享字典, 填写常用的服务器ID、主题和频道名, 所有客户端必须一致
+     * @param compressor 消息内容压缩器, 为空时不压缩
+     */
+    public BinaryPacketCodec(@NotNull List<String> dictionary, @Nullable PayloadCompressor compressor) {
+        this.compressor = compressor;
+        this.dictionary = dictionary.toArray(new String[0]);
+        for (int i = 0; i < this.dictionary.length; i++) {
+            dictionaryIndex.putIfAbsent(this.dictionary[i], i);
+        }
+    }
+
+    @Override
+    public byte @NotNull [] encode(@NotNull RedisPacket packet) {
+        byte[] payload = packet.isBinary() ? packet.payloadArray() : packet.getPayload().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = compressor != null ? compressor.compress(payload) : null;
+        FrameWriter writer = new FrameWriter(64 + (compressed != null ? compressed.length : payload.length));
+
+        int flags = 0;
+        if (packet.getResponseId() != null) flags |= FLAG_RESPONSE_ID;
+        if (packet.getPublishTimestamp() != null) flags |= FLAG_PUBLISH_TIMESTAMP;
+        if (packet.getChannel() != null) flags |= FLAG_CHANNEL;
+        if (compressed != null) flags |= FLAG_COMPRESSED;
+        if (packet.isBinary()) flags |= FLAG_BINARY_PAYLOAD;
+
+        writer.writeByte(VERSION_1);
+        writer.writeByte(flags);
+        writeString(writer, packet.getReceiver());
+        writeString(writer, packet.getSubject());
+        writeString(writer, packet.getSender());
+        writer.writeUuid(packet.getMessageId());
+        if (packet.getResponseId() != null) writer.writeUuid(packet.getResponseId());
+        writer.writeVarLong(packet.getCreateTimestamp());
+        if (packet.getPublishTimestamp() != null) writer.writeVarLong(packet.getPublishTimestamp());
+        if (packet.getChannel() != null) writeString(writer, packet.getChannel());
+        writer.writeVarLong(payload.length);
+        if (compressed != null) {
+            writer.writeVarLong(compressed.length);
+            writer.writeBytes(compressed, 0, compressed.length);
+        } else {
+            writer.writeBytes(payload, 0, payload.length);
+        }
+        return writer.toByteArray();
+    }
+
+    @Override
+    public @NotNull RedisPacket decode(byte @NotNull [] frame) {
+        RedisPacket packet = decodeLazy(frame);
+        packet.getPayload();
+        return packet;
+    }
+
+    @Override
+    public @NotNull RedisPacket decodeLazy(byte @NotNull [] frame) {
+        return decodeLazy(frame, 0, frame.length);
+    }
+
+    @Override
+    public @NotNull RedisPacket decodeLazy(byte @NotNull [] frame, int offset, int length) {
+        if (length == 0) throw new IllegalArgumentException("空的数据包 !");
+        if (frame[offset] == '{') return JsonPacketCodec.INSTANCE.decodeLazy(frame, offset, length); // 兼容 JSON 格式
+        if (frame[offset] != VERSION_1) throw new IllegalArgumentException("不支持的数据包版本: " + frame[offset]);
+
+        try {
+            FrameReader reader = new FrameReader(frame, offset + 1, offset + length);
+            int flags = reader.readByte();
+            String receiver = readString(reader);
+            String subject = readString(reader);
+            String sender = readString(reader);
+            UUID messageId = reader.readUuid();
+            UUID responseId = (flags & FLAG_RESPONSE_ID) != 0 ? reader.readUuid() : null;
+            long createTimestamp = reader.readVarLong();
+            Long publishTimestamp = (flags & FLAG_PUBLISH_TIMESTAMP) != 0 ? reader.readVarLong() : null;
+            String channel = (flags & FLAG_CHANNEL) != 0 ? readString(reader) : null;
+            RedisPacket packet = new RedisPacket(messageId, createTimestamp, sender, receiver, subject, "");
+            // 消息内容放在最后, 只记录位置, 首次访问时才解压和解码; 未压缩的二进制内容直接引用原始消息
+            boolean binary = (flags & FLAG_BINARY_PAYLOAD) != 0;
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                long originalLength = reader.readVarLong();
+                if (originalLength > PayloadCompressor.MAX_PAYLOAD_LENGTH) throw new IllegalArgumentException("非法的解压长度: " + originalLength);
+                int compressedLength = reader.readLength();
+                int compressedOffset = reader.skip(compressedLength);
+                PayloadCompressor decompressor = compressor != null ? compressor : PLAIN_DECOMPRESSOR;
+                if (binary) {
+                    packet.setLazyPayloadBuffer(() -> ByteBuffer.wrap(decompressor.decompress(frame, compressedOffset, compressedLength, (int) originalLength)));
+                } else {
+                    packet.setLazyPayload(() -> new String(decompressor.decompress(frame, compressedOffset, compressedLength, (int) originalLength), StandardCharsets.UTF_8));
+                }
+            } else {
+                int payloadLength = reader.readLength();
+                int payloadOffset = reader.skip(payloadLength);
+                if (binary) {
+                    packet.setPayloadBuffer(ByteBuffer.wrap(frame, payloadOffset, payloadLength).slice());
+                } else {
+                    packet.setLazyPayload(() -> new String(frame, payloadOffset, payloadLength, StandardCharsets.UTF_8));
+                }
+            }
+            packet.setResponseId(responseId);
+            packet.setPublishTimestamp(publishTimestamp);
+            packet.setChannel(channel);
+            return packet;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("数据包内容不完整 !", e);
+        }
+    }
+
+    // 写入字符串, 优先使用字典下标
+    private void writeString(FrameWriter writer, String value) {
+        Integer index = dictionaryIndex.get(value);
+        if (index != null) {
+            writer.writeVarLong(((long) index << 1) | 1);
+            return;
+        }
+
+        byte[] bytes = encodeCache.get(value);
+        if (bytes == null) {
+            bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length <= INTERN_MAX_LENGTH && encodeCache.size() < ENCODE_CACHE_LIMIT) encodeCache.put(value, bytes);
+        }
+        writer.writeVarLong((long) bytes.length << 1);
+        writer.writeBytes(bytes, 0, bytes.length);
+    }
+
+    // 读取字符串, 短字符串会经过驻留缓存
+    private String readString(FrameReader reader) {
+        long header = reader.readVarLong();
+        if ((header & 1) != 0) {
+            long index = header >>> 1;
+            if (index >= dictionary.length) throw new IllegalArgumentException("未知的字典下标: " + index);
+            return dictionary[(int) index];
+        }
+
+        int length = (int) (header >>> 1);
+        if (length < 0 || length > reader.remaining()) throw new IllegalArgumentException("非法的字符串长度: " + length);
+        int offset = reader.skip(length);
+        if (length > INTERN_MAX_LENGTH) return new String(reader.frame, offset, length, StandardCharsets.UTF_8);
+
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) hash = 31 * hash + reader.frame[i];
+        int slot = (hash ^ (hash >>> 16)) & (INTERN_CACHE_SIZE - 1);
+        InternedString cached = internCache[slot];
+        if (cached != null && cached.matches(reader.frame, offset, length)) return cached.value;
+
+        String value = new String(reader.frame, offset, length, StandardCharsets.UTF_8);
+        internCache[slot] = new InternedString(Arrays.copyOfRange(reader.frame, offset, offset + length), value);
+        return value;
+    }
+
+
+    // 驻留缓存中的一项, 不可变对象, 可在线程间安全发布
+    private record InternedString(byte[] bytes, String value) {
+        boolean matches(byte[] frame, int offset, int length) {
+            return bytes.length == length && Arrays.equals(bytes, 0, length, frame, offset, offset + length);
+        }
+    }
+
+    // 可扩容的字节写入器
+    private static final class FrameWriter {
+        private byte[] buffer;
+        private int position;
+
+        FrameWriter(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeUuid(UUID uuid) {
+            writeLong(uuid.getMostSignificantBits());
+            writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) buffer[position++] = (byte) (value >>> shift);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (position + extra <= buffer.length) return;
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + extra));
+        }
+
+        byte[] toByteArray() {
+            return position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+        }
+    }
+
+    // 字节读取器
+    private static final class FrameReader {
+        private final byte[] frame;
+        private final int limit; // 数据包的结束位置, 打包的消息中后面还有其他数据包
+        private int position;
+
+        FrameReader(byte[] frame, int position, int limit) {
+            this.frame = frame;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        int readByte() {
+            if (position >= limit) throw new IndexOutOfBoundsException();
+            return frame[position++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) throw new IndexOutOfBoundsException();
+                byte b = frame[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IllegalArgumentException("非法的 varint !");
+        }
+
+        int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > remaining()) throw new IllegalArgumentException("非法的长度: " + length);
+            return (int) length;
+        }
+
+        UUID readUuid() {
+            return new UUID(readLong(), readLong());
+        }
+
+        private long readLong() {
+            if (position + 8 > limit) throw new IndexOutOfBoundsException();
+            long value = 0;
+            for (int i = 0; i < 8; i++) value = (value << 8) | (frame[position++] & 0xFF);
+            return value;
+        }
+
+        // 跳过指定长度, 返回跳过前的位置
+        int skip(int length) {
+            int offset = position;
+            position += length;
+            return offset;
+        }
+
+        int remaining() {
+            return limit - position;
+        }
+    }
+}
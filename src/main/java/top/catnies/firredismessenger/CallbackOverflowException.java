@@ -0,0 +1,12 @@
+package top.catnies.firredismessenger;
+
+/**
+ * 等待回复的数据包数量达到上限, 并且溢出策略为 {@link CallbackTable.OverflowPolicy#FAIL_FAST} 时抛出.
+ */
+public class CallbackOverflowException extends IllegalStateException {
+
+    public CallbackOverflowException(String message) {
+        super(message);
+    }
+
+}
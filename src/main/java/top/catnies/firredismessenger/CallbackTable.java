@@ -0,0 +1,345 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 等待回复的数据包关联表.
+ * 以 long 作为键, 分段加锁, 每段是一个线性探测的开放寻址表, 并按插入顺序串成链表以便淘汰最旧的任务.
+ * 容量上限对整张表生效 (由一个全局计数保证, 不是每段单独计算), 满了之后按 {@link OverflowPolicy} 处理;
+ * 淘汰时比较各段最旧任务的插入序号, 移除整张表中最旧的任务. 各段按需扩容, 总量不会超过容量.
+ */
+public class CallbackTable {
+
+    /**
+     * 关联表满了之后的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 拒绝新的请求: 新数据包不会被发送, 它的超时回调会立即触发 */
+        REJECT,
+        /** 淘汰最旧的请求: 被淘汰的数据包会立即触发超时回调 */
+        EVICT_OLDEST,
+        /** 直接抛出 {@link CallbackOverflowException} */
+        FAIL_FAST
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final Consumer<RedisCallback.CallbackEntry> evictionListener;
+    private final AtomicInteger count = new AtomicInteger(); // 整张表已占用的名额, 包括正在放入的任务
+    private final AtomicLong sequence = new AtomicLong(); // 插入序号, 用于跨段比较新旧
+
+    /**
+     * @param capacity 最多同时等待回复的数据包数量
+     * @param stripeCount 分段数量, 会向上取整到 2 的幂, 并且不会超过容量
+     * @param overflowPolicy 表满时的处理策略
+     * @param evictionListener 被淘汰的任务, 在锁外调用
+     */
+    public CallbackTable(int capacity, int stripeCount, @NotNull OverflowPolicy overflowPolicy, @NotNull Consumer<RedisCallback.CallbackEntry> evictionListener) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity 必须大于 0 !");
+        if (stripeCount <= 0) throw new IllegalArgumentException("stripeCount 必须大于 0 !");
+
+        int stripeSize = 1;
+        while (stripeSize < Math.min(stripeCount, capacity)) stripeSize <<= 1;
+        if (stripeSize > capacity) stripeSize >>= 1;
+
+        this.stripes = new Stripe[stripeSize];
+        int perStripe = (capacity + stripeSize - 1) / stripeSize; // 初始大小, 键分布不均时单段可以超过它
+        for (int i = 0; i < stripeSize; i++) stripes[i] = new Stripe(perStripe);
+        this.stripeMask = stripeSize - 1;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * 由数据包ID计算关联键
+     * @param messageId 数据包ID
+     * @return 关联键
+     */
+    public static long keyOf(@NotNull UUID messageId) {
+        return messageId.getMostSignificantBits() ^ messageId.getLeastSignificantBits();
+    }
+
+    /**
+     * 放入等待回复的任务
+     * @param key 关联键
+     * @param entry 回调任务
+     * @return 是否放入成功, 仅在 {@link OverflowPolicy#REJECT} 策略下表满时返回 false
+     * @throws CallbackOverflowException 在 {@link OverflowPolicy#FAIL_FAST} 策略下表满时抛出
+     */
+    public boolean put(long key, @NotNull RedisCallback.CallbackEntry entry) {
+        List<RedisCallback.CallbackEntry> evicted = null;
+        // 先占用一个全局名额, 表满时按策略处理
+        while (!reserve()) {
+            switch (overflowPolicy) {
+                case REJECT:
+                    return false;
+                case FAIL_FAST:
+                    throw new CallbackOverflowException("等待回复的数据包数量已达到上限 " + capacity + " !");
+                case EVICT_OLDEST:
+                    RedisCallback.CallbackEntry oldest = evictOldest();
+                    if (oldest == null) {
+                        Thread.onSpinWait(); // 名额被其他线程占用但任务还没放入, 稍后重试
+                        continue;
+                    }
+                    if (evicted == null) evicted = new ArrayList<>(1);
+                    evicted.add(oldest);
+                    break;
+            }
+        }
+
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int index = stripe.find(key);
+            if (index >= 0) {
+                // 64 位键冲突几乎不可能发生, 发生时把旧任务当作被淘汰处理, 并归还它的名额
+                if (evicted == null) evicted = new ArrayList<>(1);
+                evicted.add(stripe.values[index]);
+                stripe.removeAt(index);
+                count.decrementAndGet();
+            }
+            stripe.insert(key, entry, sequence.incrementAndGet());
+        }
+        if (evicted != null) evicted.forEach(evictionListener);
+        return true;
+    }
+
+    // 占用一个全局名额
+    private boolean reserve() {
+        while (true) {
+            int current = count.get();
+            if (current >= capacity) return false;
+            if (count.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    // 移除整张表中最旧的任务并归还名额, 表为空时返回 null
+    @Nullable
+    private RedisCallback.CallbackEntry evictOldest() {
+        while (true) {
+            Stripe oldest = null;
+            long oldestSequence = Long.MAX_VALUE;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    if (stripe.head >= 0 && stripe.sequences[stripe.head] < oldestSequence) {
+                        oldest = stripe;
+                        oldestSequence = stripe.sequences[stripe.head];
+                    }
+                }
+            }
+            if (oldest == null) return null;
+            synchronized (oldest) {
+                // 扫描之后该段的最旧任务可能已被移除, 此时重新扫描
+                if (oldest.head < 0 || oldest.sequences[oldest.head] != oldestSequence) continue;
+                RedisCallback.CallbackEntry entry = oldest.values[oldest.head];
+                oldest.removeAt(oldest.head);
+                count.decrementAndGet();
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * 查找等待回复的任务, 不移除
+     * @param key 关联键
+     * @param messageId 原始数据包ID, 用于校验键冲突
+     * @return 任务, 不存在时返回 null
+     */
+    @Nullable
+    public RedisCallback.CallbackEntry get(long key, @NotNull UUID messageId) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int index = stripe.find(key);
+            if (index < 0) return null;
+            RedisCallback.CallbackEntry entry = stripe.values[index];
+            return messageId.equals(entry.getPacket().getMessageId()) ? entry : null;
+        }
+    }
+
+    /**
+     * 移除等待回复的任务
+     * @param key 关联键
+     * @param messageId 原始数据包ID, 用于校验键冲突
+     * @return 被移除的任务, 不存在时返回 null
+     */
+    @Nullable
+    public RedisCallback.CallbackEntry remove(long key, @NotNull UUID messageId) {
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int index = stripe.find(key);
+            if (index < 0) return null;
+            RedisCallback.CallbackEntry entry = stripe.values[index];
+            if (!messageId.equals(entry.getPacket().getMessageId())) return null;
+            stripe.removeAt(index);
+            count.decrementAndGet();
+            return entry;
+        }
+    }
+
+    /**
+     * 清空关联表
+     * @return 被清除的任务
+     */
+    public List<RedisCallback.CallbackEntry> clear() {
+        List<RedisCallback.CallbackEntry> removed = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                while (stripe.head >= 0) {
+                    removed.add(stripe.values[stripe.head]);
+                    stripe.removeAt(stripe.head);
+                    count.decrementAndGet();
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return 当前等待回复的任务数量
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return 关联表的容量, 对整张表生效
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private Stripe stripeOf(long key) {
+        return stripes[(int) (key >>> 40) & stripeMask];
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32));
+        return h * 0x9E3779B9;
+    }
+
+
+    /**
+     * 一段关联表, 所有方法都需要在持有该段的锁时调用
+     */
+    private static final class Stripe {
+        private int mask;
+        private long[] keys;
+        private long[] sequences; // 插入序号
+        private RedisCallback.CallbackEntry[] values;
+        private int[] prev; // 插入顺序链表, 按槽位下标链接
+        private int[] next;
+        private int head = -1; // 最旧的槽位
+        private int tail = -1; // 最新的槽位
+        private int size;
+
+        Stripe(int initialCapacity) {
+            int slots = 2;
+            while (slots < initialCapacity * 2) slots <<= 1; // 负载因子不超过 0.5
+            allocate(slots);
+        }
+
+        private void allocate(int slots) {
+            this.mask = slots - 1;
+            this.keys = new long[slots];
+            this.sequences = new long[slots];
+            this.values = new RedisCallback.CallbackEntry[slots];
+            this.prev = new int[slots];
+            this.next = new int[slots];
+        }
+
+        // 容量翻倍, 按插入顺序重新放入, 保持链表顺序
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldSequences = sequences;
+            RedisCallback.CallbackEntry[] oldValues = values;
+            int[] oldNext = next;
+            int oldHead = head;
+            allocate(values.length << 1);
+            head = -1;
+            tail = -1;
+            size = 0;
+            for (int index = oldHead; index >= 0; index = oldNext[index]) {
+                insert(oldKeys[index], oldValues[index], oldSequences[index]);
+            }
+        }
+
+        int find(long key) {
+            int index = hash(key) & mask;
+            while (values[index] != null) {
+                if (keys[index] == key) return index;
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        void insert(long key, RedisCallback.CallbackEntry entry, long sequence) {
+            if ((size + 1) * 2 > values.length) grow();
+            int index = hash(key) & mask;
+            while (values[index] != null) index = (index + 1) & mask;
+            keys[index] = key;
+            sequences[index] = sequence;
+            values[index] = entry;
+
+            // 链接到链表尾部
+            prev[index] = tail;
+            next[index] = -1;
+            if (tail >= 0) next[tail] = index;
+            else head = index;
+            tail = index;
+            size++;
+        }
+
+        void removeAt(int index) {
+            // 从链表中摘除
+            if (prev[index] >= 0) next[prev[index]] = next[index];
+            else head = next[index];
+            if (next[index] >= 0) prev[next[index]] = prev[index];
+            else tail = prev[index];
+            values[index] = null;
+            size--;
+
+            // 向后移位删除, 保持线性探测链连续
+            int gap = index;
+            int current = index;
+            while (true) {
+                current = (current + 1) & mask;
+                if (values[current] == null) return;
+                int home = hash(keys[current]) & mask;
+                boolean movable = gap <= current ? (home <= gap || home > current) : (home <= gap && home > current);
+                if (movable) {
+                    move(current, gap);
+                    gap = current;
+                }
+            }
+        }
+
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            sequences[to] = sequences[from];
+            values[to] = values[from];
+            prev[to] = prev[from];
+            next[to] = next[from];
+            if (prev[to] >= 0) next[prev[to]] = to;
+            else head = to;
+            if (next[to] >= 0) prev[next[to]] = to;
+            else tail = to;
+            values[from] = null;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接生命周期管理.
+ * <ul>
+ *     <li>首次连接失败时按指数退避重试, 不会让管理器停留在没有连接的状态</li>
+ *     <li>传输层报告连接中断后, 发布的数据包先放入有界的环形缓冲区, 满了之后丢弃最旧的, 并立即触发它的超时回调; 连接恢复后按顺序补发</li>
+ *     <li>连接中断期间暂停等待回复的超时, 恢复后按中断时长顺延, 短暂的故障切换不会造成大量误报的超时</li>
+ *     <li>连接恢复后重新订阅所有已订阅的频道</li>
+ * </ul>
+ * 连接建立后的断线重连由 Lettuce 完成 (使用相同的退避参数), 传输层通过 {@link #onConnectionLost()} 和 {@link #onConnectionRestored()} 报告连接状态.
+ */
+public class ConnectionSupervisor {
+    private final RedisManager manager;
+    private final MessageTransport transport;
+    private final RedisOptions options;
+    private final OutboundRing outbound;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    @Getter private volatile boolean started; // 传输层是否已经启动
+    @Getter private volatile boolean connected; // 连接当前是否可用
+    private volatile boolean closed;
+    private int attempts; // 连续失败的连接次数, 只在调度线程中访问
+
+    @Getter private final LongAdder connectAttempts = new LongAdder(); // 尝试建立连接的次数
+    @Getter private final LongAdder outages = new LongAdder(); // 连接中断的次数
+    @Getter private final LongAdder bufferedPackets = new LongAdder(); // 中断期间放入缓冲区的数据包数量
+    @Getter private final LongAdder droppedPackets = new LongAdder(); // 缓冲区满了之后丢弃的数据包数量
+    @Getter private final LongAdder replayedPackets = new LongAdder(); // 连接恢复后补发的数据包数量
+
+    /**
+     * @param manager 所属的管理器
+     * @param transport 管理器使用的传输层
+     */
+    public ConnectionSupervisor(@NotNull RedisManager manager, @NotNull MessageTransport transport) {
+        this.manager = manager;
+        this.transport = transport;
+        this.options = manager.getOptions();
+        this.outbound = new OutboundRing(options.getOutboundBufferSize());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "FirRedisMessenger-Reconnect-" + manager.getServerId());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动传输层, 失败时在后台按指数退避重试
+     * @return 本次是否连接成功
+     */
+    public boolean start() {
+        connectAttempts.increment();
+        try {
+            transport.start(manager);
+        } catch (Exception e) {
+            System.err.println("Error in Redis connection: " + e.getMessage());
+            transport.close(); // 释放启动到一半的连接, 重试时重新创建
+            onConnectionLost();
+            scheduleRetry();
+            return false;
+        }
+        started = true;
+        if (!connected) onConnectionRestored();
+        return true;
+    }
+
+    /**
+     * 传输层报告连接中断
+     */
+    public void onConnectionLost() {
+        if (closed) return;
+        synchronized (this) {
+            if (!connected && started) return;
+            connected = false;
+        }
+        if (started) {
+            outages.increment();
+            System.err.println("Redis connection lost, publishes are buffered until it is restored.");
+        }
+        manager.getCallbackManager().suspendTimeouts();
+    }
+
+    /**
+     * 传输层报告连接已经恢复: 重新订阅频道, 恢复超时, 补发缓冲的数据包
+     */
+    public void onConnectionRestored() {
+        if (closed || !started) return;
+        synchronized (this) {
+            if (connected) return;
+            connected = true;
+        }
+        try {
+            manager.resubscribeAll();
+        } finally {
+            // 重新订阅出错也要恢复超时和补发, 否则等待回复的请求永远不会超时, 之后的发布也会一直留在缓冲区中
+            manager.getCallbackManager().resumeTimeouts();
+            drain();
+        }
+    }
+
+    /**
+     * 连接不可用, 或者缓冲区中还有尚未补发完的数据包时, 把数据包放入缓冲区, 保持发布顺序
+     * @param channel 实际发布的频道
+     * @param packet 数据包
+     * @return 是否已放入缓冲区, 否则调用方应直接发布
+     * @throws IllegalStateException 未开启缓冲区, 并且传输层还没有成功启动过
+     */
+    public boolean offer(@NotNull String channel, @NotNull RedisPacket packet) {
+        return offer(channel, packet, false);
+    }
+
+    /**
+     * 同 {@link #offer(String, RedisPacket)}, 可以指定补发时追加到 Streams 频道对应的流中
+     * @param channel 实际发布的频道, 追加到流时为频道名
+     * @param packet 数据包
+     * @param stream 是否追加到流中
+     * @return 是否已放入缓冲区, 否则调用方应直接发布
+     * @throws IllegalStateException 未开启缓冲区, 并且传输层还没有成功启动过
+     */
+    public boolean offer(@NotNull String channel, @NotNull RedisPacket packet, boolean stream) {
+        // 先检查缓冲区再检查补发状态: 补发线程取出最后一个数据包后、发布完成前缓冲区已经为空, 此时直接发布会抢在它前面
+        if (connected && outbound.isEmpty() && !draining.get()) return false;
+        if (outbound.capacity() == 0) {
+            // 未开启缓冲区: 启动过的传输层由 Lettuce 自己的命令队列处理, 首次连接成功前直接失败
+            if (!started) throw new IllegalStateException("Redis 尚未连接, 并且没有开启发布缓冲区 (outboundBufferSize = 0) !");
+            return false;
+        }
+        Pending dropped = outbound.add(channel, packet, stream);
+        if (dropped != null) {
+            droppedPackets.increment();
+            manager.getCallbackManager().failCallbackTask(dropped.packet().getMessageId()); // 不会再发出去, 不必等到超时
+        }
+        bufferedPackets.increment();
+        if (connected) drain(); // 缓冲区正在补发, 新数据包排在后面
+        return true;
+    }
+
+    /**
+     * @return 缓冲区中等待补发的数据包数量
+     */
+    public int getBufferedCount() {
+        return outbound.size();
+    }
+
+    /**
+     * 停止重试, 丢弃尚未补发的数据包
+     */
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        int dropped = outbound.clear();
+        if (dropped > 0) System.err.println("Discarded " + dropped + " buffered Redis publishes on shutdown.");
+    }
+
+    // 按顺序补发缓冲区中的数据包, 同一时刻只有一个线程在补发
+    private void drain() {
+        while (connected && !outbound.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                Pending next;
+                while (connected && (next = outbound.poll()) != null) {
+                    if (next.stream()) manager.appendToStream(next.channel(), next.packet());
+                    else transport.publish(next.channel(), next.packet());
+                    replayedPackets.increment();
+                }
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void scheduleRetry() {
+        if (closed) return;
+        long delay = backoffMillis(++attempts);
+        scheduler.schedule(() -> {
+            if (closed) return;
+            if (start()) {
+                attempts = 0;
+                System.out.println("Redis connection established after " + connectAttempts.sum() + " attempts.");
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // 指数退避, 加上最多一半的随机抖动, 避免大量服务器同时重连
+    private long backoffMillis(int attempt) {
+        long min = options.getReconnectMinDelayMs();
+        long max = options.getReconnectMaxDelayMs();
+        long delay = min << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > max) delay = max;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+
+    // 等待补发的数据包, stream 表示补发时追加到流中
+    private record Pending(String channel, RedisPacket packet, boolean stream) { }
+
+    // 有界的环形缓冲区, 满了之后覆盖最旧的数据包
+    private static final class OutboundRing {
+        private final Pending[] slots;
+        private int head; // 最旧的数据包的位置
+        private volatile int size; // 只在持有锁时修改, 发布时不加锁读取
+
+        OutboundRing(int capacity) {
+            this.slots = new Pending[capacity];
+        }
+
+        int capacity() {
+            return slots.length;
+        }
+
+        // 放入数据包, 返回被覆盖的最旧的数据包, 没有覆盖时为空
+        synchronized Pending add(String channel, RedisPacket packet, boolean stream) {
+            int tail = (head + size) % slots.length;
+            Pending overwritten = slots[tail];
+            slots[tail] = new Pending(channel, packet, stream);
+            if (size < slots.length) {
+                size++;
+                return null;
+            }
+            head = (head + 1) % slots.length;
+            return overwritten;
+        }
+
+        synchronized Pending poll() {
+            if (size == 0) return null;
+            Pending next = slots[head];
+            slots[head] = null;
+            head = (head + 1) % slots.length;
+            size--;
+            return next;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        synchronized int clear() {
+            int cleared = size;
+            Arrays.fill(slots, null);
+            head = 0;
+            size = 0;
+            return cleared;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package top.catnies.firredismessenger;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.function.Consumer;
+
+/**
+ * {@link ListenerInvoker} 的调用器模板, 不会被直接使用.
+ * 每个无法生成 Lambda 的监听器方法都会用本类的字节码定义一个隐藏类, 绑定好的 MethodHandle 作为类数据写入静态常量,
+ * JIT 把它当作常量内联, 调用开销接近直接调用, 而不是通过普通字段上的 MethodHandle 调用.
+ */
+final class ConstantHandleConsumer implements Consumer<RedisPacket> {
+    private static final MethodHandle HANDLE = classData(); // 直接加载本类时为空
+
+    private static MethodHandle classData() {
+        try {
+            return MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Override
+    public void accept(RedisPacket packet) {
+        try {
+            HANDLE.invokeExact(packet);
+        } catch (Throwable e) {
+            throw ListenerInvoker.sneakyThrow(e);
+        }
+    }
+}
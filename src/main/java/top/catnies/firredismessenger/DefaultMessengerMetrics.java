@@ -0,0 +1,116 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 默认的运行指标实现, 用 {@link LongAdder} 计数, 用 {@link LatencyHistogram} 统计耗时分布.
+ * 除了每个主题第一次执行时创建它的直方图之外, 记录指标不会分配对象.
+ * 处理器耗时按主题分别统计, 主题数量达到上限后, 之后出现的主题合并到 handlers.other.nanos, 动态注册的主题不会让直方图无限增长.
+ */
+public class DefaultMessengerMetrics implements MessengerMetrics {
+    public static final int DEFAULT_MAX_HANDLER_SUBJECTS = 256;
+
+    private final LongAdder publishedPackets = new LongAdder();
+    private final LongAdder publishedBytes = new LongAdder();
+    private final LongAdder receivedPackets = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder callbackTimeouts = new LongAdder();
+
+    private final LatencyHistogram decodeNanos = new LatencyHistogram();
+    private final LatencyHistogram endToEndMillis = new LatencyHistogram();
+    private final LatencyHistogram replyNanos = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> handlerNanos = new ConcurrentHashMap<>(); // [主题: 处理耗时]
+    private final LatencyHistogram otherHandlerNanos = new LatencyHistogram(); // 超出主题数量上限的处理耗时
+    private final int maxHandlerSubjects;
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public DefaultMessengerMetrics() {
+        this(DEFAULT_MAX_HANDLER_SUBJECTS);
+    }
+
+    /**
+     * @param maxHandlerSubjects 单独统计处理器耗时的主题数量上限
+     */
+    public DefaultMessengerMetrics(int maxHandlerSubjects) {
+        if (maxHandlerSubjects < 0) throw new IllegalArgumentException("maxHandlerSubjects 不能小于 0 !");
+        this.maxHandlerSubjects = maxHandlerSubjects;
+    }
+
+    @Override
+    public void onPublish(@NotNull String channel, int encodedBytes) {
+        publishedPackets.increment();
+        publishedBytes.add(encodedBytes);
+    }
+
+    @Override
+    public void onReceive(@NotNull String channel, int encodedBytes) {
+        receivedPackets.increment();
+        receivedBytes.add(encodedBytes);
+    }
+
+    @Override
+    public void onDecode(long nanos) {
+        decodeNanos.record(nanos);
+    }
+
+    @Override
+    public void onEndToEndLatency(long millis) {
+        endToEndMillis.record(millis);
+    }
+
+    @Override
+    public void onHandle(@NotNull String subject, long nanos) {
+        LatencyHistogram histogram = handlerNanos.get(subject);
+        if (histogram == null) {
+            // 并发创建时可能略微超出上限, 不影响有界
+            histogram = handlerNanos.size() < maxHandlerSubjects ? handlerNanos.computeIfAbsent(subject, k -> new LatencyHistogram()) : otherHandlerNanos;
+        }
+        histogram.record(nanos);
+    }
+
+    @Override
+    public void onReply(long nanos) {
+        replies.increment();
+        replyNanos.record(nanos);
+    }
+
+    @Override
+    public void onCallbackTimeout() {
+        callbackTimeouts.increment();
+    }
+
+    @Override
+    public void registerGauge(@NotNull String name, @NotNull LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    @Override
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("publish.packets", publishedPackets.sum());
+        counters.put("publish.bytes", publishedBytes.sum());
+        counters.put("receive.packets", receivedPackets.sum());
+        counters.put("receive.bytes", receivedBytes.sum());
+        counters.put("callback.replies", replies.sum());
+        counters.put("callback.timeouts", callbackTimeouts.sum());
+
+        Map<String, Long> gaugeValues = new LinkedHashMap<>();
+        gauges.forEach((name, supplier) -> gaugeValues.put(name, supplier.getAsLong()));
+
+        Map<String, MetricsSnapshot.HistogramSnapshot> histograms = new LinkedHashMap<>();
+        histograms.put("decode.nanos", decodeNanos.snapshot());
+        histograms.put("e2e.millis", endToEndMillis.snapshot());
+        histograms.put("callback.rtt.nanos", replyNanos.snapshot());
+        handlerNanos.forEach((subject, histogram) -> histograms.put("handler." + subject + ".nanos", histogram.snapshot()));
+        if (otherHandlerNanos.getCount() > 0) histograms.put("handlers.other.nanos", otherHandlerNanos.snapshot());
+
+        return new MetricsSnapshot(System.currentTimeMillis(), counters, gaugeValues, histograms);
+    }
+}
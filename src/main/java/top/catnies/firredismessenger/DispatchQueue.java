@@ -0,0 +1,349 @@
+package top.catnies.firredismessenger;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.internal.ThreadExecutorMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界的消息分发队列.
+ * 收到的数据包先进入该队列, 同时处理中的数据包不超过上限; 一个数据包的所有处理器都执行完后才算处理完成.
+ * 队列满了之后按 {@link OverflowPolicy} 丢弃或在调用线程上处理, 提交数据包的线程永远不会被阻塞.
+ * 配置了 {@link ReadControl} 时, 队列满了之后先通知传输层暂停读取 (例如关闭订阅连接的 autoRead), 队列降到一半以下时恢复;
+ * 暂停超过 pauseMs 后也会恢复, 之后到达的数据包按溢出策略处理, 直到队列降到一半以下才会再次暂停.
+ * 数据包按到达顺序开始处理, 丢弃时按数据包的优先级 (处理器的最高权重) 分桶.
+ */
+public class DispatchQueue {
+
+    /**
+     * 队列满了之后的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 丢弃队列中最旧的数据包 */
+        DROP_OLDEST,
+        /** 丢弃新到达的数据包 */
+        DROP_NEWEST,
+        /** 在调用线程上直接执行新到达数据包的处理器; 调用线程是 Netty 的 IO 线程时改为丢弃新到达的数据包, 不在 IO 线程上执行处理器 */
+        CALLER_RUNS,
+        /** 丢弃优先级最低的数据包: 新数据包优先级更高时丢弃队列中优先级最低的最旧数据包, 否则丢弃新数据包 */
+        PRIORITY_SHEDDING
+    }
+
+    private final int capacity;
+    private final int maxInFlight;
+    private final OverflowPolicy overflowPolicy;
+    private final long pauseNanos;
+    @Nullable private final ReadControl readControl;
+    @Nullable private final TimeoutWheel timer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Integer, ArrayDeque<Job>> buckets = new TreeMap<>(); // [优先级: 按到达顺序排列的数据包]
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private long sequence; // 到达序号
+    private int size; // 排队中的数据包数量
+    private int inFlight; // 处理中的数据包数量
+    private volatile boolean readPaused; // 是否已经暂停读取, 只在持有锁时修改
+    private boolean pauseExhausted; // 本轮暂停已经超时, 队列降到一半以下之前不再暂停
+    private long pauseRound; // 暂停的轮次, 用于忽略过期的恢复任务
+
+    /* 统计 */
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder callerRunsRejected = new LongAdder();
+    private final LongAdder shedByPriority = new LongAdder();
+    private final LongAdder pauses = new LongAdder();
+
+    /**
+     * 暂停和恢复读取的方式, 通常由传输层实现
+     */
+    @FunctionalInterface
+    public interface ReadControl {
+        /**
+         * 暂停或恢复读取, 在持有队列锁时调用, 不能阻塞
+         * @param paused 是否暂停
+         */
+        void setReadPaused(boolean paused);
+    }
+
+    /**
+     * 创建不暂停读取的分发队列
+     * @param capacity 排队数据包数量上限
+     * @param maxInFlight 同时处理中的数据包数量上限
+     * @param overflowPolicy 队列满了之后的处理策略
+     */
+    public DispatchQueue(int capacity, int maxInFlight, @NotNull OverflowPolicy overflowPolicy) {
+        this(capacity, maxInFlight, overflowPolicy, 0, null, null);
+    }
+
+    /**
+     * @param capacity 排队数据包数量上限
+     * @param maxInFlight 同时处理中的数据包数量上限
+     * @param overflowPolicy 队列满了之后的处理策略
+     * @param pauseMs 队列满了之后暂停读取的最长时间, 0 表示不暂停
+     * @param readControl 暂停和恢复读取的方式, 为空时不暂停
+     * @param timer 到时恢复读取的定时器, 为空时只在队列降到一半以下时恢复
+     */
+    public DispatchQueue(int capacity, int maxInFlight, @NotNull OverflowPolicy overflowPolicy, long pauseMs,
+                         @Nullable ReadControl readControl, @Nullable TimeoutWheel timer) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity 必须大于 0 !");
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight 必须大于 0 !");
+        this.capacity = capacity;
+        this.maxInFlight = maxInFlight;
+        this.overflowPolicy = overflowPolicy;
+        this.pauseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(pauseMs, 0));
+        this.readControl = readControl;
+        this.timer = timer;
+    }
+
+    /**
+     * 提交一个数据包的分发任务
+     * @param job 分发任务
+     */
+    public void offer(@NotNull Job job) {
+        boolean runInline = false;
+        long round = 0;
+        lock.lock();
+        try {
+            if (size < capacity) {
+                enqueue(job);
+            } else {
+                switch (overflowPolicy) {
+                    case DROP_OLDEST -> {
+                        pollOldest();
+                        droppedOldest.increment();
+                        enqueue(job);
+                    }
+                    case DROP_NEWEST -> droppedNewest.increment();
+                    case CALLER_RUNS -> {
+                        if (isIoThread()) {
+                            callerRunsRejected.increment();
+                        } else {
+                            callerRuns.increment();
+                            runInline = true;
+                        }
+                    }
+                    case PRIORITY_SHEDDING -> {
+                        Map.Entry<Integer, ArrayDeque<Job>> lowest = buckets.firstEntry();
+                        if (lowest.getKey() < job.priority) {
+                            lowest.getValue().pollFirst();
+                            if (lowest.getValue().isEmpty()) buckets.remove(lowest.getKey());
+                            size--;
+                            enqueue(job);
+                        }
+                        shedByPriority.increment();
+                    }
+                }
+            }
+            if (size >= capacity) round = pauseReading();
+        } finally {
+            lock.unlock();
+        }
+
+        if (round != 0 && timer != null) scheduleResume(round);
+        if (runInline) job.runInline();
+        else drain();
+    }
+
+    // 队列满了之后暂停读取, 返回本轮暂停的轮次, 没有暂停时返回 0; 调用时必须持有锁
+    private long pauseReading() {
+        if (readControl == null || pauseNanos == 0 || readPaused || pauseExhausted) return 0;
+        readPaused = true;
+        pauses.increment();
+        readControl.setReadPaused(true);
+        return ++pauseRound;
+    }
+
+    // 队列降到一半以下时恢复读取, 并允许下次队列满了之后再次暂停; 调用时必须持有锁
+    private void resumeIfDrained() {
+        if (size > capacity / 2) return;
+        pauseExhausted = false;
+        if (!readPaused) return;
+        readPaused = false;
+        readControl.setReadPaused(false);
+    }
+
+    // 暂停超过 pauseMs 后恢复读取, 之后到达的数据包按溢出策略处理
+    private void scheduleResume(long round) {
+        try {
+            timer.newTimeout(() -> {
+                lock.lock();
+                try {
+                    if (!readPaused || round != pauseRound) return;
+                    readPaused = false;
+                    pauseExhausted = true;
+                    readControl.setReadPaused(false);
+                } finally {
+                    lock.unlock();
+                }
+            }, pauseNanos, TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            // 定时器已经关闭, 正在关闭管理器
+        }
+    }
+
+    // 是否在 Netty 的事件循环线程上, 即 Lettuce 的 IO 线程, 同一个事件循环上的其他连接共用这个线程
+    private static boolean isIoThread() {
+        return ThreadExecutorMap.currentExecutor() instanceof EventLoop;
+    }
+
+    private void enqueue(Job job) {
+        job.sequence = sequence++;
+        buckets.computeIfAbsent(job.priority, k -> new ArrayDeque<>()).addLast(job);
+        size++;
+    }
+
+    // 取出最早到达的数据包, 调用时必须持有锁
+    private Job pollOldest() {
+        Map.Entry<Integer, ArrayDeque<Job>> oldest = null;
+        for (Map.Entry<Integer, ArrayDeque<Job>> entry : buckets.entrySet()) {
+            if (oldest == null || entry.getValue().peekFirst().sequence < oldest.getValue().peekFirst().sequence) oldest = entry;
+        }
+        if (oldest == null) return null;
+        Job job = oldest.getValue().pollFirst();
+        if (oldest.getValue().isEmpty()) buckets.remove(oldest.getKey());
+        size--;
+        return job;
+    }
+
+    // 在处理中数量上限内按到达顺序启动排队的数据包, 同一时间只有一个线程在启动, 保证启动顺序与到达顺序一致
+    private void drain() {
+        while (true) {
+            if (!draining.compareAndSet(false, true)) return;
+            try {
+                while (true) {
+                    Job job;
+                    lock.lock();
+                    try {
+                        if (inFlight >= maxInFlight || size == 0) break;
+                        job = pollOldest();
+                        inFlight++;
+                        resumeIfDrained();
+                    } finally {
+                        lock.unlock();
+                    }
+                    // 每个数据包只释放一次名额: start 可能在已经安排了完成回调之后才抛出异常
+                    AtomicBoolean completed = new AtomicBoolean();
+                    Runnable onComplete = () -> {
+                        if (completed.compareAndSet(false, true)) complete();
+                    };
+                    try {
+                        job.start(onComplete);
+                    } catch (Exception e) {
+                        onComplete.run();
+                        System.err.println("Error in Redis message dispatch: " + e);
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+
+            // 释放标记后再检查一次, 避免其他线程在此期间完成的数据包没人启动后续任务
+            lock.lock();
+            try {
+                if (inFlight >= maxInFlight || size == 0) return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // 一个数据包的所有处理器执行完毕
+    private void complete() {
+        lock.lock();
+        try {
+            inFlight--;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * @return 排队中的数据包数量
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return 因 DROP_OLDEST 丢弃的数据包数量 */
+    public long getDroppedOldest() {
+        return droppedOldest.sum();
+    }
+
+    /** @return 因 DROP_NEWEST 丢弃的数据包数量 */
+    public long getDroppedNewest() {
+        return droppedNewest.sum();
+    }
+
+    /** @return 因 CALLER_RUNS 在调用线程上执行的数据包数量 */
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    /** @return CALLER_RUNS 策略下, 因调用线程是 IO 线程而丢弃的数据包数量 */
+    public long getCallerRunsRejected() {
+        return callerRunsRejected.sum();
+    }
+
+    /** @return 因 PRIORITY_SHEDDING 丢弃的数据包数量 */
+    public long getShedByPriority() {
+        return shedByPriority.sum();
+    }
+
+    /** @return 队列满了之后暂停读取的次数 */
+    public long getPauses() {
+        return pauses.sum();
+    }
+
+    /**
+     * @return 当前是否因为队列满了而暂停读取, 自己拉取消息的读取方 (例如 Streams) 应该在暂停期间停止读取
+     */
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
+
+    /**
+     * 一个数据包的分发任务
+     */
+    public abstract static class Job {
+        private final int priority;
+        private long sequence;
+
+        /**
+         * @param priority 数据包优先级, 队列满了之后优先丢弃低优先级的数据包
+         */
+        protected Job(int priority) {
+            this.priority = priority;
+        }
+
+        /**
+         * 开始异步分发, 所有处理器执行完后必须调用 onComplete, 重复调用会被忽略
+         * @param onComplete 完成回调
+         */
+        protected abstract void start(Runnable onComplete);
+
+        /**
+         * 在调用线程上同步执行所有处理器
+         */
+        protected abstract void runInline();
+    }
+}
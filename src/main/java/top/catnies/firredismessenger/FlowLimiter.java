@@ -0,0 +1,134 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import top.catnies.firredismessenger.api.ThrottleAction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 接收端的流量控制, 每个处理器 (一个 {@code @RedisSubject} 方法) 一个.
+ * 按发送者和主题分别维护令牌桶, 一个服务器刷屏时只会被限制它自己发来的消息, 不会占满所有节点的分发线程.
+ * 令牌桶以 GCRA 的形式实现: 每个桶只记录下一个令牌的理论到达时间, 获取令牌是对一个 AtomicLong 的 CAS, 不加锁.
+ */
+public class FlowLimiter {
+    private static final int MAX_KEYS = 4096; // 每种键最多跟踪的桶数量, 超过后清空重新计数, 避免伪造的发送者撑大内存
+
+    @Getter private final double senderRate; // 每个发送者每秒的消息数量, 0 表示不限制
+    @Getter private final double subjectRate; // 每个主题每秒的消息数量, 0 表示不限制
+    @Getter private final int burst; // 令牌桶容量, 0 表示与每秒数量相同
+    @Getter private final ThrottleAction action;
+    private final long maxDelayNanos; // DELAY 方式最多延迟的时间
+
+    private final Map<String, TokenBucket> senderBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> subjectBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param senderRate 每个发送者每秒最多处理的消息数量, 0 表示不限制
+     * @param subjectRate 每个主题每秒最多处理的消息数量 (所有发送者合计), 0 表示不限制
+     * @param burst 允许的瞬时突发数量, 0 表示与每秒数量相同
+     * @param action 超出限制时的处理方式
+     * @param maxDelayMs DELAY 方式最多延迟的毫秒数
+     */
+    public FlowLimiter(double senderRate, double subjectRate, int burst, @NotNull ThrottleAction action, long maxDelayMs) {
+        if (senderRate < 0 || subjectRate < 0) throw new IllegalArgumentException("速率不能小于 0 !");
+        if (senderRate == 0 && subjectRate == 0) throw new IllegalArgumentException("senderRate 和 subjectRate 至少需要设置一个 !");
+        if (burst < 0) throw new IllegalArgumentException("burst 不能小于 0 !");
+        if (maxDelayMs < 0) throw new IllegalArgumentException("maxDelayMs 不能小于 0 !");
+        this.senderRate = senderRate;
+        this.subjectRate = subjectRate;
+        this.burst = burst;
+        this.action = action;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+    }
+
+    /**
+     * 为数据包获取令牌, 同时受发送者和主题两个桶的限制.
+     * 发送者的桶通过但主题的桶拒绝时, 发送者的令牌不退还.
+     * @param packet 数据包
+     * @param now 当前的 {@link System#nanoTime()}
+     * @return 0 表示立即处理, 大于 0 表示 DELAY 方式需要等待的纳秒数, 小于 0 表示超出限制
+     */
+    long acquire(@NotNull RedisPacket packet, long now) {
+        long allowance = action == ThrottleAction.DELAY ? maxDelayNanos : 0;
+        long delay = 0;
+        if (senderRate > 0) {
+            delay = bucket(senderBuckets, packet.getSender(), senderRate, now).acquire(now, allowance);
+            if (delay < 0) return -1;
+        }
+        if (subjectRate > 0) {
+            long wait = bucket(subjectBuckets, packet.getSubject(), subjectRate, now).acquire(now, allowance);
+            if (wait < 0) return -1;
+            delay = Math.max(delay, wait);
+        }
+        return delay;
+    }
+
+    /**
+     * @return 发送者 -> 被限制的消息数量 (包括延迟和丢弃)
+     */
+    public Map<String, Long> getThrottledBySender() {
+        return counts(senderBuckets);
+    }
+
+    /**
+     * @return 主题 -> 被限制的消息数量 (包括延迟和丢弃)
+     */
+    public Map<String, Long> getThrottledBySubject() {
+        return counts(subjectBuckets);
+    }
+
+    private TokenBucket bucket(Map<String, TokenBucket> buckets, String key, double rate, long now) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) return bucket;
+        if (buckets.size() >= MAX_KEYS) buckets.clear();
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst > 0 ? burst : (int) Math.max(1, Math.ceil(rate)), now));
+    }
+
+    private static Map<String, Long> counts(Map<String, TokenBucket> buckets) {
+        Map<String, Long> counts = new HashMap<>();
+        buckets.forEach((key, bucket) -> {
+            long throttled = bucket.throttled.sum();
+            if (throttled > 0) counts.put(key, throttled);
+        });
+        return counts;
+    }
+
+
+    // 单个令牌桶: 理论到达时间超前当前时间的部分就是已经透支的令牌
+    private static final class TokenBucket {
+        private final long interval; // 生成一个令牌的纳秒数
+        private final long tolerance; // 允许超前的纳秒数, 对应桶容量
+        private final AtomicLong arrival; // 下一个令牌的理论到达时间
+        private final LongAdder throttled = new LongAdder();
+
+        TokenBucket(double rate, int capacity, long now) {
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            this.tolerance = interval * (capacity - 1);
+            this.arrival = new AtomicLong(now);
+        }
+
+        // 返回需要等待的纳秒数, 超过 allowance 时返回 -1 且不占用令牌
+        long acquire(long now, long allowance) {
+            while (true) {
+                long current = arrival.get();
+                long start = current - now > 0 ? current : now;
+                long wait = start - tolerance - now;
+                if (wait > allowance) {
+                    throttled.increment();
+                    return -1;
+                }
+                if (arrival.compareAndSet(current, start + interval)) {
+                    if (wait <= 0) return 0;
+                    throttled.increment();
+                    return wait;
+                }
+            }
+        }
+    }
+}
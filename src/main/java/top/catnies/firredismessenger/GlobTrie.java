@@ -0,0 +1,267 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 通配符模式的前缀树, 语法与 Redis PSUBSCRIBE 的 glob 一致:
+ * {@code *} (任意长度的任意字符), {@code ?} (单个任意字符), {@code [abc]} / {@code [a-z]} / {@code [^a]} (字符集合),
+ * {@code \} 转义下一个字符, 例如 {@code a\*b} 只匹配字面上的 "a*b".
+ * 共享前缀的模式共用节点, 匹配时同时推进所有可能的节点集合, 耗时不超过 文本长度 x 节点数, 不会因为多个 * 回溯成指数级.
+ * 读取可以与写入并发进行, 写入需要由调用方串行化.
+ * @param <V> 模式上挂载的值
+ */
+public class GlobTrie<V> {
+    private static final char ANY_SEQUENCE = '*';
+    private static final char ANY_CHAR = '?';
+    private static final char CLASS_START = '[';
+    private static final char CLASS_END = ']';
+    private static final char CLASS_NEGATE = '^';
+    private static final char CLASS_RANGE = '-';
+    private static final char ESCAPE = '\\';
+
+    private final Node<V> root = new Node<>(false);
+
+    /**
+     * @param text 频道名或主题
+     * @return 是否包含通配符 ({@code * ? [}), 包含时按模式处理, 字面上的这些字符需要用 {@code \} 转义
+     */
+    public static boolean isPattern(@NotNull String text) {
+        return text.indexOf(ANY_SEQUENCE) >= 0 || text.indexOf(ANY_CHAR) >= 0 || text.indexOf(CLASS_START) >= 0;
+    }
+
+    /**
+     * 判断文本是否匹配单个模式, 只在上一个 * 处回溯, 耗时不超过 模式长度 x 文本长度
+     * @param pattern 模式
+     * @param text 文本
+     * @return 是否匹配
+     */
+    public static boolean matches(@NotNull String pattern, @NotNull String text) {
+        List<Token> tokens = parse(pattern);
+        int p = 0, t = 0, starP = -1, starT = -1;
+        while (t < text.length()) {
+            Token token = p < tokens.size() ? tokens.get(p) : null;
+            if (token != null && token != Token.ANY_SEQUENCE && token.matches(text.charAt(t))) {
+                p++;
+                t++;
+            } else if (token == Token.ANY_SEQUENCE) {
+                starP = p++;
+                starT = t;
+            } else if (starP >= 0) {
+                p = starP + 1;
+                t = ++starT;
+            } else {
+                return false;
+            }
+        }
+        while (p < tokens.size() && tokens.get(p) == Token.ANY_SEQUENCE) p++;
+        return p == tokens.size();
+    }
+
+    /**
+     * 添加模式
+     * @param pattern 模式
+     * @param value 值
+     */
+    public void add(@NotNull String pattern, @NotNull V value) {
+        Node<V> node = root;
+        for (Token token : parse(pattern)) node = node.child(token);
+        node.values.add(value);
+    }
+
+    /**
+     * 移除模式上的值
+     * @param pattern 模式
+     * @param value 值
+     * @return 是否移除成功
+     */
+    public boolean remove(@NotNull String pattern, @NotNull V value) {
+        Node<V> node = root;
+        for (Token token : parse(pattern)) {
+            node = node.existingChild(token);
+            if (node == null) return false;
+        }
+        return node.values.remove(value);
+    }
+
+    /**
+     * 收集文本匹配到的所有值, 同一个值只收集一次
+     * @param text 文本
+     * @param result 结果集合
+     */
+    public void match(@NotNull String text, @NotNull Set<V> result) {
+        for (Node<V> node : advance(text)) result.addAll(node.values);
+    }
+
+    /**
+     * 判断文本是否匹配任意一个模式, 找到第一个匹配就返回, 不收集值
+     * @param text 文本
+     * @return 是否有匹配的模式
+     */
+    public boolean matchesAny(@NotNull String text) {
+        for (Node<V> node : advance(text)) {
+            if (!node.values.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // 逐个字符推进当前可能所在的节点集合, 返回读完文本后所在的节点; 同一个节点在集合中只出现一次
+    private List<Node<V>> advance(String text) {
+        List<Node<V>> current = new ArrayList<>();
+        enter(current, root);
+        List<Node<V>> next = new ArrayList<>();
+        for (int i = 0; i < text.length() && !current.isEmpty(); i++) {
+            char c = text.charAt(i);
+            for (Node<V> node : current) {
+                if (node.anySequence) enter(next, node); // * 继续吞下这个字符
+                Node<V> exact = node.literals.get(c);
+                if (exact != null) enter(next, exact);
+                if (node.anyChar != null) enter(next, node.anyChar);
+                for (Map.Entry<CharClass, Node<V>> entry : node.classes.entrySet()) {
+                    if (entry.getKey().matches(c)) enter(next, entry.getValue());
+                }
+            }
+            List<Node<V>> swap = current;
+            current = next;
+            next = swap;
+            next.clear();
+        }
+        return current;
+    }
+
+    // 进入节点, * 可以匹配空串, 所以同时进入它后面的 * 节点
+    private static <V> void enter(List<Node<V>> nodes, Node<V> node) {
+        while (node != null && !nodes.contains(node)) {
+            nodes.add(node);
+            node = node.anySequenceChild;
+        }
+    }
+
+    // 把模式拆成单字符记号, 连续的 * 等价于一个; 未闭合的 [ 与 Redis 一样把剩余部分都当作字符集合
+    private static List<Token> parse(String pattern) {
+        List<Token> tokens = new ArrayList<>(pattern.length());
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == ANY_SEQUENCE) {
+                if (tokens.isEmpty() || tokens.get(tokens.size() - 1) != Token.ANY_SEQUENCE) tokens.add(Token.ANY_SEQUENCE);
+                i++;
+            } else if (c == ANY_CHAR) {
+                tokens.add(Token.ANY_CHAR);
+                i++;
+            } else if (c == CLASS_START) {
+                i = parseClass(pattern, i + 1, tokens);
+            } else if (c == ESCAPE && i + 1 < pattern.length()) {
+                tokens.add(Token.literal(pattern.charAt(i + 1)));
+                i += 2;
+            } else {
+                tokens.add(Token.literal(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    // 解析 [ 之后的字符集合, 返回 ] 之后的位置
+    private static int parseClass(String pattern, int i, List<Token> tokens) {
+        boolean negate = i < pattern.length() && pattern.charAt(i) == CLASS_NEGATE;
+        if (negate) i++;
+        StringBuilder ranges = new StringBuilder(); // 每两个字符是一个闭区间
+        while (i < pattern.length() && pattern.charAt(i) != CLASS_END) {
+            char c = pattern.charAt(i);
+            if (c == ESCAPE && i + 1 < pattern.length()) {
+                c = pattern.charAt(++i);
+                ranges.append(c).append(c);
+                i++;
+            } else if (i + 2 < pattern.length() && pattern.charAt(i + 1) == CLASS_RANGE) {
+                char end = pattern.charAt(i + 2);
+                ranges.append((char) Math.min(c, end)).append((char) Math.max(c, end));
+                i += 3;
+            } else {
+                ranges.append(c).append(c);
+                i++;
+            }
+        }
+        tokens.add(Token.of(new CharClass(negate, ranges.toString())));
+        return i + 1;
+    }
+
+    private static final class Node<V> {
+        private final boolean anySequence; // 是否是 * 节点, * 节点可以吞下任意个字符后停留在自己身上
+        private final Map<Character, Node<V>> literals = new ConcurrentHashMap<>();
+        private final Map<CharClass, Node<V>> classes = new ConcurrentHashMap<>();
+        @Nullable private volatile Node<V> anyChar;
+        @Nullable private volatile Node<V> anySequenceChild;
+        private final List<V> values = new CopyOnWriteArrayList<>();
+
+        Node(boolean anySequence) {
+            this.anySequence = anySequence;
+        }
+
+        Node<V> child(Token token) {
+            if (token == Token.ANY_SEQUENCE) {
+                if (anySequenceChild == null) anySequenceChild = new Node<>(true);
+                return anySequenceChild;
+            }
+            if (token == Token.ANY_CHAR) {
+                if (anyChar == null) anyChar = new Node<>(false);
+                return anyChar;
+            }
+            if (token.charClass != null) return classes.computeIfAbsent(token.charClass, k -> new Node<>(false));
+            return literals.computeIfAbsent(token.literal, k -> new Node<>(false));
+        }
+
+        @Nullable Node<V> existingChild(Token token) {
+            if (token == Token.ANY_SEQUENCE) return anySequenceChild;
+            if (token == Token.ANY_CHAR) return anyChar;
+            if (token.charClass != null) return classes.get(token.charClass);
+            return literals.get(token.literal);
+        }
+    }
+
+    // 模式中的一个记号: *, ?, 字面字符或字符集合
+    private static final class Token {
+        static final Token ANY_SEQUENCE = new Token((char) 0, null);
+        static final Token ANY_CHAR = new Token((char) 0, null);
+
+        private final char literal;
+        @Nullable private final CharClass charClass;
+
+        private Token(char literal, @Nullable CharClass charClass) {
+            this.literal = literal;
+            this.charClass = charClass;
+        }
+
+        static Token literal(char c) {
+            return new Token(c, null);
+        }
+
+        static Token of(CharClass charClass) {
+            return new Token((char) 0, charClass);
+        }
+
+        // * 以外的记号是否匹配单个字符
+        boolean matches(char c) {
+            if (this == ANY_CHAR) return true;
+            if (charClass != null) return charClass.matches(c);
+            return literal == c;
+        }
+    }
+
+    // 字符集合, 按解析后的区间比较相等, 写法不同但内容相同的集合共用一个节点
+    private record CharClass(boolean negate, String ranges) {
+        boolean matches(char c) {
+            for (int i = 0; i + 1 < ranges.length(); i += 2) {
+                if (c >= ranges.charAt(i) && c <= ranges.charAt(i + 1)) return !negate;
+            }
+            return negate;
+        }
+    }
+}
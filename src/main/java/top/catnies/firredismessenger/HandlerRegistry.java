@@ -0,0 +1,129 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import top.catnies.firredismessenger.RedisMessageRouter.SubjectHandler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 处理器注册表的不可变快照, 由 {@link RedisMessageRouter} 通过一个 volatile 引用发布.
+ * 注册或注销处理器时根据旧快照构建新快照后整体替换, 分发消息时只读取快照, 不需要加锁.
+ * 频道或主题带通配符的处理器放在两层前缀树中 (频道模式 → 主题模式), 具体的 (频道, 主题) 解析结果缓存在快照里, 随快照一起丢弃.
+ */
+final class HandlerRegistry {
+    static final HandlerRegistry EMPTY = new HandlerRegistry(List.of());
+
+    private static final SubjectHandler[] NO_HANDLERS = new SubjectHandler[0];
+    private static final Comparator<SubjectHandler> BY_PRIORITY = Comparator.comparingInt(SubjectHandler::priority).reversed();
+    private static final int MAX_RESOLVED_CHANNELS = 4096; // 解析缓存最多保留的频道数量
+    private static final int MAX_RESOLVED_SUBJECTS = 4096; // 解析缓存每个频道最多保留的主题数量
+
+    private final List<SubjectHandler> handlers; // 所有处理器, 按注册顺序
+    private final Map<String, Map<String, SubjectHandler[]>> exactHandlers; // [频道: [主题: 按权重排序的处理器]]
+    @Nullable private final GlobTrie<GlobTrie<SubjectHandler>> patternHandlers; // [频道模式: [主题模式: 处理器]], 没有通配符处理器时为空
+    private final Map<String, Map<String, SubjectHandler[]>> resolvedHandlers = new ConcurrentHashMap<>(); // 解析缓存
+
+    private HandlerRegistry(List<SubjectHandler> handlers) {
+        this.handlers = handlers;
+
+        Map<String, Map<String, List<SubjectHandler>>> exact = new HashMap<>();
+        Map<String, GlobTrie<SubjectHandler>> patternSubjects = new HashMap<>();
+        GlobTrie<GlobTrie<SubjectHandler>> patterns = new GlobTrie<>();
+        for (SubjectHandler handler : handlers) {
+            if (GlobTrie.isPattern(handler.channel()) || GlobTrie.isPattern(handler.subject())) {
+                patternSubjects.computeIfAbsent(handler.channel(), channel -> {
+                    GlobTrie<SubjectHandler> subjects = new GlobTrie<>();
+                    patterns.add(channel, subjects);
+                    return subjects;
+                }).add(handler.subject(), handler);
+            } else {
+                exact.computeIfAbsent(handler.channel(), channel -> new HashMap<>())
+                        .computeIfAbsent(handler.subject(), subject -> new ArrayList<>())
+                        .add(handler);
+            }
+        }
+
+        // 排序是稳定的, 权重相同的处理器保持注册顺序
+        Map<String, Map<String, SubjectHandler[]>> sorted = new HashMap<>();
+        exact.forEach((channel, subjects) -> {
+            Map<String, SubjectHandler[]> sortedSubjects = new HashMap<>();
+            subjects.forEach((subject, list) -> {
+                SubjectHandler[] array = list.toArray(NO_HANDLERS);
+                Arrays.sort(array, BY_PRIORITY);
+                sortedSubjects.put(subject, array);
+            });
+            sorted.put(channel, Map.copyOf(sortedSubjects));
+        });
+        this.exactHandlers = Map.copyOf(sorted);
+        this.patternHandlers = patternSubjects.isEmpty() ? null : patterns;
+    }
+
+    /**
+     * 在当前快照的基础上添加和移除处理器, 构建新的快照
+     * @param added 添加的处理器
+     * @param removed 移除的处理器
+     * @return 新快照
+     */
+    HandlerRegistry with(@NotNull Collection<SubjectHandler> added, @NotNull Collection<SubjectHandler> removed) {
+        Set<SubjectHandler> next = new LinkedHashSet<>(handlers);
+        removed.forEach(next::remove);
+        next.addAll(added);
+        return new HandlerRegistry(List.copyOf(next));
+    }
+
+    /**
+     * @return 所有处理器, 按注册顺序
+     */
+    List<SubjectHandler> handlers() {
+        return handlers;
+    }
+
+    /**
+     * 获取精确注册在频道和主题上的处理器, 不包括通配符处理器
+     * @return 按权重从高到低排序的处理器, 调用方不能修改
+     */
+    SubjectHandler[] exact(@NotNull String channel, @NotNull String subject) {
+        Map<String, SubjectHandler[]> subjects = exactHandlers.get(channel);
+        if (subjects == null) return NO_HANDLERS;
+        SubjectHandler[] handlers = subjects.get(subject);
+        return handlers == null ? NO_HANDLERS : handlers;
+    }
+
+    /**
+     * 获取具体的频道和主题对应的所有处理器, 包括通配符匹配到的处理器
+     * @return 按权重从高到低排序的处理器, 调用方不能修改
+     */
+    SubjectHandler[] resolve(@NotNull String channel, @NotNull String subject) {
+        if (patternHandlers == null) return exact(channel, subject);
+
+        Map<String, SubjectHandler[]> bySubject = resolvedHandlers.get(channel);
+        if (bySubject != null) {
+            SubjectHandler[] cached = bySubject.get(subject);
+            if (cached != null) return cached;
+        }
+
+        SubjectHandler[] handlers = exact(channel, subject);
+        Set<GlobTrie<SubjectHandler>> channelMatches = new LinkedHashSet<>();
+        patternHandlers.match(channel, channelMatches);
+        if (!channelMatches.isEmpty()) {
+            Set<SubjectHandler> matched = new LinkedHashSet<>(Arrays.asList(handlers));
+            for (GlobTrie<SubjectHandler> subjects : channelMatches) subjects.match(subject, matched);
+            if (matched.size() > handlers.length) {
+                handlers = matched.toArray(NO_HANDLERS);
+                Arrays.sort(handlers, BY_PRIORITY);
+            }
+        }
+
+        // 频道或主题数量不受控制时 (例如频道名或主题带玩家ID) 丢弃对应的缓存, 避免无限增长
+        if (bySubject == null) {
+            if (resolvedHandlers.size() >= MAX_RESOLVED_CHANNELS) resolvedHandlers.clear();
+            bySubject = resolvedHandlers.computeIfAbsent(channel, c -> new ConcurrentHashMap<>());
+        } else if (bySubject.size() >= MAX_RESOLVED_SUBJECTS) {
+            bySubject.clear();
+        }
+        bySubject.put(subject, handlers);
+        return handlers;
+    }
+}
@@ -0,0 +1,91 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 混合传输层: 接收方在同一个 JVM 内 (连接在同一个 {@link LoopbackTransport.Hub} 上) 的定向消息和回复消息直接走内存,
+ * 其他消息和所有广播消息走远程传输层, 广播消息由远程传输层同时送达本地和其他 JVM 中的接收方.
+ */
+public class HybridTransport implements MessageTransport {
+    @Getter private final MessageTransport remote;
+    @Getter private final LoopbackTransport local;
+
+    /**
+     * @param remote 远程传输层, 通常是 {@link LettuceTransport} 或 {@link LettuceClusterTransport}
+     * @param local 本地传输层
+     */
+    public HybridTransport(@NotNull MessageTransport remote, @NotNull LoopbackTransport local) {
+        this.remote = remote;
+        this.local = local;
+    }
+
+    /**
+     * 使用 Lettuce 作为远程传输层, 本地连接到 JVM 内共享的默认总线
+     * @param connectUri Redis 地址
+     */
+    public HybridTransport(@NotNull RedisUri connectUri) {
+        this(MessageTransport.of(connectUri), new LoopbackTransport());
+    }
+
+    @Override
+    public void start(@NotNull RedisManager manager) throws Exception {
+        remote.start(manager);
+        local.start(manager);
+    }
+
+    @Override
+    public void subscribe(@NotNull String channel) {
+        remote.subscribe(channel);
+        local.subscribe(channel);
+    }
+
+    @Override
+    public void unsubscribe(@NotNull String channel) {
+        remote.unsubscribe(channel);
+        local.unsubscribe(channel);
+    }
+
+    @Override
+    public boolean supportsPatterns() {
+        return remote.supportsPatterns() && local.supportsPatterns();
+    }
+
+    @Override
+    public void subscribePattern(@NotNull String pattern) {
+        remote.subscribePattern(pattern);
+        local.subscribePattern(pattern);
+    }
+
+    @Override
+    public void unsubscribePattern(@NotNull String pattern) {
+        remote.unsubscribePattern(pattern);
+        local.unsubscribePattern(pattern);
+    }
+
+    @Override
+    public void publish(@NotNull String channel, @NotNull RedisPacket packet) {
+        String receiver = packet.getReceiver();
+        if (!RedisManager.ALL_RECEIVERS.equals(receiver) && local.getHub().isConnected(receiver)) {
+            local.publish(channel, packet);
+        } else {
+            remote.publish(channel, packet);
+        }
+    }
+
+    @Override
+    public void setReadPaused(boolean paused) {
+        remote.setReadPaused(paused);
+    }
+
+    @Override
+    public void flush() {
+        remote.flush();
+    }
+
+    @Override
+    public void close() {
+        local.close();
+        remote.close();
+    }
+}
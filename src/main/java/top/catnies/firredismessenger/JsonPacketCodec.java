@@ -0,0 +1,132 @@
+package top.catnies.firredismessenger;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * 默认的 JSON 编解码器, 与旧版本客户端的消息格式完全兼容.
+ * 二进制消息内容以 Base64 写入 payload 字段, 并额外写入 "binaryPayload": true, 旧版本客户端会忽略该字段.
+ * 解码时同时识别 {@link BinaryPacketCodec} 格式的消息 (以版本号 0xF1 开头), 所以切换到二进制格式分为两步:
+ * 先让所有客户端升级到新版本 (仍然以 JSON 编码, 但两种格式都能解码), 再逐台启用二进制编解码器.
+ */
+public class JsonPacketCodec implements PacketCodec {
+    public static final JsonPacketCodec INSTANCE = new JsonPacketCodec();
+
+    @Nullable private final BinaryPacketCodec binaryDecoder; // 解码二进制格式的消息, 为空时只接受 JSON
+
+    /**
+     * 使用不带共享字典的二进制解码器, 能解码未使用字典的二进制消息 (包括不带字典压缩的消息)
+     */
+    public JsonPacketCodec() {
+        this(new BinaryPacketCodec());
+    }
+
+    /**
+     * @param binaryDecoder 解码二进制格式消息的编解码器, 集群使用共享字典或字典压缩时需要传入相同配置的实例, 为空时只接受 JSON
+     */
+    public JsonPacketCodec(@Nullable BinaryPacketCodec binaryDecoder) {
+        this.binaryDecoder = binaryDecoder;
+    }
+
+    @Override
+    public byte @NotNull [] encode(@NotNull RedisPacket packet) {
+        return packet.toJson().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public @NotNull RedisPacket decode(byte @NotNull [] frame) {
+        if (isBinary(frame, 0, frame.length)) return binaryDecoder.decode(frame);
+        RedisPacket packet = RedisPacket.fromJson(new String(frame, StandardCharsets.UTF_8));
+        if (packet == null) throw new IllegalArgumentException("空的数据包 !");
+        return packet;
+    }
+
+    /**
+     * 流式读取信封字段, 跳过 payload 的值而不创建字符串, 首次访问消息内容时再单独读取它.
+     */
+    @Override
+    public @NotNull RedisPacket decodeLazy(byte @NotNull [] frame) {
+        return decodeLazy(frame, 0, frame.length);
+    }
+
+    @Override
+    public @NotNull RedisPacket decodeLazy(byte @NotNull [] message, int offset, int length) {
+        if (isBinary(message, offset, length)) return binaryDecoder.decodeLazy(message, offset, length);
+        String sender = null, receiver = null, subject = null, channel = null;
+        UUID messageId = null, responseId = null;
+        long createTimestamp = 0;
+        Long publishTimestamp = null;
+        boolean binaryPayload = false;
+
+        try (JsonReader reader = newReader(message, offset, length)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case "sender" -> sender = reader.nextString();
+                    case "receiver" -> receiver = reader.nextString();
+                    case "subject" -> subject = reader.nextString();
+                    case "channel" -> channel = reader.nextString();
+                    case "messageId" -> messageId = UUID.fromString(reader.nextString());
+                    case "responseId" -> responseId = UUID.fromString(reader.nextString());
+                    case "createTimestamp" -> createTimestamp = reader.nextLong();
+                    case "publishTimestamp" -> publishTimestamp = reader.nextLong();
+                    case "binaryPayload" -> binaryPayload = reader.nextBoolean();
+                    default -> reader.skipValue(); // payload 和未知字段
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new IllegalArgumentException("非法的 JSON 数据包: " + e.getMessage(), e);
+        }
+        if (sender == null || receiver == null || subject == null || messageId == null) {
+            throw new IllegalArgumentException("JSON 数据包缺少必要字段 !");
+        }
+
+        RedisPacket packet = new RedisPacket(messageId, createTimestamp, sender, receiver, subject, "");
+        packet.setLazyPayload(() -> readPayload(message, offset, length));
+        if (binaryPayload) packet.markBinary(); // payload 中是 Base64 编码的二进制内容
+        packet.setResponseId(responseId);
+        packet.setPublishTimestamp(publishTimestamp);
+        packet.setChannel(channel);
+        return packet;
+    }
+
+    // 二进制编解码器的消息以版本号开头, JSON 消息总是以 '{' 开头
+    private boolean isBinary(byte[] message, int offset, int length) {
+        return binaryDecoder != null && length > 0 && message[offset] == BinaryPacketCodec.VERSION_1;
+    }
+
+    // 只读取 payload 字段
+    private static String readPayload(byte[] message, int offset, int length) {
+        try (JsonReader reader = newReader(message, offset, length)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("payload") && reader.peek() != JsonToken.NULL) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("非法的 JSON 数据包: " + e.getMessage(), e);
+        }
+    }
+
+    private static JsonReader newReader(byte[] message, int offset, int length) {
+        return new JsonReader(new InputStreamReader(new ByteArrayInputStream(message, offset, length), StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,123 @@
+package top.catnies.firredismessenger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数线性分桶的直方图, 思路与 HdrHistogram 相同.
+ * 小于 64 的值每个值一个桶, 之后每个 2 的幂区间再平分为 64 个桶, 相对误差不超过 1/64.
+ * 记录数值只做几次原子自增, 不分配对象, 可以在消息收发的热路径上使用.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 42; // 可记录的最大值约为 2^42, 以纳秒计约 73 分钟
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个数值, 负数按 0 记录, 超出上限的按上限记录
+     * @param value 数值
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        else if (value > MAX_VALUE) value = MAX_VALUE;
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        sum.add(value);
+        if (value < min.get()) min.accumulateAndGet(value, Math::min);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return 记录的数值数量
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * 获取某个百分位上的数值
+     * @param percentile 百分位, 0 ~ 100
+     * @return 该百分位所在桶能代表的最大值, 没有记录时返回 0
+     */
+    public long valueAtPercentile(double percentile) {
+        long[] snapshot = copyCounts();
+        long total = 0;
+        for (long count : snapshot) total += count;
+        return valueAtPercentile(snapshot, total, percentile);
+    }
+
+    /**
+     * 生成当前数据的快照, 快照期间的并发记录可能只被部分统计
+     * @return 快照
+     */
+    public MetricsSnapshot.HistogramSnapshot snapshot() {
+        long[] snapshot = copyCounts();
+        long total = 0;
+        for (long count : snapshot) total += count;
+        if (total == 0) return MetricsSnapshot.HistogramSnapshot.EMPTY;
+        return new MetricsSnapshot.HistogramSnapshot(
+                total,
+                min.get(),
+                max.get(),
+                (double) sum.sum() / totalCount.sum(),
+                valueAtPercentile(snapshot, total, 50),
+                valueAtPercentile(snapshot, total, 90),
+                valueAtPercentile(snapshot, total, 99),
+                valueAtPercentile(snapshot, total, 99.9)
+        );
+    }
+
+    /**
+     * 清空所有数据
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        totalCount.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    private long[] copyCounts() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    private static long valueAtPercentile(long[] snapshot, long total, double percentile) {
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) return highestValueOf(i);
+        }
+        return MAX_VALUE;
+    }
+
+    // 数值所在的桶
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    // 桶能代表的最大值
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
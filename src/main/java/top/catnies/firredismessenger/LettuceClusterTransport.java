@@ -0,0 +1,103 @@
+package top.catnies.firredismessenger;
+
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+import io.lettuce.core.cluster.pubsub.RedisClusterPubSubAdapter;
+import io.lettuce.core.cluster.pubsub.StatefulRedisClusterPubSubConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.resource.ClientResources;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于 Redis Cluster 分片发布订阅的传输层 (Redis 7.0 以上).
+ * 普通 PUBLISH 在 Cluster 中会广播到所有节点, 发布量随节点数增加而放大; SPUBLISH 只发到频道所在槽位的节点,
+ * 订阅方用 SSUBSCRIBE 连接到该节点, 消息吞吐量随分片数量水平扩展.
+ * Lettuce 为每个主节点维护一条连接, 发布和订阅都按槽位自动路由, 不需要额外的连接池.
+ * 分片发布订阅不支持模式订阅, 管理器会拒绝订阅带通配符的频道.
+ */
+public class LettuceClusterTransport implements MessageTransport {
+    @Getter private final RedisUri connectUri;
+
+    @Getter private RedisClusterClient clusterClient; // Redis Cluster 客户端
+    private ClientResources clientResources; // 客户端资源, 配置了与 RedisOptions 一致的重连退避
+    @Getter private StatefulRedisClusterConnection<byte[], byte[]> publishConnection; // 发布连接, 按槽位路由到各个节点
+    @Getter private StatefulRedisClusterPubSubConnection<byte[], byte[]> pubSubConnection; // 分片订阅连接
+    private final Map<String, byte[]> channelBytes = new ConcurrentHashMap<>(); // 频道名的编码缓存
+    private final SubscriberChannels subscriberChannels = new SubscriberChannels(); // 各节点订阅连接的 Netty 通道, 用于暂停读取
+
+    private PacketCodec codec;
+    private MessengerMetrics metrics;
+
+    public LettuceClusterTransport(@NotNull RedisUri connectUri) {
+        this.connectUri = connectUri;
+    }
+
+    @Override
+    public void start(@NotNull RedisManager manager) {
+        this.codec = manager.getOptions().getCodec();
+        this.metrics = manager.getMetrics();
+
+        List<RedisURI> seeds = new ArrayList<>();
+        for (String uri : connectUri.redisUris()) seeds.add(RedisURI.create(uri));
+        clientResources = LettuceTransport.reconnectResources(manager.getOptions(), subscriberChannels);
+        clusterClient = RedisClusterClient.create(clientResources, seeds);
+        clusterClient.addListener(new LettuceTransport.LinkStateListener(manager.getConnectionSupervisor()));
+        publishConnection = clusterClient.connect(ByteArrayCodec.INSTANCE);
+        pubSubConnection = clusterClient.connectPubSub(ByteArrayCodec.INSTANCE);
+        RedisMessageRouter messageRouter = manager.getMessageRouter();
+        pubSubConnection.addListener(new RedisClusterPubSubAdapter<>() {
+            @Override
+            public void smessage(RedisClusterNode node, byte[] channel, byte[] message) {
+                messageRouter.handleMessage(new String(channel, StandardCharsets.UTF_8), message);
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(@NotNull String channel) {
+        pubSubConnection.async().ssubscribe(channelBytes(channel));
+    }
+
+    @Override
+    public void unsubscribe(@NotNull String channel) {
+        pubSubConnection.async().sunsubscribe(channelBytes(channel));
+    }
+
+    @Override
+    public void publish(@NotNull String channel, @NotNull RedisPacket packet) {
+        byte[] message = codec.encode(packet); // 序列化消息
+        metrics.onPublish(channel, message.length);
+        publishConnection.async().spublish(channelBytes(channel), message);
+    }
+
+    @Override
+    public void setReadPaused(boolean paused) {
+        subscriberChannels.setPaused(paused);
+    }
+
+    @Override
+    public void close() {
+        if (pubSubConnection != null) pubSubConnection.close();
+        if (publishConnection != null) publishConnection.close();
+        if (clusterClient != null) clusterClient.shutdown();
+        if (clientResources != null) clientResources.shutdown();
+        pubSubConnection = null;
+        publishConnection = null;
+        clusterClient = null;
+        clientResources = null;
+    }
+
+    // 获取频道名的字节形式, 常用频道只编码一次
+    private byte[] channelBytes(String channel) {
+        return channelBytes.computeIfAbsent(channel, c -> c.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,227 @@
+package top.catnies.firredismessenger;
+
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.Delay;
+import io.lettuce.core.resource.DefaultClientResources;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Lettuce 发布订阅的传输层, 数据包经过编解码器序列化后通过 Redis 转发.
+ * 可以配置多条订阅连接, 频道按名字的哈希分散到各条连接上; 也可以配置发布连接池, 把 PUBLISH 分散到多条连接上.
+ */
+public class LettuceTransport implements MessageTransport {
+    @Getter private final RedisUri connectUri;
+
+    @Getter private RedisClient redisClient; // Redis 客户端
+    private ClientResources clientResources; // 客户端资源, 配置了与 RedisOptions 一致的重连退避
+    @Getter private StatefulRedisConnection<String, String> connection; // 普通连接
+    @Getter private List<StatefulRedisPubSubConnection<byte[], byte[]>> subscriberConnections = List.of(); // 订阅连接, 第一条同时用于未配置发布连接池时的发布
+    @Getter @Nullable private PublishConnectionPool publishPool; // 发布连接池, 未开启批量发布且未配置发布连接数量时为空
+    private final Map<String, byte[]> channelBytes = new ConcurrentHashMap<>(); // 频道名的编码缓存
+    private final Set<String> channels = ConcurrentHashMap.newKeySet(); // 已订阅的频道
+    private final List<String> patterns = new CopyOnWriteArrayList<>(); // 已订阅的频道模式, 按订阅顺序
+    private final SubscriberChannels subscriberChannels = new SubscriberChannels(); // 订阅连接的 Netty 通道, 用于暂停读取
+
+    private PacketCodec codec;
+    private MessengerMetrics metrics;
+
+    public LettuceTransport(@NotNull RedisUri connectUri) {
+        this.connectUri = connectUri;
+    }
+
+    @Override
+    public void start(@NotNull RedisManager manager) {
+        RedisOptions options = manager.getOptions();
+        this.codec = options.getCodec();
+        this.metrics = manager.getMetrics();
+
+        // 创建 Redis 链接, 断线后由 Lettuce 按指数退避重连
+        clientResources = reconnectResources(options, subscriberChannels);
+        redisClient = RedisClient.create(clientResources, connectUri.redisUri());
+        redisClient.addListener(new LinkStateListener(manager.getConnectionSupervisor()));
+        connection = redisClient.connect();
+        RedisMessageRouter messageRouter = manager.getMessageRouter();
+        RedisPubSubAdapter<byte[], byte[]> listener = new RedisPubSubAdapter<>() {
+            @Override
+            public void message(byte[] channel, byte[] message) {
+                messageRouter.handleMessage(new String(channel, StandardCharsets.UTF_8), message);
+            }
+
+            // Redis 会对每个匹配的订阅各推送一次, 只保留频道订阅或者第一个匹配的模式订阅推送的那一次
+            @Override
+            public void message(byte[] pattern, byte[] channel, byte[] message) {
+                String channelName = new String(channel, StandardCharsets.UTF_8);
+                if (channels.contains(channelName)) return;
+                String patternName = new String(pattern, StandardCharsets.UTF_8);
+                for (String subscribed : patterns) {
+                    if (!GlobTrie.matches(subscribed, channelName)) continue;
+                    if (subscribed.equals(patternName)) messageRouter.handleMessage(channelName, message);
+                    return;
+                }
+            }
+        };
+        List<StatefulRedisPubSubConnection<byte[], byte[]>> subscribers = new ArrayList<>(options.getSubscriberConnections());
+        for (int i = 0; i < options.getSubscriberConnections(); i++) {
+            StatefulRedisPubSubConnection<byte[], byte[]> subscriber = redisClient.connectPubSub(ByteArrayCodec.INSTANCE);
+            subscriber.addListener(listener);
+            subscribers.add(subscriber);
+        }
+        subscriberConnections = Collections.unmodifiableList(subscribers);
+
+        // 开启批量发布或配置了发布连接数量时, 使用独立的发布连接, 批量发布会关闭这些连接的自动刷新
+        int publishConnections = Math.max(options.getPublishConnections(), options.getPublishBatchSize() > 0 ? 1 : 0);
+        if (publishConnections > 0) {
+            publishPool = new PublishConnectionPool(redisClient, publishConnections, options.getPublishAffinity(), options);
+        }
+    }
+
+    @Override
+    public void subscribe(@NotNull String channel) {
+        channels.add(channel);
+        subscriberOf(channel).async().subscribe(channelBytes(channel));
+    }
+
+    @Override
+    public void unsubscribe(@NotNull String channel) {
+        channels.remove(channel);
+        subscriberOf(channel).async().unsubscribe(channelBytes(channel));
+    }
+
+    @Override
+    public boolean supportsPatterns() {
+        return true;
+    }
+
+    @Override
+    public void subscribePattern(@NotNull String pattern) {
+        if (!patterns.contains(pattern)) patterns.add(pattern);
+        subscriberOf(pattern).async().psubscribe(channelBytes(pattern));
+    }
+
+    @Override
+    public void unsubscribePattern(@NotNull String pattern) {
+        patterns.remove(pattern);
+        subscriberOf(pattern).async().punsubscribe(channelBytes(pattern));
+    }
+
+    @Override
+    public void publish(@NotNull String channel, @NotNull RedisPacket packet) {
+        byte[] message = codec.encode(packet); // 序列化消息
+        metrics.onPublish(channel, message.length);
+        if (publishPool != null) {
+            publishPool.publish(channel, channelBytes(channel), message);
+        } else {
+            subscriberConnections.get(0).async().publish(channelBytes(channel), message);
+        }
+    }
+
+    @Override
+    public void setReadPaused(boolean paused) {
+        subscriberChannels.setPaused(paused);
+    }
+
+    @Override
+    public void flush() {
+        if (publishPool != null) publishPool.flush();
+    }
+
+    @Override
+    public void close() {
+        if (publishPool != null) publishPool.close();
+        for (StatefulRedisPubSubConnection<byte[], byte[]> subscriber : subscriberConnections) subscriber.close();
+        if (connection != null) connection.close();
+        if (redisClient != null) redisClient.shutdown();
+        if (clientResources != null) clientResources.shutdown();
+        subscriberConnections = List.of();
+        publishPool = null;
+        redisClient = null;
+        connection = null;
+        clientResources = null;
+    }
+
+    /**
+     * 创建重连退避与配置一致的客户端资源
+     * @param options 配置
+     * @param subscriberChannels 记录订阅连接的通道, 用于暂停读取
+     * @return 客户端资源, 由调用方关闭
+     */
+    static ClientResources reconnectResources(@NotNull RedisOptions options, @NotNull SubscriberChannels subscriberChannels) {
+        Delay delay = Delay.exponential(Duration.ofMillis(options.getReconnectMinDelayMs()), Duration.ofMillis(options.getReconnectMaxDelayMs()), 2, TimeUnit.MILLISECONDS);
+        return DefaultClientResources.builder().reconnectDelay(delay).nettyCustomizer(subscriberChannels).build();
+    }
+
+    /**
+     * @return 第一条订阅连接, 尚未连接时为空
+     */
+    public @Nullable StatefulRedisPubSubConnection<byte[], byte[]> getPubSubConnection() {
+        return subscriberConnections.isEmpty() ? null : subscriberConnections.get(0);
+    }
+
+    /**
+     * @return 第一条发布连接, 未使用发布连接池时为空
+     */
+    public @Nullable StatefulRedisConnection<byte[], byte[]> getPublishConnection() {
+        return publishPool == null ? null : publishPool.getConnections().get(0);
+    }
+
+    /**
+     * @return 第一条发布连接的批量发布器, 未开启批量发布时为空
+     */
+    public @Nullable BatchingPublisher getBatchingPublisher() {
+        return publishPool == null ? null : publishPool.firstBatchingPublisher();
+    }
+
+    // 频道或频道模式所在的订阅连接
+    private StatefulRedisPubSubConnection<byte[], byte[]> subscriberOf(String channel) {
+        int size = subscriberConnections.size();
+        return subscriberConnections.get(size == 1 ? 0 : Math.floorMod(channel.hashCode(), size));
+    }
+
+    /**
+     * 把 Lettuce 各条连接的状态汇总后报告给 {@link ConnectionSupervisor}: 任意一条连接断开即视为中断, 全部恢复后视为恢复
+     */
+    static final class LinkStateListener implements RedisConnectionStateListener {
+        private final ConnectionSupervisor supervisor;
+        private final Set<RedisChannelHandler<?, ?>> disconnected = ConcurrentHashMap.newKeySet();
+
+        LinkStateListener(@NotNull ConnectionSupervisor supervisor) {
+            this.supervisor = supervisor;
+        }
+
+        @Override
+        public void onRedisDisconnected(RedisChannelHandler<?, ?> connection) {
+            if (disconnected.add(connection)) supervisor.onConnectionLost();
+        }
+
+        @Override
+        public void onRedisConnected(RedisChannelHandler<?, ?> connection, SocketAddress socketAddress) {
+            if (disconnected.remove(connection) && disconnected.isEmpty()) supervisor.onConnectionRestored();
+        }
+    }
+
+    // 获取频道名的字节形式, 常用频道只编码一次
+    private byte[] channelBytes(String channel) {
+        return channelBytes.computeIfAbsent(channel, c -> c.getBytes(StandardCharsets.UTF_8));
+    }
+}
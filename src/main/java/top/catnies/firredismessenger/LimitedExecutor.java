@@ -0,0 +1,79 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 限制同时执行任务数量的执行器.
+ * 超出并发上限的任务在内部队列中排队, 提交任务永远不会阻塞调用线程 (例如 Lettuce 的 IO 线程),
+ * 适合包装每个任务一个虚拟线程的执行器, 避免阻塞型处理器一下子打满数据库连接等下游资源.
+ */
+public class LimitedExecutor implements Executor {
+    private final Executor delegate;
+    private final int maxConcurrency;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * @param delegate 实际执行任务的执行器
+     * @param maxConcurrency 最多同时执行的任务数量
+     */
+    public LimitedExecutor(@NotNull Executor delegate, int maxConcurrency) {
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency 必须大于 0 !");
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void execute(@NotNull Runnable task) {
+        queue.add(task);
+        drain();
+    }
+
+    /**
+     * @return 正在执行的任务数量
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return 排队等待执行的任务数量
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    // 在并发上限内尽可能多地启动排队的任务
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = active.get();
+            if (current >= maxConcurrency) return;
+            if (!active.compareAndSet(current, current + 1)) continue;
+
+            Runnable task = queue.poll();
+            if (task == null) {
+                active.decrementAndGet();
+                continue;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        active.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                active.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+}
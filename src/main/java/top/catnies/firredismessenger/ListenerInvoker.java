@@ -0,0 +1,155 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Consumer;
+
+/**
+ * 把监听器方法在注册时转换成直接调用的 {@code Consumer<RedisPacket>}, 按以下顺序选择实现:
+ * <ol>
+ *     <li>LambdaMetafactory: 能拿到监听器类的完整权限 Lookup 时 (与本库在同一个类加载器中, 例如把本库打包进插件), 包括私有方法;
+ *     或者是本库类加载器能看到的公开类中的公开方法. 调用开销与直接调用相同</li>
+ *     <li>常量 MethodHandle: 其他情况 (插件类加载器中的私有方法、非公开类), 用 {@link ConstantHandleConsumer} 的字节码定义一个隐藏类,
+ *     绑定好的 MethodHandle 放在它的静态常量中, JIT 可以内联到目标方法</li>
+ *     <li>普通字段上的 MethodHandle: 只在运行环境不允许定义隐藏类时使用, 开销接近反射</li>
+ * </ol>
+ * 各种方式都不会把处理器抛出的异常包装成 InvocationTargetException, 开销对比见 ListenerDispatchBenchmark.
+ */
+public final class ListenerInvoker {
+    private static final MethodType CONSUMER_SAM = MethodType.methodType(void.class, Object.class);
+    private static final MethodType PACKET_HANDLER = MethodType.methodType(void.class, RedisPacket.class);
+
+    private ListenerInvoker() {
+    }
+
+    /**
+     * 为监听器方法生成调用器
+     * @param listener 监听器对象, 静态方法时会被忽略
+     * @param method 监听器方法, 唯一的参数必须是 RedisPacket
+     * @return 调用器
+     */
+    public static Consumer<RedisPacket> create(@NotNull Object listener, @NotNull Method method) {
+        if (method.getParameterCount() != 1 || !method.getParameterTypes()[0].equals(RedisPacket.class)) {
+            throw new IllegalArgumentException("RedisListener 方法的参数必须只有一个 RedisPacket !");
+        }
+        try {
+            return lambdaInvoker(listener, method);
+        } catch (Throwable ignored) {
+            // 无法生成 Lambda 时使用常量 MethodHandle
+        }
+        try {
+            return constantHandleInvoker(listener, method);
+        } catch (Throwable ignored) {
+            // 无法定义隐藏类时使用普通的 MethodHandle
+        }
+        return methodHandleInvoker(listener, method);
+    }
+
+    // 通过 LambdaMetafactory 生成直接调用目标方法的 Consumer
+    @SuppressWarnings("unchecked")
+    static Consumer<RedisPacket> lambdaInvoker(Object listener, Method method) throws Throwable {
+        MethodHandles.Lookup lookup = lambdaLookup(method);
+        if (lookup == null) throw new IllegalAccessException("无法为 RedisListener 方法生成 Lambda: " + method);
+        MethodHandle target = lookup.unreflect(method);
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        MethodType factoryType = isStatic
+                ? MethodType.methodType(Consumer.class)
+                : MethodType.methodType(Consumer.class, method.getDeclaringClass());
+
+        CallSite site = LambdaMetafactory.metafactory(lookup, "accept", factoryType, CONSUMER_SAM, target, PACKET_HANDLER);
+        MethodHandle factory = site.getTarget();
+        return isStatic ? (Consumer<RedisPacket>) factory.invoke() : (Consumer<RedisPacket>) factory.invoke(listener);
+    }
+
+    // 把绑定好监听器对象的 MethodHandle 作为类数据, 定义一个以它为静态常量的隐藏类
+    @SuppressWarnings("unchecked")
+    static Consumer<RedisPacket> constantHandleInvoker(Object listener, Method method) throws Throwable {
+        MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClassWithClassData(TemplateHolder.BYTES, boundHandle(listener, method), true);
+        return (Consumer<RedisPacket>) hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+    }
+
+    // 通过普通字段上绑定好监听器对象的 MethodHandle 调用目标方法
+    static Consumer<RedisPacket> methodHandleInvoker(Object listener, Method method) {
+        return new MethodHandleConsumer(boundHandle(listener, method));
+    }
+
+    // 绑定好监听器对象, 类型为 (RedisPacket)void 的 MethodHandle
+    private static MethodHandle boundHandle(Object listener, Method method) {
+        MethodHandle handle;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("无法访问 RedisListener 方法: " + method, e);
+        }
+        if (!Modifier.isStatic(method.getModifiers())) handle = handle.bindTo(listener);
+        return handle.asType(PACKET_HANDLER);
+    }
+
+    // 生成 Lambda 使用的 Lookup: 监听器类的完整权限 Lookup, 或者本类的 Lookup (方法是本类可以访问的公开方法时), 都不行时为空
+    private static @Nullable MethodHandles.Lookup lambdaLookup(Method method) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            if (lookup.hasFullPrivilegeAccess()) return lookup; // 不同类加载器的未命名模块之间拿不到完整权限
+        } catch (IllegalAccessException ignored) {
+            // 监听器类所在的模块没有开放给本库
+        }
+        return isLambdaAccessible(method) ? MethodHandles.lookup() : null;
+    }
+
+    // 只有在本类可以直接访问, 并且本类的类加载器能看到的方法才能用本类的 Lookup 生成 Lambda
+    private static boolean isLambdaAccessible(Method method) {
+        Class<?> owner = method.getDeclaringClass();
+        if (!Modifier.isPublic(method.getModifiers())) return false;
+        for (Class<?> c = owner; c != null; c = c.getEnclosingClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) return false;
+        }
+        try {
+            return Class.forName(owner.getName(), false, ListenerInvoker.class.getClassLoader()) == owner;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+
+    // MethodHandle 调用器, 异常原样抛出
+    private record MethodHandleConsumer(MethodHandle invoker) implements Consumer<RedisPacket> {
+        @Override
+        public void accept(RedisPacket packet) {
+            try {
+                invoker.invokeExact(packet);
+            } catch (Throwable e) {
+                throw sneakyThrow(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E extends Throwable> RuntimeException sneakyThrow(Throwable e) throws E {
+        throw (E) e;
+    }
+
+    // 调用器模板的字节码, 第一次需要时读取
+    private static final class TemplateHolder {
+        private static final byte[] BYTES = read();
+
+        private static byte[] read() {
+            try (InputStream in = ConstantHandleConsumer.class.getResourceAsStream(ConstantHandleConsumer.class.getSimpleName() + ".class")) {
+                if (in == null) throw new IllegalStateException("找不到调用器模板的字节码 !");
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalStateException("无法读取调用器模板的字节码 !", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 同一个 JVM 内的传输层, 连接到同一个 {@link Hub} 的 RedisManager 之间直接传递数据包对象, 不经过序列化和网络.
+ * 消息在发布线程上交给接收方的路由器, 处理器仍然在各自的分发执行器中执行.
+ * 接收方拿到的是发送方的同一个数据包对象, 处理器不要修改收到的数据包.
+ */
+public class LoopbackTransport implements MessageTransport {
+    @Getter private final Hub hub;
+    private RedisManager manager;
+    private RedisMessageRouter router;
+    private MessengerMetrics metrics;
+
+    /**
+     * 连接到 JVM 内共享的默认总线
+     */
+    public LoopbackTransport() {
+        this(Hub.DEFAULT);
+    }
+
+    /**
+     * @param hub 总线, 只有连接到同一个总线的管理器之间可以通信
+     */
+    public LoopbackTransport(@NotNull Hub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void start(@NotNull RedisManager manager) {
+        this.manager = manager;
+        this.router = manager.getMessageRouter();
+        this.metrics = manager.getMetrics();
+        if (hub.servers.putIfAbsent(manager.getServerId(), this) != null) {
+            throw new IllegalStateException("服务器 " + manager.getServerId() + " 已经连接到该总线 !");
+        }
+    }
+
+    @Override
+    public void subscribe(@NotNull String channel) {
+        hub.subscribers.computeIfAbsent(channel, c -> ConcurrentHashMap.newKeySet()).add(this);
+    }
+
+    @Override
+    public void unsubscribe(@NotNull String channel) {
+        Set<LoopbackTransport> subscribers = hub.subscribers.get(channel);
+        if (subscribers != null) subscribers.remove(this);
+    }
+
+    @Override
+    public boolean supportsPatterns() {
+        return true;
+    }
+
+    @Override
+    public void subscribePattern(@NotNull String pattern) {
+        hub.patternSubscribers.computeIfAbsent(pattern, p -> ConcurrentHashMap.newKeySet()).add(this);
+    }
+
+    @Override
+    public void unsubscribePattern(@NotNull String pattern) {
+        Set<LoopbackTransport> subscribers = hub.patternSubscribers.get(pattern);
+        if (subscribers != null) subscribers.remove(this);
+    }
+
+    @Override
+    public void publish(@NotNull String channel, @NotNull RedisPacket packet) {
+        metrics.onPublish(channel, 0);
+        Set<LoopbackTransport> subscribers = hub.subscribers.get(channel);
+        if (hub.patternSubscribers.isEmpty()) {
+            if (subscribers == null) return;
+            for (LoopbackTransport subscriber : subscribers) {
+                subscriber.router.handlePacket(channel, packet);
+            }
+            return;
+        }
+
+        // 有模式订阅时先合并接收方, 同时匹配多个订阅的服务器只收到一次
+        Set<LoopbackTransport> receivers = subscribers == null ? new HashSet<>() : new HashSet<>(subscribers);
+        hub.patternSubscribers.forEach((pattern, patternSubscribers) -> {
+            if (GlobTrie.matches(pattern, channel)) receivers.addAll(patternSubscribers);
+        });
+        for (LoopbackTransport subscriber : receivers) {
+            subscriber.router.handlePacket(channel, packet);
+        }
+    }
+
+    @Override
+    public void close() {
+        hub.subscribers.values().forEach(subscribers -> subscribers.remove(this));
+        hub.patternSubscribers.values().forEach(subscribers -> subscribers.remove(this));
+        if (manager != null) hub.servers.remove(manager.getServerId(), this);
+    }
+
+
+    /**
+     * 内存中的消息总线
+     */
+    public static final class Hub {
+        /** JVM 内共享的默认总线 */
+        public static final Hub DEFAULT = new Hub();
+
+        private final Map<String, Set<LoopbackTransport>> subscribers = new ConcurrentHashMap<>(); // [频道: 订阅者]
+        private final Map<String, Set<LoopbackTransport>> patternSubscribers = new ConcurrentHashMap<>(); // [频道模式: 订阅者]
+        private final Map<String, LoopbackTransport> servers = new ConcurrentHashMap<>(); // [服务器ID: 传输层]
+
+        /**
+         * @param serverId 服务器唯一ID
+         * @return 该服务器是否连接在这个总线上
+         */
+        public boolean isConnected(@NotNull String serverId) {
+            return servers.containsKey(serverId);
+        }
+    }
+}
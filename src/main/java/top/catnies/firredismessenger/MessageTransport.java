@@ -0,0 +1,87 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 消息传输层, 负责把数据包发到频道上, 并把订阅频道收到的消息交给 {@link RedisMessageRouter}.
+ * 默认使用基于 Lettuce 发布订阅的 {@link LettuceTransport}, 同一个 JVM 中的多个 RedisManager
+ * 可以使用 {@link LoopbackTransport} 直接传递数据包对象, 或者用 {@link HybridTransport} 只对本地接收方走内存.
+ * 一个传输层实例只能被一个 RedisManager 使用.
+ */
+public interface MessageTransport {
+
+    /**
+     * 根据连接地址创建基于 Lettuce 的传输层, Redis Cluster 地址使用分片发布订阅
+     * @param connectUri Redis 地址
+     * @return 传输层
+     */
+    static @NotNull MessageTransport of(@NotNull RedisUri connectUri) {
+        return connectUri.cluster() ? new LettuceClusterTransport(connectUri) : new LettuceTransport(connectUri);
+    }
+
+    /**
+     * 建立连接, 在 RedisManager 创建好回调管理器和路由器之后调用
+     * @param manager 使用该传输层的管理器
+     * @throws Exception 连接失败
+     */
+    void start(@NotNull RedisManager manager) throws Exception;
+
+    /**
+     * 订阅频道
+     * @param channel 频道名
+     */
+    void subscribe(@NotNull String channel);
+
+    /**
+     * 取消订阅频道
+     * @param channel 频道名
+     */
+    void unsubscribe(@NotNull String channel);
+
+    /**
+     * @return 是否支持 {@link #subscribePattern(String)}, 不支持时管理器在订阅前直接拒绝带通配符的频道
+     */
+    default boolean supportsPatterns() {
+        return false;
+    }
+
+    /**
+     * 按通配符模式订阅频道, 一条消息即使同时匹配频道订阅和多个模式订阅, 也只交给路由器一次
+     * @param pattern 频道模式, 语法与 Redis PSUBSCRIBE 一致, 本地匹配使用 {@link GlobTrie}
+     */
+    default void subscribePattern(@NotNull String pattern) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " 不支持按模式订阅频道 !");
+    }
+
+    /**
+     * 取消按通配符模式订阅频道
+     * @param pattern 频道模式
+     */
+    default void unsubscribePattern(@NotNull String pattern) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " 不支持按模式订阅频道 !");
+    }
+
+    /**
+     * 发布数据包
+     * @param channel 实际发布的频道, 已经计算过收件箱投递
+     * @param packet 数据包, 频道和发布时间已经设置好
+     */
+    void publish(@NotNull String channel, @NotNull RedisPacket packet);
+
+    /**
+     * 暂停或恢复从订阅连接读取数据, 分发队列满了之后由路由器调用, 可能在 IO 线程上调用, 实现不能阻塞.
+     * 默认什么也不做, 此时队列满了之后到达的数据包直接按溢出策略处理
+     * @param paused 是否暂停
+     */
+    default void setReadPaused(boolean paused) { }
+
+    /**
+     * 立即发送缓冲中的数据包, 没有缓冲的实现什么也不做
+     */
+    default void flush() { }
+
+    /**
+     * 关闭连接
+     */
+    void close();
+}
@@ -0,0 +1,74 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 运行指标的记录接口, 可以实现它把指标直接接入自己的监控系统.
+ * 这些方法在消息收发的热路径上调用, 实现时不要阻塞, 也尽量不要分配对象.
+ * 耗时类的参数以纳秒为单位, 端到端延迟基于发送方和接收方的系统时钟, 以毫秒为单位.
+ */
+public interface MessengerMetrics {
+
+    /** 不记录任何指标 */
+    MessengerMetrics NOOP = new MessengerMetrics() { };
+
+    /**
+     * 发布了一个数据包
+     * @param channel 实际发布的频道
+     * @param encodedBytes 编码后的字节数
+     */
+    default void onPublish(@NotNull String channel, int encodedBytes) { }
+
+    /**
+     * 收到了一个数据包, 打包的消息会按拆出的数据包逐个记录
+     * @param channel 收到消息的频道
+     * @param encodedBytes 编码后的字节数
+     */
+    default void onReceive(@NotNull String channel, int encodedBytes) { }
+
+    /**
+     * 解码了一个数据包
+     * @param nanos 解码耗时
+     */
+    default void onDecode(long nanos) { }
+
+    /**
+     * 收到发给本服务器的数据包时, 从发布到收到经过的时间
+     * @param millis 端到端延迟
+     */
+    default void onEndToEndLatency(long millis) { }
+
+    /**
+     * 一个处理器执行完毕
+     * @param subject 主题
+     * @param nanos 执行耗时
+     */
+    default void onHandle(@NotNull String subject, long nanos) { }
+
+    /**
+     * 收到一条回复
+     * @param nanos 从注册回调到收到回复的往返时间
+     */
+    default void onReply(long nanos) { }
+
+    /**
+     * 一个等待回复的数据包超时或被淘汰
+     */
+    default void onCallbackTimeout() { }
+
+    /**
+     * 注册一个瞬时值, 由实现方在需要时读取, 例如分发队列长度和等待回复的数据包数量
+     * @param name 名称
+     * @param supplier 读取当前值
+     */
+    default void registerGauge(@NotNull String name, @NotNull LongSupplier supplier) { }
+
+    /**
+     * @return 当前指标的快照, 不支持快照的实现返回 {@link MetricsSnapshot#EMPTY}
+     */
+    default MetricsSnapshot snapshot() {
+        return MetricsSnapshot.EMPTY;
+    }
+}
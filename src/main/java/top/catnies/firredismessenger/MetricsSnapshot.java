@@ -0,0 +1,37 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * 某一时刻的运行指标, 可以导出到自己的监控系统.
+ * 计数器是从创建开始的累计值, 两次快照相减再除以间隔即为速率.
+ * @param timestampMillis 生成快照的时间
+ * @param counters 计数器 [名称: 累计值]
+ * @param gauges 瞬时值 [名称: 当前值]
+ * @param histograms 直方图 [名称: 分布]
+ */
+public record MetricsSnapshot(
+        long timestampMillis,
+        @NotNull Map<String, Long> counters,
+        @NotNull Map<String, Long> gauges,
+        @NotNull Map<String, HistogramSnapshot> histograms
+) {
+    public static final MetricsSnapshot EMPTY = new MetricsSnapshot(0, Map.of(), Map.of(), Map.of());
+
+    /**
+     * 直方图的分布, 单位与记录时一致 (名称以 .nanos 或 .millis 结尾)
+     * @param count 记录的数值数量
+     * @param min 最小值
+     * @param max 最大值
+     * @param mean 平均值
+     * @param p50 中位数
+     * @param p90 90 分位
+     * @param p99 99 分位
+     * @param p999 99.9 分位
+     */
+    public record HistogramSnapshot(long count, long min, long max, double mean, long p50, long p90, long p99, long p999) {
+        public static final HistogramSnapshot EMPTY = new HistogramSnapshot(0, 0, 0, 0, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,53 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * 数据包编解码器, 决定 RedisPacket 在 Redis 中传输时的格式.
+ * 同一个集群内的所有客户端需要能解码彼此发送的格式.
+ */
+public interface PacketCodec {
+
+    /**
+     * 编码数据包
+     * @param packet 数据包
+     * @return 发布到 Redis 的消息内容
+     */
+    byte @NotNull [] encode(@NotNull RedisPacket packet);
+
+    /**
+     * 解码数据包
+     * @param frame 从 Redis 收到的消息内容
+     * @return 数据包
+     * @throws IllegalArgumentException 消息内容不是合法的数据包
+     */
+    @NotNull RedisPacket decode(byte @NotNull [] frame);
+
+    /**
+     * 只解码数据包的信封 (发送者、接收者、主题、ID 等), 消息内容在首次调用 {@link RedisPacket#getPayload()} 时才解码.
+     * 路由器用它来在解码消息内容之前丢弃不属于本服务器的消息. 默认实现直接完整解码.
+     * @param frame 从 Redis 收到的消息内容
+     * @return 数据包
+     * @throws IllegalArgumentException 消息内容不是合法的数据包
+     */
+    default @NotNull RedisPacket decodeLazy(byte @NotNull [] frame) {
+        return decode(frame);
+    }
+
+    /**
+     * 同 {@link #decodeLazy(byte[])}, 数据包只占消息的一部分, 例如 {@link PacketEnvelope} 打包的消息.
+     * 解码后的数据包可以继续引用整条消息, 调用方之后不能修改它. 默认实现复制出这一部分再解码.
+     * @param message 从 Redis 收到的消息内容
+     * @param offset 数据包的起始位置
+     * @param length 数据包的长度
+     * @return 数据包
+     * @throws IllegalArgumentException 消息内容不是合法的数据包
+     */
+    default @NotNull RedisPacket decodeLazy(byte @NotNull [] message, int offset, int length) {
+        if (offset == 0 && length == message.length) return decodeLazy(message);
+        return decodeLazy(Arrays.copyOfRange(message, offset, offset + length));
+    }
+
+}
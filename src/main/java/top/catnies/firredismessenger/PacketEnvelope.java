@@ -0,0 +1,100 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把多个已编码的数据包打包成一条 Redis 消息.
+ * <pre>
+ * byte    魔数 (0xFB)
+ * varint  数据包数量
+ * varint  长度 + 已编码的数据包, 重复
+ * </pre>
+ * 魔数与 JSON 的 '{' 和二进制编解码器的版本号都不同, 路由器据此识别并拆包.
+ */
+public final class PacketEnvelope {
+    public static final byte MAGIC = (byte) 0xFB;
+
+    private PacketEnvelope() {
+    }
+
+    /**
+     * @param message Redis 消息
+     * @return 是否是打包后的消息
+     */
+    public static boolean isEnvelope(byte @NotNull [] message) {
+        return message.length > 0 && message[0] == MAGIC;
+    }
+
+    /**
+     * 打包
+     * @param frames 已编码的数据包
+     * @return Redis 消息
+     */
+    public static byte[] pack(@NotNull List<byte[]> frames) {
+        int size = 1 + varIntSize(frames.size());
+        for (byte[] frame : frames) size += varIntSize(frame.length) + frame.length;
+
+        byte[] message = new byte[size];
+        message[0] = MAGIC;
+        int position = writeVarInt(message, 1, frames.size());
+        for (byte[] frame : frames) {
+            position = writeVarInt(message, position, frame.length);
+            System.arraycopy(frame, 0, message, position, frame.length);
+            position += frame.length;
+        }
+        return message;
+    }
+
+    /**
+     * 拆包, 不复制数据包: 每个数据包是指向原始消息的切片, 底层数组就是 message, 用 arrayOffset 和 remaining 定位
+     * @param message Redis 消息, 之后不能修改它
+     * @return 已编码的数据包
+     * @throws IllegalArgumentException 消息内容不完整
+     */
+    public static List<ByteBuffer> unpack(byte @NotNull [] message) {
+        if (!isEnvelope(message)) throw new IllegalArgumentException("不是打包后的消息 !");
+        int[] position = {1};
+        int count = readVarInt(message, position);
+        List<ByteBuffer> frames = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            int length = readVarInt(message, position);
+            if (length < 0 || position[0] + length > message.length) throw new IllegalArgumentException("打包消息内容不完整 !");
+            frames.add(ByteBuffer.wrap(message, position[0], length).slice());
+            position[0] += length;
+        }
+        return frames;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarInt(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarInt(byte[] buffer, int[] position) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= buffer.length) throw new IllegalArgumentException("打包消息内容不完整 !");
+            byte b = buffer[position[0]++];
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IllegalArgumentException("非法的 varint !");
+    }
+}
@@ -0,0 +1,171 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link BinaryPacketCodec} 使用的消息内容压缩器, 基于 JDK 自带的 Deflate, 不需要额外依赖.
+ * 只有达到大小阈值的消息内容才会压缩, 压缩后没有变小的仍然按原样发送.
+ * 可以使用共享字典提高短消息的压缩率, 字典填写消息中经常出现的片段 (例如 JSON 字段名), 也可以用 {@link #trainDictionary(Collection, int)} 从样本生成.
+ * 所有客户端必须使用相同的字典, 字典不一致时解码会失败.
+ * 每个线程复用自己的 Deflater 和 Inflater, 可以在多个线程中同时使用.
+ */
+public class PayloadCompressor {
+    public static final int DEFAULT_THRESHOLD = 512; // 默认压缩阈值, 小于该字节数的消息内容不压缩
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024; // 解压后允许的最大长度, 防止损坏的消息申请过大的内存
+
+    private static final int DICTIONARY_SEGMENT_LENGTH = 8; // 训练字典时统计的片段长度
+
+    @Getter private final int threshold;
+    private final int level;
+    private final byte @Nullable [] dictionary;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    @Getter private final LongAdder compressedPackets = new LongAdder(); // 压缩后发送的数据包数量
+    @Getter private final LongAdder incompressiblePackets = new LongAdder(); // 达到阈值但压缩后没有变小的数据包数量
+    @Getter private final LongAdder originalBytes = new LongAdder(); // 压缩前的字节数
+    @Getter private final LongAdder compressedBytes = new LongAdder(); // 压缩后的字节数
+    @Getter private final LongAdder decompressedPackets = new LongAdder(); // 解压的数据包数量
+
+    public PayloadCompressor() {
+        this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * @param threshold 压缩阈值, 消息内容的 UTF-8 字节数小于该值时不压缩
+     * @param dictionary 共享字典, 可以为空
+     */
+    public PayloadCompressor(int threshold, byte @Nullable [] dictionary) {
+        this(threshold, Deflater.DEFAULT_COMPRESSION, dictionary);
+    }
+
+    /**
+     * @param threshold 压缩阈值, 消息内容的 UTF-8 字节数小于该值时不压缩
+     * @param level 压缩级别, 1 最快, 9 压缩率最高
+     * @param dictionary 共享字典, 可以为空
+     */
+    public PayloadCompressor(int threshold, int level, byte @Nullable [] dictionary) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold 不能小于 0 !");
+        this.threshold = threshold;
+        this.level = level;
+        this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level));
+    }
+
+    /**
+     * 压缩消息内容
+     * @param payload 消息内容的 UTF-8 字节
+     * @return 压缩后的字节, 小于阈值或者压缩后没有变小时返回空
+     */
+    public byte @Nullable [] compress(byte @NotNull [] payload) {
+        if (payload.length < threshold || payload.length == 0) return null;
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        deflater.setInput(payload);
+        deflater.finish();
+        // 输出缓冲区与原文一样大, 写满了还没结束说明压缩后不会更小
+        byte[] buffer = new byte[payload.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        if (!deflater.finished() || length >= payload.length) {
+            incompressiblePackets.increment();
+            return null;
+        }
+
+        compressedPackets.increment();
+        originalBytes.add(payload.length);
+        compressedBytes.add(length);
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * 解压消息内容
+     * @param frame 包含压缩内容的字节数组
+     * @param offset 压缩内容的起始位置
+     * @param length 压缩内容的长度
+     * @param originalLength 解压后的长度
+     * @return 解压后的 UTF-8 字节
+     * @throws IllegalArgumentException 压缩内容损坏, 或者与发送方使用的字典不一致
+     */
+    public byte @NotNull [] decompress(byte @NotNull [] frame, int offset, int length, int originalLength) {
+        if (originalLength < 0 || originalLength > MAX_PAYLOAD_LENGTH) throw new IllegalArgumentException("非法的解压长度: " + originalLength);
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(frame, offset, length);
+        byte[] output = new byte[originalLength];
+        int position = 0;
+        try {
+            while (!inflater.finished()) {
+                int read = inflater.inflate(output, position, output.length - position);
+                position += read;
+                if (read > 0) continue;
+                if (!inflater.needsDictionary()) break; // 输入已经读完或者输出已经写满
+                if (dictionary == null) throw new IllegalArgumentException("压缩内容需要共享字典, 但没有配置字典 !");
+                inflater.setDictionary(dictionary);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("压缩内容损坏或字典不一致: " + e.getMessage(), e);
+        }
+        if (!inflater.finished() || position != originalLength) throw new IllegalArgumentException("压缩内容不完整 !");
+        decompressedPackets.increment();
+        return output;
+    }
+
+    /**
+     * @return 压缩后字节数与压缩前字节数之比, 还没有压缩过任何数据包时为 1
+     */
+    public double getCompressionRatio() {
+        long original = originalBytes.sum();
+        return original == 0 ? 1.0 : (double) compressedBytes.sum() / original;
+    }
+
+    /**
+     * 从样本消息中生成共享字典: 统计样本中反复出现的片段, 按出现次数挑选, 出现越多的片段放得越靠后 (Deflate 对字典末尾的内容引用距离更短).
+     * 生成的字典需要分发给所有客户端, 之后只能整体替换.
+     * @param samples 样本消息内容, 例如线上抓取的几百条典型消息
+     * @param size 字典的最大字节数, Deflate 最多使用最后 32KB
+     * @return 字典
+     */
+    public static byte @NotNull [] trainDictionary(@NotNull Collection<String> samples, int size) {
+        // 统计每个片段在多少条样本中出现过
+        Map<String, Integer> counts = new HashMap<>();
+        for (String sample : samples) {
+            String bytes = new String(sample.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i + DICTIONARY_SEGMENT_LENGTH <= bytes.length(); i++) {
+                String segment = bytes.substring(i, i + DICTIONARY_SEGMENT_LENGTH);
+                if (seen.add(segment)) counts.merge(segment, 1, Integer::sum);
+            }
+        }
+
+        // 只出现在一条样本中的片段没有意义
+        List<Map.Entry<String, Integer>> segments = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) segments.add(entry);
+        }
+        segments.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        // 从出现次数最多的片段开始挑选, 已经包含在字典中的片段跳过
+        StringBuilder dictionary = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : segments) {
+            if (dictionary.length() + DICTIONARY_SEGMENT_LENGTH > size) break;
+            if (dictionary.indexOf(entry.getKey()) >= 0) continue;
+            dictionary.insert(0, entry.getKey());
+        }
+        return dictionary.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,103 @@
+package top.catnies.firredismessenger;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 发布连接池. 一条连接只对应一个 Netty 事件循环, 发布量大时把 PUBLISH 分散到多条连接上.
+ * 开启批量发布时每条连接各自有一个 {@link BatchingPublisher}.
+ */
+public class PublishConnectionPool {
+
+    /**
+     * 选择发布连接的方式
+     */
+    public enum Affinity {
+        /** 轮流使用每条连接, 吞吐量最均匀, 但同一频道的消息可能经过不同连接, 到达顺序不再保证 */
+        ROUND_ROBIN,
+        /** 按频道名的哈希选择连接, 同一频道的消息总是经过同一条连接, 保持发布顺序 */
+        CHANNEL_HASH
+    }
+
+    @Getter private final List<StatefulRedisConnection<byte[], byte[]>> connections;
+    @Getter private final List<BatchingPublisher> batchingPublishers; // 未开启批量发布时为空列表
+    private final Affinity affinity;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    /**
+     * @param redisClient Redis 客户端
+     * @param size 连接数量
+     * @param affinity 选择连接的方式
+     * @param options 批量发布相关的配置
+     */
+    public PublishConnectionPool(@NotNull RedisClient redisClient, int size, @NotNull Affinity affinity, @NotNull RedisOptions options) {
+        if (size <= 0) throw new IllegalArgumentException("size 必须大于 0 !");
+        this.affinity = affinity;
+        List<StatefulRedisConnection<byte[], byte[]>> connections = new ArrayList<>(size);
+        List<BatchingPublisher> batchingPublishers = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            StatefulRedisConnection<byte[], byte[]> connection = redisClient.connect(ByteArrayCodec.INSTANCE);
+            connections.add(connection);
+            if (options.getPublishBatchSize() > 0) {
+                batchingPublishers.add(new BatchingPublisher(connection, options.getPublishBatchSize(), options.getPublishLingerMs(), options.isPublishEnvelope()));
+            }
+        }
+        this.connections = Collections.unmodifiableList(connections);
+        this.batchingPublishers = Collections.unmodifiableList(batchingPublishers);
+    }
+
+    /**
+     * 发布已编码的数据包
+     * @param channel 频道名
+     * @param channelBytes 频道名的字节形式
+     * @param frame 已编码的数据包
+     */
+    public void publish(@NotNull String channel, byte @NotNull [] channelBytes, byte @NotNull [] frame) {
+        int index = select(channel);
+        if (batchingPublishers.isEmpty()) {
+            connections.get(index).async().publish(channelBytes, frame);
+        } else {
+            batchingPublishers.get(index).publish(channel, channelBytes, frame);
+        }
+    }
+
+    /**
+     * 立即发送所有批量发布器中缓冲的数据包
+     */
+    public void flush() {
+        for (BatchingPublisher publisher : batchingPublishers) publisher.flush();
+    }
+
+    /**
+     * 刷新剩余数据并关闭所有连接
+     */
+    public void close() {
+        for (BatchingPublisher publisher : batchingPublishers) publisher.close();
+        for (StatefulRedisConnection<byte[], byte[]> connection : connections) connection.close();
+    }
+
+    /**
+     * @return 第一条连接的批量发布器, 未开启批量发布时为空
+     */
+    public @Nullable BatchingPublisher firstBatchingPublisher() {
+        return batchingPublishers.isEmpty() ? null : batchingPublishers.get(0);
+    }
+
+    private int select(String channel) {
+        int size = connections.size();
+        if (size == 1) return 0;
+        return switch (affinity) {
+            case ROUND_ROBIN -> Math.floorMod(cursor.getAndIncrement(), size);
+            case CHANNEL_HASH -> Math.floorMod(channel.hashCode(), size);
+        };
+    }
+}
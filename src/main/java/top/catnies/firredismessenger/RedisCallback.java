@@ -6,36 +6,233 @@ import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class RedisCallback {
-    @Getter private final Map<UUID, CallbackEntry> pendingCallbacks = new ConcurrentHashMap<>(); // 正在等待回调的任务
+    private final CallbackTable pendingCallbacks; // 正在等待回调的任务
 
-    // TODO 优化回调处理的线程池? 不懂线程池捏
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2); // 执行器
+    private final ExecutorService timeoutExecutor = Executors.newFixedThreadPool(2); // 执行超时回调的线程池
+    @Getter private final TimeoutWheel timeoutWheel; // 超时时间轮
+    private final MessengerMetrics metrics; // 运行指标
+
+    // 连接中断期间暂停超时: 中断期间到期的任务先挂起, 恢复后按中断时长顺延; 中断前注册的任务也会顺延中断的时长
+    private final Object suspendLock = new Object();
+    private volatile long suspendedSince; // 本次中断开始的时间, 未中断时为 0, 只在持有锁时修改
+    private volatile long suspendedNanos; // 已结束的中断累计时长, 只在持有锁时修改
+    private final List<CallbackEntry> deferredEntries = new ArrayList<>(); // 中断期间到期的任务
+    @Getter private final LongAdder extendedTimeouts = new LongAdder(); // 因连接中断而顺延的超时次数
+
+    public RedisCallback() {
+        this(RedisOptions.defaults());
+    }
+
+    public RedisCallback(RedisOptions options) {
+        this(options, MessengerMetrics.NOOP);
+    }
+
+    public RedisCallback(RedisOptions options, MessengerMetrics metrics) {
+        this.metrics = metrics;
+        this.timeoutWheel = new TimeoutWheel(options.getTimeoutTickMs(), TimeUnit.MILLISECONDS, options.getTimeoutWheelSize(), timeoutExecutor);
+        this.pendingCallbacks = new CallbackTable(options.getCallbackCapacity(), options.getCallbackStripes(), options.getCallbackOverflowPolicy(), this::onEvicted);
+    }
 
     /**
-     * 注册Redis数据包的回调任务
+     * 注册Redis数据包的回调任务, 没有设置回调和超时回调的数据包不会被跟踪
      * @param packet 数据包
-     * @param timeoutMs 触发超时回调的时间
+     * @param timeoutMs 触发超时回调的时间, 同时也是回调任务的最长保留时间
+     * @return 是否注册成功, 关联表已满并且策略为拒绝时返回 false, 此时超时回调会立即触发
+     * @throws CallbackOverflowException 关联表已满并且策略为快速失败时抛出
      */
-    public void registerCallbackTask(RedisPacket packet, long timeoutMs) {
-        // 开启超时回调任务
-        ScheduledFuture<?> timeOutFuture = null;
-        if (packet.getOnTimeout() != null) {
-            timeOutFuture = scheduler.schedule(() -> {
-                // 从待处理集合中移除
-                CallbackEntry removed = pendingCallbacks.remove(packet.getMessageId());
-                if (removed != null) {
-                    packet.getOnTimeout().accept(packet); // 执行超时处理
-                }
-            }, timeoutMs, TimeUnit.MILLISECONDS);
+    public boolean registerCallbackTask(RedisPacket packet, long timeoutMs) {
+        Consumer<String> callback = packet.getCallback();
+        Consumer<RedisPacket> onTimeout = packet.getOnTimeout();
+        if (callback == null && onTimeout == null) return true;
+
+        CallbackEntry entry = new CallbackEntry(packet, null,
+                callback == null ? null : response -> callback.accept(response.getPayload()),
+                onTimeout == null ? null : () -> onTimeout.accept(packet),
+                1);
+        if (!register(entry, timeoutMs)) {
+            fireTimeout(entry);
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * 注册一个请求, 与 {@link #registerCallbackTask} 不同, 回复和超时的处理由调用方提供, 不使用数据包内的回调
+     * @param packet 数据包
+     * @param timeoutMs 等待回复的最长时间
+     * @param expectedResponses 需要收集的回复数量, 收齐或超时前任务一直保留
+     * @param onResponse 每收到一条回复执行一次
+     * @param onExpire 超时或被淘汰时执行
+     * @return 是否注册成功, 关联表已满并且策略为拒绝时返回 false, 此时不会执行 onExpire
+     * @throws CallbackOverflowException 关联表已满并且策略为快速失败时抛出
+     */
+    public boolean registerRequest(RedisPacket packet, long timeoutMs, int expectedResponses,
+                                   @NotNull Consumer<RedisPacket> onResponse, @NotNull Runnable onExpire) {
+        if (expectedResponses <= 0) throw new IllegalArgumentException("expectedResponses 必须大于 0 !");
+        return register(new CallbackEntry(packet, null, onResponse, onExpire, expectedResponses), timeoutMs);
+    }
 
-        // 将回调任务注册到执行任务中.
-        pendingCallbacks.put(packet.getMessageId(), new CallbackEntry(packet, timeOutFuture));
+    // 将回调任务注册到关联表中, 并开启超时任务
+    private boolean register(CallbackEntry entry, long timeoutMs) {
+        RedisPacket packet = entry.packet;
+        long key = CallbackTable.keyOf(packet.getMessageId());
+        entry.suspendedMark.set(suspendedNanos(System.nanoTime()));
+        if (!pendingCallbacks.put(key, entry)) return false;
+
+        // 开启超时任务, 即使没有超时回调也要在到期后清理, 避免关联表被永远不会回复的数据包占满
+        entry.setTimeout(timeoutWheel.newTimeout(() -> onDeadline(entry), timeoutMs, TimeUnit.MILLISECONDS));
+        return true;
+    }
+
+    // 任务到期: 连接中断期间先挂起; 任务存活期间经历过中断时, 按中断的时长顺延; 否则视为超时
+    private void onDeadline(CallbackEntry entry) {
+        UUID messageId = entry.packet.getMessageId();
+        long key = CallbackTable.keyOf(messageId);
+        long extension;
+        synchronized (suspendLock) {
+            if (suspendedSince != 0) {
+                entry.deferredAt.set(System.nanoTime());
+                deferredEntries.add(entry);
+                return;
+            }
+            extension = suspendedNanos - entry.suspendedMark.get();
+            entry.suspendedMark.set(suspendedNanos);
+            long deferredAt = entry.deferredAt.getAndSet(0);
+            if (deferredAt != 0) extension -= System.nanoTime() - deferredAt; // 到期后挂起等待的时间已经算在顺延里
+        }
+        if (extension > 0) {
+            if (pendingCallbacks.get(key, messageId) != entry) return; // 已经完成
+            extendedTimeouts.increment();
+            entry.setTimeout(timeoutWheel.newTimeout(() -> onDeadline(entry), extension, TimeUnit.NANOSECONDS));
+            return;
+        }
+
+        // 从待处理集合中移除
+        CallbackEntry removed = pendingCallbacks.remove(key, messageId);
+        if (removed == null) return;
+        metrics.onCallbackTimeout();
+        if (removed.onExpire != null) {
+            removed.onExpire.run(); // 执行超时处理
+        }
+    }
+
+    /**
+     * 暂停超时, 在连接中断时调用. 暂停期间到期的任务不会触发超时回调, 恢复后按中断的时长顺延.
+     */
+    public void suspendTimeouts() {
+        synchronized (suspendLock) {
+            if (suspendedSince == 0) suspendedSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * 恢复超时, 在连接恢复时调用. 所有等待中的任务的截止时间都向后顺延本次中断的时长.
+     */
+    public void resumeTimeouts() {
+        List<CallbackEntry> deferred;
+        synchronized (suspendLock) {
+            if (suspendedSince == 0) return;
+            suspendedNanos += Math.max(System.nanoTime() - suspendedSince, 1);
+            suspendedSince = 0;
+            deferred = new ArrayList<>(deferredEntries);
+            deferredEntries.clear();
+        }
+        for (CallbackEntry entry : deferred) onDeadline(entry);
+    }
+
+    /**
+     * @return 超时是否处于暂停状态
+     */
+    public boolean isTimeoutsSuspended() {
+        return suspendedSince != 0;
+    }
+
+    // 截至某个时刻累计的中断时长, 正在中断时包括本次中断已经经过的时间; 注册时调用, 不加锁
+    private long suspendedNanos(long now) {
+        while (true) {
+            long since = suspendedSince;
+            long total = suspendedNanos;
+            if (since == 0) return total;
+            if (suspendedSince == since) return total + (now - since); // 读取期间没有恢复
+        }
+    }
+
+    /**
+     * 取出等待回调的任务, 并取消它的超时任务
+     * @param messageId 原始数据包的ID
+     * @return 回调任务, 已经超时或不存在时返回 null
+     */
+    @Nullable
+    public CallbackEntry completeCallbackTask(UUID messageId) {
+        CallbackEntry entry = pendingCallbacks.remove(CallbackTable.keyOf(messageId), messageId);
+        if (entry != null && entry.timeout != null) entry.timeout.cancel();
+        return entry;
+    }
+
+    /**
+     * 数据包没有发出去时 (例如被发布缓冲区丢弃) 立即取出等待回调的任务, 按超时处理, 不再等到超时时间
+     * @param messageId 原始数据包的ID
+     * @return 是否有等待回调的任务
+     */
+    public boolean failCallbackTask(UUID messageId) {
+        CallbackEntry entry = completeCallbackTask(messageId);
+        if (entry == null) return false;
+        metrics.onCallbackTimeout();
+        fireTimeout(entry);
+        return true;
+    }
+
+    /**
+     * 收到一条回复, 只需要一条回复的任务直接取出; 需要多条回复的任务在收齐后才取出
+     * @param messageId 原始数据包的ID
+     * @return 应当处理这条回复的任务, 已经超时, 已经收齐或不存在时返回 null
+     */
+    @Nullable
+    public CallbackEntry acceptResponse(UUID messageId) {
+        CallbackEntry entry = pendingCallbacks.get(CallbackTable.keyOf(messageId), messageId);
+        if (entry == null) return null;
+        if (entry.expectedResponses <= 1) {
+            entry = completeCallbackTask(messageId); // 谁先移除, 谁就负责执行
+        } else {
+            int received = entry.receivedResponses.incrementAndGet();
+            if (received > entry.expectedResponses) return null;
+            if (received == entry.expectedResponses) completeCallbackTask(messageId);
+        }
+        if (entry != null) metrics.onReply(System.nanoTime() - entry.registeredAt);
+        return entry;
+    }
+
+    /**
+     * @return 正在等待回复的数据包数量
+     */
+    public int getPendingCount() {
+        return pendingCallbacks.size();
+    }
+
+    // 被淘汰的任务视为超时
+    private void onEvicted(CallbackEntry entry) {
+        metrics.onCallbackTimeout();
+        if (entry.timeout != null) entry.timeout.cancel();
+        fireTimeout(entry);
+    }
+
+    // 在超时线程池中执行超时回调
+    private void fireTimeout(CallbackEntry entry) {
+        Runnable onExpire = entry.onExpire;
+        if (onExpire == null) return;
+        try {
+            timeoutExecutor.execute(onExpire);
+        } catch (RejectedExecutionException ignored) { }
     }
 
 
@@ -44,19 +241,19 @@ public class RedisCallback {
      */
     public void shutdown() {
         // 取消所有待处理的超时任务
-        for (CallbackEntry entry : pendingCallbacks.values()) {
-            if (entry.timeOutFuture != null) {
-                entry.timeOutFuture.cancel(false);
+        for (CallbackEntry entry : pendingCallbacks.clear()) {
+            if (entry.timeout != null) {
+                entry.timeout.cancel();
             }
         }
-        pendingCallbacks.clear();
+        timeoutWheel.stop();
 
         // 等待最多5秒完成剩余任务
-        scheduler.shutdown();
+        timeoutExecutor.shutdown();
         try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS))
-                scheduler.shutdownNow();
-        } catch (InterruptedException e) { scheduler.shutdownNow(); }
+            if (!timeoutExecutor.awaitTermination(5, TimeUnit.SECONDS))
+                timeoutExecutor.shutdownNow();
+        } catch (InterruptedException e) { timeoutExecutor.shutdownNow(); }
     }
 
 
@@ -64,6 +261,13 @@ public class RedisCallback {
     @AllArgsConstructor
     public static class CallbackEntry {
         @NotNull private RedisPacket packet;
-        @Nullable private ScheduledFuture<?> timeOutFuture;
+        @Nullable private volatile TimeoutWheel.Timeout timeout;
+        @Nullable private Consumer<RedisPacket> onResponse; // 收到回复时执行
+        @Nullable private Runnable onExpire; // 超时或被淘汰时执行
+        private int expectedResponses; // 需要收集的回复数量
+        private final AtomicInteger receivedResponses = new AtomicInteger(); // 已收到的回复数量
+        private final long registeredAt = System.nanoTime(); // 注册时间, 用于统计往返时间
+        private final AtomicLong suspendedMark = new AtomicLong(); // 上次计算顺延时的累计中断时长
+        private final AtomicLong deferredAt = new AtomicLong(); // 到期时正处于中断而被挂起的时刻
     }
 }
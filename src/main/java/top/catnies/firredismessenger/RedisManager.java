@@ -2,80 +2,231 @@ package top.catnies.firredismessenger;
 
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.api.StatefulRedisConnection;
-import io.lettuce.core.pubsub.RedisPubSubAdapter;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import top.catnies.firredismessenger.api.DeliveryMode;
 import top.catnies.firredismessenger.api.RedisListener;
 import top.catnies.firredismessenger.api.RedisSubject;
 
 import java.lang.reflect.Method;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 public class RedisManager {
     public static final long DEFAULT_CALLBACK_TIMEOUT_MS = 10000; // 默认10秒超时
     public static final String ALL_RECEIVERS = "*"; // 表示消息发送给所有接收方
 
-    @Getter private static RedisManager instance;
-    @Getter private final RedisUri connectUri;
+    private static volatile RedisManager defaultInstance; // 默认管理器, 只为旧代码保留
+    @Getter @Nullable private final RedisUri connectUri; // Redis 地址, 使用自定义传输层时可能为空
+    @Getter private final RedisOptions options;
+    @Getter private final MessengerMetrics metrics; // 运行指标
 
     // 通过 Listener 实现类继承的所有监听器
     private final Map<RedisListener, Set<RedisMessageRouter.SubjectHandler>> registeredListeners = new ConcurrentHashMap<>();
 
     /* 链接信息 */
     @Getter private final String serverId; // 服务器唯一ID
-    @Getter private RedisClient redisClient; // Redis 客户端
-    @Getter private StatefulRedisConnection<String, String> connection; // 普通连接
-    @Getter private StatefulRedisPubSubConnection<String, String> pubSubConnection; // 发布订阅连接
+    @Getter private final String inboxChannel; // 本服务器的收件箱频道
+    @Getter private final MessageTransport transport; // 传输层
     @Getter private final Set<String> subscribedChannels = ConcurrentHashMap.newKeySet(); // 已订阅的频道集合
+    private final GlobTrie<String> subscribedPatterns = new GlobTrie<>(); // 已订阅的频道模式, 写入时对它加锁
+    @Getter private final Set<String> streamChannels = ConcurrentHashMap.newKeySet(); // 通过 Redis Streams 消费的频道集合
+    @Nullable private volatile StreamDelivery streamDelivery; // Streams 投递, 第一次使用时创建
 
     /* 关联对象 */
     @Getter private RedisCallback callbackManager;
     @Getter private RedisMessageRouter messageRouter;
+    @Getter private ConnectionSupervisor connectionSupervisor;
+    @Getter private RequestCoalescer requestCoalescer;
 
     public RedisManager(RedisUri connectUri, String serverId) {
-        instance = this;
+        this(connectUri, serverId, RedisOptions.defaults());
+    }
+
+    public RedisManager(RedisUri connectUri, String serverId, RedisOptions options) {
+        this(connectUri, serverId, options, MessageTransport.of(connectUri));
+    }
+
+    /**
+     * 使用自定义的传输层, 例如同一个 JVM 内的 {@link LoopbackTransport} 或 {@link HybridTransport}
+     * @param serverId 服务器唯一ID
+     * @param options 可选配置
+     * @param transport 传输层, 不能与其他管理器共用
+     */
+    public RedisManager(String serverId, RedisOptions options, MessageTransport transport) {
+        this(transport instanceof LettuceTransport lettuce ? lettuce.getConnectUri() : null, serverId, options, transport);
+    }
+
+    private RedisManager(@Nullable RedisUri connectUri, String serverId, RedisOptions options, MessageTransport transport) {
         this.serverId = serverId;
         this.connectUri = connectUri;
+        this.options = options;
+        this.metrics = options.getMetrics() != null ? options.getMetrics() : new DefaultMessengerMetrics();
+        this.transport = transport;
+        this.inboxChannel = inboxChannelOf(serverId);
         this.connect();
+        synchronized (RedisManager.class) {
+            if (defaultInstance == null) defaultInstance = this;
+        }
     }
 
-    // 链接 Redis 数据库
+    /**
+     * 同一个 JVM 中可以同时运行多个互不相关的管理器 (例如每个 Redis 数据库或分片一个), 各自持有连接、线程池和处理器;
+     * 路由器、回调管理器和收发的数据包都绑定在所属的管理器上, 不再依赖全局单例.
+     * @return 默认管理器: 当时没有默认管理器时创建的管理器, 它关闭后为空, 直到再创建新的管理器
+     * @deprecated 有多个管理器时结果不确定, 请把管理器实例传给需要它的地方
+     */
+    @Deprecated
+    public static @Nullable RedisManager getInstance() {
+        return defaultInstance;
+    }
+
+    // 链接 Redis 数据库, 失败时在后台按指数退避重试, 期间发布的数据包先进入缓冲区
     private void connect() {
-        try {
-            // 创建 Redis 链接
-            redisClient = RedisClient.create(connectUri.redisUri());
-            connection = redisClient.connect();
-            pubSubConnection = redisClient.connectPubSub();
-            // 初始化回调管理器
-            callbackManager = new RedisCallback();
-            // 创建路由类
-            messageRouter = new RedisMessageRouter(callbackManager);
-            if (pubSubConnection != null) {
-                pubSubConnection.addListener(new RedisPubSubAdapter<>() {
-                    @Override
-                    public void message(String channel, String message) {
-                        messageRouter.handleMessage(channel, message);
-                    }
-                });
+        // 初始化回调管理器
+        callbackManager = new RedisCallback(options, metrics);
+        // 创建路由类
+        messageRouter = new RedisMessageRouter(this, callbackManager, options, metrics);
+        connectionSupervisor = new ConnectionSupervisor(this, transport);
+        requestCoalescer = new RequestCoalescer(options.isCoalesceRequests(), options.getResponseCaches());
+        registerGauges();
+        // 总是订阅自己的收件箱, 连接建立后与其他频道一起订阅; 其他客户端开启 inboxRouting 后才会发到这里
+        subscribeChannel(inboxChannel);
+        // 建立连接
+        if (connectionSupervisor.start()) System.out.println("Redis connection established.");
+    }
+
+    // 连接建立或恢复后重新订阅所有频道, 重复订阅对 Redis 没有影响; 单个频道出错不影响其他频道
+    void resubscribeAll() {
+        for (String channel : subscribedChannels) {
+            try {
+                transportSubscribe(channel);
+            } catch (Exception e) {
+                System.err.println("Error in resubscribing Redis channel " + channel + ": " + e.getMessage());
             }
-            System.out.println("Redis connection established.");
-        } catch (Exception e) {
-            System.err.println("Error in Redis connection: " + e.getMessage());
         }
+        consumeStreams();
+    }
+
+    // 开始消费连接建立前登记的 Streams 频道, 已经在消费的频道会被跳过
+    private void consumeStreams() {
+        if (streamChannels.isEmpty()) return;
+        StreamDelivery delivery = streamDelivery();
+        if (delivery == null) return;
+        for (String channel : streamChannels) {
+            try {
+                delivery.consume(channel);
+            } catch (Exception e) {
+                System.err.println("Error in consuming Redis stream " + channel + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // 注册需要在生成快照时读取的瞬时值
+    private void registerGauges() {
+        metrics.registerGauge("callback.pending", callbackManager::getPendingCount);
+        DispatchQueue dispatchQueue = messageRouter.getDispatchQueue();
+        if (dispatchQueue != null) {
+            metrics.registerGauge("dispatch.queue.depth", dispatchQueue::size);
+            metrics.registerGauge("dispatch.dropped.oldest", dispatchQueue::getDroppedOldest);
+            metrics.registerGauge("dispatch.dropped.newest", dispatchQueue::getDroppedNewest);
+            metrics.registerGauge("dispatch.shed", dispatchQueue::getShedByPriority);
+            metrics.registerGauge("dispatch.caller.runs", dispatchQueue::getCallerRuns);
+            metrics.registerGauge("dispatch.caller.runs.rejected", dispatchQueue::getCallerRunsRejected);
+            metrics.registerGauge("dispatch.read.pauses", dispatchQueue::getPauses);
+        }
+        metrics.registerGauge("connection.buffered", connectionSupervisor::getBufferedCount);
+        metrics.registerGauge("connection.dropped", connectionSupervisor.getDroppedPackets()::sum);
+        metrics.registerGauge("connection.outages", connectionSupervisor.getOutages()::sum);
+        metrics.registerGauge("callback.extended", callbackManager.getExtendedTimeouts()::sum);
+        metrics.registerGauge("request.coalesced", requestCoalescer.getCoalescedRequests()::sum);
+        metrics.registerGauge("throttle.dropped", messageRouter.getThrottleDropped()::sum);
+        metrics.registerGauge("throttle.delayed", messageRouter.getThrottleDelayed()::sum);
+        metrics.registerGauge("throttle.diverted", messageRouter.getThrottleDiverted()::sum);
+        requestCoalescer.getResponseCaches().forEach((subject, cache) -> {
+            metrics.registerGauge("response.cache." + subject + ".hits", cache.getHits()::sum);
+            metrics.registerGauge("response.cache." + subject + ".misses", cache.getMisses()::sum);
+        });
+        if (options.getCodec() instanceof BinaryPacketCodec binary && binary.getCompressor() != null) {
+            PayloadCompressor compressor = binary.getCompressor();
+            metrics.registerGauge("compression.packets", compressor.getCompressedPackets()::sum);
+            metrics.registerGauge("compression.incompressible", compressor.getIncompressiblePackets()::sum);
+            metrics.registerGauge("compression.original.bytes", compressor.getOriginalBytes()::sum);
+            metrics.registerGauge("compression.compressed.bytes", compressor.getCompressedBytes()::sum);
+        }
+    }
+
+    /* Lettuce 连接, 使用其他传输层时为空 */
+
+    public @Nullable RedisClient getRedisClient() {
+        LettuceTransport lettuce = lettuceTransport();
+        return lettuce == null ? null : lettuce.getRedisClient();
+    }
+
+    public @Nullable StatefulRedisConnection<String, String> getConnection() {
+        LettuceTransport lettuce = lettuceTransport();
+        return lettuce == null ? null : lettuce.getConnection();
+    }
+
+    public @Nullable StatefulRedisPubSubConnection<byte[], byte[]> getPubSubConnection() {
+        LettuceTransport lettuce = lettuceTransport();
+        return lettuce == null ? null : lettuce.getPubSubConnection();
+    }
+
+    public @Nullable StatefulRedisConnection<byte[], byte[]> getPublishConnection() {
+        LettuceTransport lettuce = lettuceTransport();
+        return lettuce == null ? null : lettuce.getPublishConnection();
+    }
+
+    public @Nullable BatchingPublisher getBatchingPublisher() {
+        LettuceTransport lettuce = lettuceTransport();
+        return lettuce == null ? null : lettuce.getBatchingPublisher();
+    }
+
+    private @Nullable LettuceTransport lettuceTransport() {
+        MessageTransport remote = transport instanceof HybridTransport hybrid ? hybrid.getRemote() : transport;
+        return remote instanceof LettuceTransport lettuce ? lettuce : null;
     }
 
     /**
      * 注册对象中所有带 @RedisListener 的方法
      */
     public void registerListeners(RedisListener listener) {
+        // 先检查所有需要自动订阅的频道, 不合法时在修改任何状态之前拒绝
+        for (Method method : listener.getClass().getDeclaredMethods()) {
+            RedisSubject annotation = method.getAnnotation(RedisSubject.class);
+            if (annotation == null || !annotation.autoSubscribe()) continue;
+            if (annotation.delivery() == DeliveryMode.STREAM) checkStreamChannel(annotation.channel());
+            else checkChannel(annotation.channel());
+        }
+
+        // 先创建所有处理器, 再一次性注册到路由器, 只替换一次注册表快照
+        List<RedisMessageRouter.SubjectHandler> handlers = new ArrayList<>();
         for (Method method : listener.getClass().getDeclaredMethods()) {
             if (method.isAnnotationPresent(RedisSubject.class)) {
-                registerMethod(listener, method);
+                handlers.add(createHandler(listener, method));
+            }
+        }
+        if (handlers.isEmpty()) return;
+        messageRouter.registerHandlers(handlers);
+        registeredListeners.computeIfAbsent(listener, k -> ConcurrentHashMap.newKeySet()).addAll(handlers);
+
+        // 自动订阅频道
+        for (Method method : listener.getClass().getDeclaredMethods()) {
+            RedisSubject annotation = method.getAnnotation(RedisSubject.class);
+            if (annotation == null || !annotation.autoSubscribe()) continue;
+            if (annotation.delivery() == DeliveryMode.STREAM) {
+                subscribeStream(annotation.channel());
+            } else {
+                subscribeChannel(annotation.channel()); // 已经订阅过时什么也不做
             }
         }
     }
@@ -87,96 +238,312 @@ public class RedisManager {
         Set<RedisMessageRouter.SubjectHandler> handlers = registeredListeners.remove(listener);
         if (handlers == null || handlers.isEmpty()) return;
 
-        RedisManager redisManager = RedisManager.getInstance();
-        handlers.forEach(handler -> {
-            redisManager.getMessageRouter().unregisterHandler(handler);
-        });
+        messageRouter.unregisterHandlers(handlers);
     }
 
     /**
-     * 订阅消息频道
-     * @param channel 目标频道
+     * 订阅消息频道, 频道名带 * ? 或 [ 时按模式订阅所有匹配的频道, 字面上的这些字符需要用 \ 转义
+     * @param channel 目标频道或频道模式
+     * @throws IllegalArgumentException 频道带通配符, 但传输层不支持按模式订阅 (例如 Redis Cluster 分片发布订阅)
      */
     public void subscribeChannel(String channel) {
-        if (subscribedChannels.add(channel)) {
-            pubSubConnection.async().subscribe(channel);
+        checkChannel(channel);
+        if (!subscribedChannels.add(channel)) return;
+        if (GlobTrie.isPattern(channel)) {
+            synchronized (subscribedPatterns) {
+                subscribedPatterns.add(channel, channel);
+            }
+        }
+        if (connectionSupervisor.isStarted()) transportSubscribe(channel);
+    }
+
+    // 带通配符的频道需要传输层支持按模式订阅
+    private void checkChannel(String channel) {
+        if (GlobTrie.isPattern(channel) && !transport.supportsPatterns()) {
+            throw new IllegalArgumentException(transport.getClass().getSimpleName() + " 不支持按模式订阅频道: " + channel);
         }
     }
 
+    private void checkStreamChannel(String channel) {
+        if (GlobTrie.isPattern(channel)) throw new IllegalArgumentException("Streams 频道不支持通配符: " + channel);
+    }
+
+    private void transportSubscribe(String channel) {
+        if (GlobTrie.isPattern(channel)) transport.subscribePattern(channel);
+        else transport.subscribe(channel);
+    }
+
     /**
      * 取消订阅消息频道
-     * @param channel 目标频道
+     * @param channel 目标频道或频道模式
      */
     public void unsubscribeChannel(String channel) {
-        if (subscribedChannels.remove(channel)) {
-            pubSubConnection.async().unsubscribe(channel);
+        if (!subscribedChannels.remove(channel)) return;
+        boolean pattern = GlobTrie.isPattern(channel);
+        if (pattern) {
+            synchronized (subscribedPatterns) {
+                subscribedPatterns.remove(channel, channel);
+            }
+        }
+        if (connectionSupervisor.isStarted()) {
+            if (pattern) transport.unsubscribePattern(channel);
+            else transport.unsubscribe(channel);
+        }
+    }
+
+    /**
+     * 通过 Redis Streams 消费频道, 重启或断线期间发布到该频道的消息会在恢复后继续投递.
+     * 发送方需要通过 {@link RedisOptions.Builder#streamChannels(String...)} 把该频道配置为 Streams 频道.
+     * 连接尚未建立时先登记, 连接建立后开始消费; 使用非 Redis 传输层 (内存传输层或 Redis Cluster) 时退回普通订阅.
+     * @param channel 目标频道
+     */
+    public void subscribeStream(String channel) {
+        checkStreamChannel(channel);
+        if (!streamChannels.add(channel)) return;
+        if (lettuceTransport() == null) {
+            subscribeChannel(channel);
+            return;
+        }
+        StreamDelivery delivery = streamDelivery();
+        if (delivery == null) return; // 尚未连接, 由 resubscribeAll 在连接建立后开始消费
+        try {
+            delivery.consume(channel);
+        } catch (RuntimeException e) {
+            streamChannels.remove(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * 停止通过 Redis Streams 消费频道, 本服务器的消费组会保留, 再次消费时从上次的位置继续
+     * @param channel 目标频道
+     */
+    public void unsubscribeStream(String channel) {
+        if (!streamChannels.remove(channel)) return;
+        StreamDelivery delivery = streamDelivery;
+        if (delivery != null) {
+            delivery.stopConsuming(channel);
+        } else if (lettuceTransport() == null) {
+            unsubscribeChannel(channel);
         }
     }
 
     /**
-     * 是否已经订阅某个频道
+     * 发布到该频道的消息是否通过 Redis Streams 发送
+     */
+    public boolean isStreamChannel(String channel) {
+        return options.getStreamChannels().contains(channel) || streamChannels.contains(channel);
+    }
+
+    /**
+     * @return Streams 投递, 尚未使用或者使用非 Redis 传输层时为空
+     */
+    public @Nullable StreamDelivery getStreamDelivery() {
+        return streamDelivery;
+    }
+
+    // 第一次使用时创建 Streams 投递, 它需要额外的两条连接; 传输层成功启动之前返回空, 避免用上启动失败后会被关闭的客户端
+    private @Nullable StreamDelivery streamDelivery() {
+        StreamDelivery delivery = streamDelivery;
+        if (delivery != null) return delivery;
+        synchronized (this) {
+            if (streamDelivery == null) {
+                LettuceTransport lettuce = lettuceTransport();
+                if (lettuce == null || !connectionSupervisor.isStarted() || lettuce.getRedisClient() == null) return null;
+                streamDelivery = new StreamDelivery(lettuce.getRedisClient(), this);
+            }
+            return streamDelivery;
+        }
+    }
+
+    /**
+     * 是否会收到某个频道的消息: 订阅了该频道本身, 或者订阅了匹配它的频道模式
      */
     public boolean isSubscribed(String channel) {
-        return subscribedChannels.contains(channel);
+        return subscribedChannels.contains(channel) || subscribedPatterns.matchesAny(channel);
     }
 
     /**
-     * 发布 RedisPacket 数据包
+     * 获取服务器的收件箱频道
+     * @param serverId 服务器唯一ID
+     * @return 收件箱频道名
+     */
+    public String inboxChannelOf(String serverId) {
+        return options.getInboxChannelPrefix() + serverId;
+    }
+
+    /**
+     * 发布 RedisPacket 数据包, 开启收件箱投递时, 定向消息和回复消息会直接发到接收方的收件箱频道
      * @param channel 目标频道
      * @param packet 数据包
      * @param timeoutMs 超时时间, 如果在超时时间内收到回复则执行数据包内的回调, 否则执行数据包内的超时回调;
+     * @throws CallbackOverflowException 等待回复的数据包已达上限, 并且溢出策略为快速失败
      */
     public void publish(@NotNull String channel, @NotNull RedisPacket packet, long timeoutMs) {
+        Consumer<String> callback = packet.getCallback();
+        Consumer<RedisPacket> onTimeout = packet.getOnTimeout();
+        if ((callback != null || onTimeout != null) && requestCoalescer.isActive(packet.getSubject())) {
+            // 带回调的数据包与请求一样合并, 回复或失败时执行数据包内的回调
+            request(channel, packet, timeoutMs).whenComplete((response, error) -> {
+                if (error == null) {
+                    if (callback != null) callback.accept(response.getPayload());
+                } else if (onTimeout != null) {
+                    onTimeout.accept(packet);
+                }
+            });
+            return;
+        }
         packet.setChannel(channel); // 确保消息包含频道信息
-        callbackManager.registerCallbackTask(packet, timeoutMs); // 注册数据包内的回调
-        String message = packet.toJson(); // 序列化消息
-        pubSubConnection.async().publish(channel, message); // 发布消息
+        if (!callbackManager.registerCallbackTask(packet, timeoutMs)) return; // 注册数据包内的回调, 被拒绝时不再发送
+        send(channel, packet);
     }
 
     public void publish(String channel, RedisPacket packet) {
         publish(channel, packet, RedisManager.DEFAULT_CALLBACK_TIMEOUT_MS);
     }
 
-
     /**
-     * 将类内的带有 @RedisSubject 的方法进行注册
-     * @param listener 监听器
-     * @param method 方法对象
+     * 发布数据包并等待第一条回复, 数据包内的回调和超时回调不会被执行.
+     * 开启请求合并或回复缓存时, 相同的请求可能共用其他请求的回复, 见 {@link RequestCoalescer}.
+     * @param channel 目标频道
+     * @param packet 数据包
+     * @param timeoutMs 等待回复的最长时间
+     * @return 收到的回复数据包; 超时后以 {@link TimeoutException} 异常结束, 等待回复的数据包已达上限时以 {@link CallbackOverflowException} 异常结束
      */
-    private void registerMethod(RedisListener listener, Method method) {
-        RedisSubject annotation = method.getAnnotation(RedisSubject.class);
-        if (!method.getParameterTypes()[0].equals(RedisPacket.class)) {
-            throw new IllegalArgumentException("RedisListener 方法的第一个参数必须是 RedisPacket !");
+    public CompletableFuture<RedisPacket> request(@NotNull String channel, @NotNull RedisPacket packet, long timeoutMs) {
+        if (requestCoalescer.isActive(packet.getSubject())) {
+            return requestCoalescer.request(channel, packet, p -> sendSingleRequest(channel, p, timeoutMs));
         }
+        return sendSingleRequest(channel, packet, timeoutMs);
+    }
 
-        RedisManager redisManager = RedisManager.getInstance();
+    // 发送请求并等待第一条回复
+    private CompletableFuture<RedisPacket> sendSingleRequest(String channel, RedisPacket packet, long timeoutMs) {
+        CompletableFuture<RedisPacket> future = new CompletableFuture<>();
+        Runnable onExpire = () -> future.completeExceptionally(new TimeoutException("等待数据包 " + packet.getMessageId() + " 的回复超时 !"));
+        sendRequest(channel, packet, timeoutMs, 1, future::complete, onExpire, future);
+        return future;
+    }
 
-        // 解析方法
-        String subject = annotation.subject();
-        String channel = annotation.channel();
-        int priority = annotation.priority();
-        boolean autoSubscribe = annotation.autoSubscribe();
+    public CompletableFuture<RedisPacket> request(@NotNull String channel, @NotNull RedisPacket packet) {
+        return request(channel, packet, DEFAULT_CALLBACK_TIMEOUT_MS);
+    }
 
-        // lambda方式调用目标方法（处理并发和NPE）
-        Consumer<RedisPacket> handler = packet -> {
-            try {
-                method.setAccessible(true);
-                method.invoke(listener, packet);
-            } catch (Exception e) {
-                System.err.println("Error in Redis message handler: " + e.getMessage());
+    /**
+     * 发布数据包并等待第一条回复, 回复内容按 JSON 反序列化为指定类型
+     * @param channel 目标频道
+     * @param packet 数据包
+     * @param timeoutMs 等待回复的最长时间
+     * @param responseType 回复内容的类型
+     * @return 回复对象, 异常情况同 {@link #request(String, RedisPacket, long)}
+     */
+    public <T> CompletableFuture<T> request(@NotNull String channel, @NotNull RedisPacket packet, long timeoutMs, @NotNull Class<T> responseType) {
+        return request(channel, packet, timeoutMs).thenApply(response -> response.getPayloadAs(responseType));
+    }
+
+    /**
+     * 发布数据包 (通常是广播) 并收集多个服务器的回复, 收齐指定数量或到达截止时间后结束
+     * @param channel 目标频道
+     * @param packet 数据包
+     * @param expectedReplies 需要收集的回复数量, 小于等于 0 表示一直收集到截止时间
+     * @param timeoutMs 截止时间
+     * @return 收到的所有回复, 按到达顺序排列; 到达截止时间时正常结束并返回已收到的部分
+     */
+    public CompletableFuture<List<RedisPacket>> scatterGather(@NotNull String channel, @NotNull RedisPacket packet, int expectedReplies, long timeoutMs) {
+        CompletableFuture<List<RedisPacket>> future = new CompletableFuture<>();
+        int expected = expectedReplies > 0 ? expectedReplies : Integer.MAX_VALUE;
+        List<RedisPacket> replies = new ArrayList<>();
+
+        Consumer<RedisPacket> onResponse = response -> {
+            List<RedisPacket> result = null;
+            synchronized (replies) {
+                if (future.isDone()) return; // 截止之后到达的回复直接丢弃
+                replies.add(response);
+                if (replies.size() >= expected) result = List.copyOf(replies);
+            }
+            if (result != null) future.complete(result);
+        };
+        Runnable onExpire = () -> {
+            List<RedisPacket> result;
+            synchronized (replies) {
+                result = List.copyOf(replies);
             }
+            future.complete(result);
         };
+        sendRequest(channel, packet, timeoutMs, expected, onResponse, onExpire, future);
+        return future;
+    }
 
-        // 创建处理器对象, 然后注册
-        RedisMessageRouter.SubjectHandler subjectHandler = new RedisMessageRouter.SubjectHandler(channel, subject, handler, priority);
-        redisManager.getMessageRouter().registerHandler(subjectHandler);
+    // 注册请求并发送, 注册失败时让 Future 以异常结束
+    private void sendRequest(String channel, RedisPacket packet, long timeoutMs, int expectedResponses,
+                             Consumer<RedisPacket> onResponse, Runnable onExpire, CompletableFuture<?> future) {
+        packet.setChannel(channel);
+        try {
+            if (!callbackManager.registerRequest(packet, timeoutMs, expectedResponses, onResponse, onExpire)) {
+                future.completeExceptionally(new CallbackOverflowException("等待回复的数据包数量已达到上限 !"));
+                return;
+            }
+            send(channel, packet);
+        } catch (Exception e) {
+            callbackManager.completeCallbackTask(packet.getMessageId());
+            future.completeExceptionally(e);
+        }
+    }
 
-        // 自动订阅频道
-        if (autoSubscribe && !redisManager.isSubscribed(channel)) {
-            redisManager.subscribeChannel(channel);
+    // 交给传输层发布数据包
+    private void send(String channel, RedisPacket packet) {
+        packet.bindManager(this);
+        packet.setPublishTimestamp(System.currentTimeMillis()); // 接收方据此统计端到端延迟
+
+        // Streams 频道的消息追加到流中; 回复消息仍然通过收件箱发送, 请求方不需要消费回复所在的频道
+        if (packet.getResponseId() == null && isStreamChannel(channel) && lettuceTransport() != null) {
+            if (connectionSupervisor.offer(channel, packet, true)) return; // 与普通发布共用缓冲区, 保持发布顺序
+            appendToStream(channel, packet);
+            return;
+        }
+        String route = routeChannel(channel, packet);
+        if (connectionSupervisor.offer(route, packet)) return; // 连接中断期间先放入缓冲区
+        transport.publish(route, packet);
+    }
+
+    // 把数据包追加到频道对应的流中, 由发送和缓冲区补发调用
+    void appendToStream(String channel, RedisPacket packet) {
+        StreamDelivery delivery = streamDelivery();
+        if (delivery != null) {
+            delivery.publish(channel, packet);
+        } else {
+            transport.publish(routeChannel(channel, packet), packet); // 没有可用的 Redis 客户端, 退回普通发布
         }
+    }
+
+    /**
+     * 立即发送批量发布器中缓冲的所有数据包, 未开启批量发布时什么也不做
+     */
+    public void flush() {
+        transport.flush();
+    }
+
+    // 计算数据包实际发布的频道
+    private String routeChannel(String channel, RedisPacket packet) {
+        if (!options.isInboxRouting() || ALL_RECEIVERS.equals(packet.getReceiver())) return channel;
+        return inboxChannelOf(packet.getReceiver());
+    }
 
-        registeredListeners.computeIfAbsent(listener, k -> new LinkedHashSet<>()).add(subjectHandler);
+
+    /**
+     * 为类内带有 @RedisSubject 的方法创建处理器
+     * @param listener 监听器
+     * @param method 方法对象
+     */
+    private RedisMessageRouter.SubjectHandler createHandler(RedisListener listener, Method method) {
+        RedisSubject annotation = method.getAnnotation(RedisSubject.class);
+
+        // 注册时生成直接调用目标方法的处理器, 分发消息时不再走反射
+        Consumer<RedisPacket> handler = ListenerInvoker.create(listener, method);
+        FlowLimiter flowLimiter = annotation.senderRate() > 0 || annotation.subjectRate() > 0
+                ? new FlowLimiter(annotation.senderRate(), annotation.subjectRate(), annotation.burst(), annotation.throttleAction(), annotation.maxThrottleDelayMs())
+                : null;
+        return new RedisMessageRouter.SubjectHandler(annotation.channel(), annotation.subject(), handler, annotation.priority(), annotation.dispatchMode(), flowLimiter);
     }
 
 
@@ -184,11 +551,17 @@ public class RedisManager {
      * 关闭数据库链接
      */
     public void shutdown() {
+        synchronized (RedisManager.class) {
+            if (defaultInstance == this) defaultInstance = null;
+        }
+        if (connectionSupervisor != null) connectionSupervisor.close();
         if (callbackManager != null) callbackManager.shutdown();
 
-        if (pubSubConnection != null) pubSubConnection.close();
-        if (connection != null) connection.close();
-        if (redisClient != null) redisClient.shutdown();
+        if (streamDelivery != null) streamDelivery.close();
+        transport.close();
+
+        // 连接关闭后不会再有新消息, 再关闭分发线程池
+        if (messageRouter != null) messageRouter.shutdown();
     }
 
 }
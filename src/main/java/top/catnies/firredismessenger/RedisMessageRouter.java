@@ -1,28 +1,126 @@
 package top.catnies.firredismessenger;
 
+import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import top.catnies.firredismessenger.api.DispatchMode;
+import top.catnies.firredismessenger.api.ThrottleAction;
 
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 
 public class RedisMessageRouter {
+    private static final int LOW_PRIORITY_LANE_CAPACITY = 4096; // 低优先级通道最多排队的任务数量
+    private static final int DELAYED_CAPACITY = 4096; // 最多同时等待的延迟处理数量
 
-    // [频道: [主题: [处理器(自带权重)] ]]
-    private final Map<String, Map<String, CopyOnWriteArraySet<SubjectHandler>>> subjectHandlers = new ConcurrentHashMap<>();
+    // 处理器注册表的当前快照, 注册或注销处理器时整体替换
+    private volatile HandlerRegistry registry = HandlerRegistry.EMPTY;
 
+    // 所属的管理器, 收到的数据包绑定到它上面; 只为旧代码保留不带管理器的构造方法, 此时使用默认管理器
+    @Nullable private final RedisManager manager;
     // 回调管理器
     private final RedisCallback callbackManager;
-    // 接收消息处理的线程池
-    private final ExecutorService dispatchExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    // 数据包编解码器
+    private final PacketCodec codec;
+    // 接收消息处理的执行器
+    private final Executor dispatchExecutor;
+    // 由路由器创建并负责关闭的线程池, 使用自定义执行器时为空
+    private final ExecutorService ownedExecutor;
+    // 有序分发模式使用的串行通道
+    private final SerialLanes orderedLanes;
+    // 有界分发队列, 未配置容量时为空
+    @Getter @Nullable private final DispatchQueue dispatchQueue;
+    // 运行指标
+    private final MessengerMetrics metrics;
+    // 超出速率限制的处理器转入的低优先级通道, 第一次使用时创建
+    @Nullable private volatile ThreadPoolExecutor lowPriorityLane;
+    // 低优先级通道的线程数
+    private final int lowPriorityThreads;
+    // 延迟处理的调度器, 只负责到期后重新分发, 不执行处理器; 第一次使用时创建
+    @Nullable private volatile ScheduledThreadPoolExecutor delayScheduler;
+    // 正在等待的延迟处理数量
+    private final AtomicInteger delayedPending = new AtomicInteger();
+
+    /* 流量控制统计 */
+    @Getter private final LongAdder throttleDropped = new LongAdder(); // 超出速率限制被丢弃的处理次数
+    @Getter private final LongAdder throttleDelayed = new LongAdder(); // 超出速率限制被延迟的处理次数
+    @Getter private final LongAdder throttleDiverted = new LongAdder(); // 超出速率限制转入低优先级通道的处理次数
 
 
     public RedisMessageRouter(RedisCallback callbackManager) {
+        this(callbackManager, RedisOptions.defaults());
+    }
+
+    public RedisMessageRouter(RedisCallback callbackManager, RedisOptions options) {
+        this(callbackManager, options, MessengerMetrics.NOOP);
+    }
+
+    public RedisMessageRouter(RedisCallback callbackManager, RedisOptions options, MessengerMetrics metrics) {
+        this(null, callbackManager, options, metrics);
+    }
+
+    public RedisMessageRouter(@Nullable RedisManager manager, RedisCallback callbackManager, RedisOptions options, MessengerMetrics metrics) {
+        this.manager = manager;
         this.callbackManager = callbackManager;
+        this.metrics = metrics;
+        this.codec = options.getCodec();
+
+        // 创建分发执行器
+        if (options.getDispatchExecutor() != null) {
+            this.ownedExecutor = null;
+            this.dispatchExecutor = limit(options.getDispatchExecutor(), options.getMaxDispatchConcurrency());
+        } else {
+            this.ownedExecutor = options.isVirtualThreadDispatch()
+                    ? newVirtualThreadExecutor()
+                    : Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+            this.dispatchExecutor = limit(ownedExecutor, options.getMaxDispatchConcurrency());
+        }
+        this.orderedLanes = new SerialLanes(options.getOrderedLanes(), dispatchExecutor);
+        // 低优先级通道按分发并发上限的四分之一配置线程, 不限制并发时按处理器核数
+        int concurrency = options.getMaxDispatchConcurrency() > 0 ? options.getMaxDispatchConcurrency() : Runtime.getRuntime().availableProcessors();
+        this.lowPriorityThreads = Math.max(1, concurrency / 4);
+        // 队列满了之后通过传输层暂停读取, 不阻塞 IO 线程; 不带管理器的旧构造方法没有传输层, 不暂停
+        this.dispatchQueue = options.getDispatchQueueCapacity() > 0
+                ? new DispatchQueue(options.getDispatchQueueCapacity(), options.getDispatchMaxInFlight(), options.getDispatchOverflowPolicy(),
+                        options.getDispatchPauseMs(), manager == null ? null : paused -> manager.getTransport().setReadPaused(paused),
+                        callbackManager.getTimeoutWheel())
+                : null;
+    }
+
+    // 按需包装并发上限
+    private static Executor limit(Executor executor, int maxConcurrency) {
+        return maxConcurrency > 0 ? new LimitedExecutor(executor, maxConcurrency) : executor;
+    }
+
+    // 创建每个任务一个虚拟线程的执行器, Java 21 以下退回到按需创建的平台线程
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads are not available on this JVM, falling back to a cached thread pool.");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * 关闭路由器创建的线程池, 自定义执行器不会被关闭
+     */
+    public void shutdown() {
+        ThreadPoolExecutor lane = lowPriorityLane;
+        if (lane != null) lane.shutdownNow();
+        ScheduledThreadPoolExecutor scheduler = delayScheduler;
+        if (scheduler != null) scheduler.shutdownNow();
+        if (ownedExecutor == null) return;
+        ownedExecutor.shutdown();
+        try {
+            if (!ownedExecutor.awaitTermination(5, TimeUnit.SECONDS))
+                ownedExecutor.shutdownNow();
+        } catch (InterruptedException e) { ownedExecutor.shutdownNow(); }
     }
 
     /**
@@ -31,53 +129,131 @@ public class RedisMessageRouter {
      * @param subject 处理的主题
      * @param handler 处理器回调逻辑
      * @param priority 权重, 越大的越先处理
+     * @param dispatchMode 分发方式
+     * @param flowLimiter 接收端的速率限制, 为空时不限制
      */
     public record SubjectHandler(
             String channel,
             String subject,
             Consumer<RedisPacket> handler,
-            int priority
-    ) { }
+            int priority,
+            DispatchMode dispatchMode,
+            @Nullable FlowLimiter flowLimiter
+    ) {
+        public SubjectHandler(String channel, String subject, Consumer<RedisPacket> handler, int priority) {
+            this(channel, subject, handler, priority, DispatchMode.PARALLEL);
+        }
+
+        public SubjectHandler(String channel, String subject, Consumer<RedisPacket> handler, int priority, DispatchMode dispatchMode) {
+            this(channel, subject, handler, priority, dispatchMode, null);
+        }
+    }
 
     /**
      * 注册频道消息处理器
      * @param handler 处理器对象
      */
-    public synchronized void registerHandler(SubjectHandler handler) {
-        Map<String, CopyOnWriteArraySet<SubjectHandler>> subjectMap = subjectHandlers.getOrDefault(handler.channel, new HashMap<>());
-
-        // 添加新处理器时, 根据处理器权重重排序
-        CopyOnWriteArraySet<SubjectHandler> handlers = subjectMap.getOrDefault(handler.subject, new CopyOnWriteArraySet<>());
-        handlers.add(handler);
-        subjectMap.put(
-                handler.subject,
-                handlers.stream().sorted(Comparator.comparingInt(SubjectHandler::priority).reversed()).collect(CopyOnWriteArraySet::new, CopyOnWriteArraySet::add, CopyOnWriteArraySet::addAll)
-        );
+    public void registerHandler(SubjectHandler handler) {
+        registerHandlers(List.of(handler));
+    }
 
-        // 放回处理器
-        subjectHandlers.put(handler.channel, subjectMap);
+    /**
+     * 批量注册频道消息处理器, 只构建一次新的注册表快照
+     * @param handlers 处理器对象
+     */
+    public synchronized void registerHandlers(Collection<SubjectHandler> handlers) {
+        if (handlers.isEmpty()) return;
+        registry = registry.with(handlers, List.of());
     }
 
     /**
      * 取消注册频道消息处理器
      * @param handler 处理器对象
      */
-    public synchronized void unregisterHandler(SubjectHandler handler) {
-        Map<String, CopyOnWriteArraySet<SubjectHandler>> subjectMap = subjectHandlers.get(handler.channel);
-        if (subjectMap == null) return;
-        CopyOnWriteArraySet<SubjectHandler> handlers = subjectMap.get(handler.subject);
-        if (handlers == null) return;
-        handlers.removeIf(h -> h.handler.equals(handler));
+    public void unregisterHandler(SubjectHandler handler) {
+        unregisterHandlers(List.of(handler));
+    }
+
+    /**
+     * 批量取消注册频道消息处理器, 只构建一次新的注册表快照
+     * @param handlers 处理器对象
+     */
+    public synchronized void unregisterHandlers(Collection<SubjectHandler> handlers) {
+        if (handlers.isEmpty()) return;
+        registry = registry.with(List.of(), handlers);
     }
 
     // 处理消息主入口, 根据消息的频道分发消息到相应的处理器
-    public void handleMessage(@NotNull String channel, @NotNull String message) {
-        RedisPacket packet = RedisPacket.fromJson(message);
-        String currentServerId = RedisManager.getInstance().getServerId();
+    public void handleMessage(@NotNull String channel, byte @NotNull [] message) {
+        handleMessage(channel, message, null);
+    }
+
+    /**
+     * 处理消息, 并在消息中所有数据包的所有处理器都执行完后调用 onComplete, 用于 Streams 在处理完成后再确认.
+     * 无法解码、不属于本服务器、没有处理器或被速率限制丢弃的消息视为已经处理完; 被分发队列的溢出策略丢弃的消息不会调用 onComplete.
+     * @param channel 收到消息的频道
+     * @param message 消息
+     * @param onComplete 处理完成的回调, 最多调用一次, 可能在任意线程上调用
+     */
+    public void handleMessage(@NotNull String channel, byte @NotNull [] message, @Nullable Runnable onComplete) {
+        Completion completion = onComplete == null ? null : new Completion(onComplete);
+        // 打包的消息先拆包, 再逐个处理
+        if (PacketEnvelope.isEnvelope(message)) {
+            List<ByteBuffer> frames;
+            try {
+                frames = PacketEnvelope.unpack(message);
+            } catch (Exception e) {
+                System.err.println("Error in decoding Redis message: " + e.getMessage());
+                frames = List.of();
+            }
+            for (ByteBuffer frame : frames) handleFrame(channel, message, frame.arrayOffset(), frame.remaining(), completion);
+        } else {
+            handleFrame(channel, message, 0, message.length, completion);
+        }
+        if (completion != null) completion.join();
+    }
+
+    // 处理消息中 [offset, offset + length) 的单个数据包
+    private void handleFrame(@NotNull String channel, byte @NotNull [] message, int offset, int length, @Nullable Completion completion) {
+        // 只解码信封, 消息内容等到处理器真正读取时才解码, 不属于本服务器的消息不会解码消息内容
+        RedisPacket packet;
+        metrics.onReceive(channel, length);
+        long decodeStart = System.nanoTime();
+        try {
+            packet = codec.decodeLazy(message, offset, length);
+        } catch (Exception e) {
+            System.err.println("Error in decoding Redis message: " + e.getMessage());
+            return;
+        }
+        metrics.onDecode(System.nanoTime() - decodeStart);
+        route(channel, packet, false, completion);
+    }
+
+    /**
+     * 处理不需要解码的数据包, 由同一个 JVM 内的传输层直接传入.
+     * 同一个数据包对象会交给多个接收方, 不会被修改; 接收方处理的是共用消息内容的浅拷贝.
+     * @param channel 收到消息的频道
+     * @param packet 数据包
+     */
+    public void handlePacket(@NotNull String channel, @NotNull RedisPacket packet) {
+        metrics.onReceive(channel, 0);
+        route(channel, packet, true, null);
+    }
+
+    // 按接收方过滤后, 处理回复或分发到处理器; shared 表示数据包对象与其他接收方共用, 需要先复制
+    private void route(@NotNull String channel, @NotNull RedisPacket packet, boolean shared, @Nullable Completion completion) {
+        RedisManager redisManager = owner();
+        String currentServerId = redisManager.getServerId();
         String receiver = packet.getReceiver();
 
         // 忽略非当前服务器的消息
         if (!RedisManager.ALL_RECEIVERS.equals(receiver) && !currentServerId.equals(receiver)) return;
+        if (shared) packet = packet.copyForDelivery();
+        packet.bindManager(redisManager);
+
+        // 端到端延迟, 旧版本客户端没有发布时间时使用创建时间
+        Long publishTimestamp = packet.getPublishTimestamp();
+        metrics.onEndToEndLatency(System.currentTimeMillis() - (publishTimestamp != null ? publishTimestamp : packet.getCreateTimestamp()));
 
         // 如果是响应消息, 先处理可能存在的回调
         if (packet.getResponseId() != null) {
@@ -85,65 +261,310 @@ public class RedisMessageRouter {
             return; // 响应消息不需要继续常规处理
         }
 
+        // 从收件箱收到的定向消息, 按数据包内记录的原始频道分发, 并且和直接发到频道时一样, 只处理已订阅频道的消息
+        if (channel.equals(redisManager.getInboxChannel()) && packet.getChannel() != null) {
+            channel = packet.getChannel();
+            if (!redisManager.isSubscribed(channel)) return;
+        }
+
         // 如果是普通消息, 只处理发给所有人或者特定发给当前服务器的消息
-        dispatchToSubjectHandlers(channel, packet);
+        dispatchToSubjectHandlers(channel, packet, completion);
     }
 
-    // 获取处理器
-    public CopyOnWriteArraySet<SubjectHandler> getSubjectHandlers(String channel, String subject) {
-        Map<String, CopyOnWriteArraySet<SubjectHandler>> subjectMap = subjectHandlers.get(channel);
-        if (subjectMap == null) {
-            subjectMap = new HashMap<>();
-            subjectMap.put(subject, new CopyOnWriteArraySet<>());
-            subjectHandlers.putIfAbsent(channel, subjectMap);
-        }
-        return subjectMap.get(subject);
+    @SuppressWarnings("deprecation")
+    private RedisManager owner() {
+        if (manager != null) return manager;
+        RedisManager fallback = RedisManager.getInstance();
+        if (fallback == null) throw new IllegalStateException("路由器没有绑定管理器, 也没有正在运行的 RedisManager !");
+        return fallback;
+    }
+
+    /**
+     * 获取精确注册在频道和主题上的处理器, 不包括通配符处理器
+     * @return 按权重从高到低排序的处理器, 只读
+     */
+    public List<SubjectHandler> getSubjectHandlers(String channel, String subject) {
+        return List.of(registry.exact(channel, subject));
     }
 
     // 处理响应消息的回调
     private void handleResponse(RedisPacket responsePacket) {
-        // 获取回调数据
+        // 取出回调数据, 同时通过时间轮取消超时任务; 谁先把它从待处理集合中移除, 谁就负责执行
         UUID originalMessageId = responsePacket.getResponseId();
-        RedisCallback.CallbackEntry entry = callbackManager.getPendingCallbacks().remove(originalMessageId);
-        assert entry != null;
-        Consumer<String> callback = entry.getPacket().getCallback();
-        // 如果有超时回调
-        if (entry.getTimeOutFuture() != null && !entry.getTimeOutFuture().isDone()) {
-            boolean cancel = entry.getTimeOutFuture().cancel(false);
-            // 如果超时回调取消成功, 并且有原始回调, 就执行原始回调;
-            if (cancel && callback != null) {
+        RedisCallback.CallbackEntry entry = callbackManager.acceptResponse(originalMessageId);
+        if (entry == null) return; // 已经超时, 已经收齐, 或者不是本服务器发出的请求
+
+        // 如果有回复处理, 就执行回复处理 (数据包内的原始回调, 或者请求的 Future)
+        Consumer<RedisPacket> onResponse = entry.getOnResponse();
+        if (onResponse != null) {
+            dispatchExecutor.execute(() -> {
+                onResponse.accept(responsePacket);
+            });
+        }
+    }
+
+    // 将消息分发到主题处理器
+    private void dispatchToSubjectHandlers(@NotNull String channel, @NotNull RedisPacket packet, @Nullable Completion completion) {
+        // 根据频道和主题, 寻找对应的处理器, 已按权重从高到低排序
+        SubjectHandler[] handlers = resolveHandlers(channel, packet.getSubject());
+        if (handlers.length == 0) return;
+
+        // 流量控制: 超出速率限制的处理器按各自的方式丢弃、延迟或转入低优先级通道, 其余处理器照常分发
+        handlers = throttle(channel, packet, handlers, completion);
+        if (handlers.length == 0) return;
+
+        // 没有配置有界队列时直接分发, 否则先进入分发队列排队
+        Runnable done = completion == null ? null : completion.fork();
+        if (dispatchQueue == null) {
+            fanOut(channel, packet, handlers, done);
+        } else {
+            dispatchQueue.offer(new PacketJob(channel, packet, handlers, done));
+        }
+    }
+
+    // 返回没有超出速率限制的处理器, 都没有限制时返回原数组
+    private SubjectHandler[] throttle(String channel, RedisPacket packet, SubjectHandler[] handlers, @Nullable Completion completion) {
+        List<SubjectHandler> passed = null;
+        long now = 0;
+        for (int i = 0; i < handlers.length; i++) {
+            SubjectHandler handler = handlers[i];
+            FlowLimiter limiter = handler.flowLimiter;
+            long delay = 0;
+            if (limiter != null) {
+                if (now == 0) now = System.nanoTime();
+                delay = limiter.acquire(packet, now);
+            }
+            if (delay == 0) {
+                if (passed != null) passed.add(handler);
+                continue;
+            }
+            if (passed == null) passed = new ArrayList<>(Arrays.asList(handlers).subList(0, i));
+            onThrottled(channel, packet, handler, delay, completion);
+        }
+        return passed == null ? handlers : passed.toArray(new SubjectHandler[0]);
+    }
+
+    // 处理超出速率限制的处理器
+    private void onThrottled(String channel, RedisPacket packet, SubjectHandler handler, long delay, @Nullable Completion completion) {
+        ThrottleAction action = handler.flowLimiter.getAction();
+        if (action == ThrottleAction.DROP || (action == ThrottleAction.DELAY && delay < 0)) {
+            throttleDropped.increment();
+            return;
+        }
+        Runnable done = completion == null ? null : completion.fork();
+        if (action == ThrottleAction.DELAY) {
+            if (delayedPending.incrementAndGet() > DELAYED_CAPACITY) {
+                delayedPending.decrementAndGet();
+                throttleDropped.increment(); // 等待中的延迟处理过多
+                if (done != null) done.run();
+                return;
+            }
+            throttleDelayed.increment();
+            SubjectHandler[] delayed = {handler};
+            try {
+                delayScheduler().schedule(() -> {
+                    delayedPending.decrementAndGet();
+                    dispatchDelayed(channel, packet, delayed, done);
+                }, delay, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                delayedPending.decrementAndGet();
+                throttleDropped.increment(); // 正在关闭
+                if (done != null) done.run();
+            }
+            return;
+        }
+        throttleDiverted.increment();
+        try {
+            lowPriorityLane().execute(() -> {
+                invokeHandler(handler, packet);
+                if (done != null) done.run();
+            });
+        } catch (RejectedExecutionException e) {
+            throttleDropped.increment(); // 低优先级通道已满
+            if (done != null) done.run();
+        }
+    }
+
+    // 延迟到期后重新分发: 配置了分发队列时以最低优先级进入队列, 受队列容量和溢出策略约束, 队列满了之后最先被淘汰
+    private void dispatchDelayed(String channel, RedisPacket packet, SubjectHandler[] handlers, @Nullable Runnable done) {
+        if (dispatchQueue == null) {
+            fanOut(channel, packet, handlers, done);
+        } else {
+            dispatchQueue.offer(new PacketJob(channel, packet, handlers, done, Integer.MIN_VALUE));
+        }
+    }
+
+    private ScheduledThreadPoolExecutor delayScheduler() {
+        ScheduledThreadPoolExecutor scheduler = delayScheduler;
+        if (scheduler != null) return scheduler;
+        synchronized (this) {
+            if (delayScheduler == null) {
+                delayScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                    Thread thread = new Thread(r, "FirRedisMessenger-ThrottleDelay");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return delayScheduler;
+        }
+    }
+
+    private ThreadPoolExecutor lowPriorityLane() {
+        ThreadPoolExecutor lane = lowPriorityLane;
+        if (lane != null) return lane;
+        synchronized (this) {
+            if (lowPriorityLane == null) {
+                lowPriorityLane = new ThreadPoolExecutor(lowPriorityThreads, lowPriorityThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(LOW_PRIORITY_LANE_CAPACITY), r -> {
+                    Thread thread = new Thread(r, "FirRedisMessenger-LowPriority");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+            }
+            return lowPriorityLane;
+        }
+    }
+
+    /**
+     * 汇总所有处理器的速率限制统计
+     * @return "sender:发送者" 或 "subject:主题" -> 被限制的消息数量
+     */
+    public Map<String, Long> getThrottleCounters() {
+        Map<String, Long> counters = new TreeMap<>();
+        for (SubjectHandler handler : registry.handlers()) {
+            if (handler.flowLimiter == null) continue;
+            handler.flowLimiter.getThrottledBySender().forEach((sender, count) -> counters.merge("sender:" + sender, count, Long::sum));
+            handler.flowLimiter.getThrottledBySubject().forEach((subject, count) -> counters.merge("subject:" + subject, count, Long::sum));
+        }
+        return counters;
+    }
+
+    /**
+     * 获取具体的频道和主题对应的所有处理器, 包括通配符匹配到的处理器
+     * @param channel 频道名
+     * @param subject 主题
+     * @return 按权重从高到低排序的处理器, 调用方不能修改
+     */
+    public SubjectHandler[] resolveHandlers(@NotNull String channel, @NotNull String subject) {
+        return registry.resolve(channel, subject);
+    }
+
+    // 把数据包交给各个处理器, 所有处理器执行完后调用 onComplete
+    private void fanOut(String channel, RedisPacket packet, SubjectHandler[] handlers, @Nullable Runnable onComplete) {
+        List<SubjectHandler> bySubject = null;
+        List<SubjectHandler> bySender = null;
+        int parallel = 0;
+        for (SubjectHandler subjectHandler : handlers) {
+            switch (subjectHandler.dispatchMode) {
+                case PARALLEL -> parallel++;
+                case ORDERED_BY_SUBJECT -> {
+                    if (bySubject == null) bySubject = new ArrayList<>(handlers.length);
+                    bySubject.add(subjectHandler);
+                }
+                case ORDERED_BY_SENDER -> {
+                    if (bySender == null) bySender = new ArrayList<>(handlers.length);
+                    bySender.add(subjectHandler);
+                }
+            }
+        }
+        int tasks = parallel + (bySubject != null ? 1 : 0) + (bySender != null ? 1 : 0);
+        AtomicInteger remaining = onComplete == null ? null : new AtomicInteger(tasks);
+
+        // 并行处理器各自作为独立任务执行
+        if (parallel > 0) {
+            for (SubjectHandler subjectHandler : handlers) {
+                if (subjectHandler.dispatchMode != DispatchMode.PARALLEL) continue;
                 dispatchExecutor.execute(() -> {
-                    callback.accept(responsePacket.getPayload()); // 调用原始回调
+                    invokeHandler(subjectHandler, packet);
+                    countDown(remaining, onComplete);
                 });
             }
         }
-        // 如果没有超时回调
-        else if (callback != null) {
-            dispatchExecutor.execute(() -> {
-                callback.accept(responsePacket.getPayload()); // 调用原始回调
+
+        // 有序处理器在同一个任务中按权重依次执行, 同一个键的任务在串行通道中按到达顺序执行
+        if (bySubject != null) {
+            List<SubjectHandler> ordered = bySubject;
+            orderedLanes.execute(31 * channel.hashCode() + packet.getSubject().hashCode(), () -> {
+                ordered.forEach(h -> invokeHandler(h, packet));
+                countDown(remaining, onComplete);
+            });
+        }
+        if (bySender != null) {
+            List<SubjectHandler> ordered = bySender;
+            orderedLanes.execute(31 * channel.hashCode() + packet.getSender().hashCode(), () -> {
+                ordered.forEach(h -> invokeHandler(h, packet));
+                countDown(remaining, onComplete);
             });
         }
     }
 
-    // 将消息分发到主题处理器
-    private void dispatchToSubjectHandlers(@NotNull String channel, @NotNull RedisPacket packet) {
-        // 根据频道和主题, 寻找对应的 Handler Set;
-        String subject = packet.getSubject();
-        Map<String, CopyOnWriteArraySet<SubjectHandler>> subjectHandlerMap = subjectHandlers.get(channel);
-        if (subjectHandlerMap == null || subjectHandlerMap.isEmpty()) return;
-        CopyOnWriteArraySet<SubjectHandler> handlers = subjectHandlerMap.get(subject);
-        if (handlers == null || handlers.isEmpty()) return;
-
-        // 执行 Handler
-        handlers.forEach(subjectHandler -> {
-            dispatchExecutor.execute(() -> {
-                try {
-                    subjectHandler.handler.accept(packet);
-                } catch (Exception e) {
-                    // 简单记录异常，避免处理器异常影响其他处理器
-                    System.err.println("Error in Redis message handler: " + e.getMessage());
-                }
+    private static void countDown(@Nullable AtomicInteger remaining, @Nullable Runnable onComplete) {
+        if (remaining != null && remaining.decrementAndGet() == 0) onComplete.run();
+    }
+
+    // 执行单个处理器
+    private void invokeHandler(SubjectHandler subjectHandler, RedisPacket packet) {
+        long start = System.nanoTime();
+        try {
+            subjectHandler.handler.accept(packet);
+        } catch (Exception e) {
+            // 简单记录异常，避免处理器异常影响其他处理器
+            System.err.println("Error in Redis message handler: " + e);
+        }
+        metrics.onHandle(subjectHandler.subject, System.nanoTime() - start);
+    }
+
+    // 分发队列中的一个数据包, 优先级取处理器的最高权重; done 是消息的处理完成回调, 被溢出策略丢弃时不会调用
+    private final class PacketJob extends DispatchQueue.Job {
+        private final String channel;
+        private final RedisPacket packet;
+        private final SubjectHandler[] handlers;
+        @Nullable private final Runnable done;
+
+        PacketJob(String channel, RedisPacket packet, SubjectHandler[] handlers, @Nullable Runnable done) {
+            this(channel, packet, handlers, done, handlers[0].priority);
+        }
+
+        PacketJob(String channel, RedisPacket packet, SubjectHandler[] handlers, @Nullable Runnable done, int priority) {
+            super(priority);
+            this.channel = channel;
+            this.packet = packet;
+            this.handlers = handlers;
+            this.done = done;
+        }
+
+        @Override
+        protected void start(Runnable onComplete) {
+            fanOut(channel, packet, handlers, done == null ? onComplete : () -> {
+                onComplete.run();
+                done.run();
             });
-        });
+        }
+
+        @Override
+        protected void runInline() {
+            for (SubjectHandler handler : handlers) invokeHandler(handler, packet);
+            if (done != null) done.run();
+        }
+    }
+
+    // 一条消息的处理进度: 每个异步执行的部分先登记再完成, 全部完成后调用一次回调
+    private static final class Completion {
+        private final AtomicInteger pending = new AtomicInteger(1); // 分发本身也算一个, 分发结束时完成
+        private final Runnable onComplete;
+
+        Completion(Runnable onComplete) {
+            this.onComplete = onComplete;
+        }
+
+        // 登记一个异步执行的部分, 返回它完成时调用的回调
+        Runnable fork() {
+            pending.incrementAndGet();
+            return this::join;
+        }
+
+        void join() {
+            if (pending.decrementAndGet() == 0) onComplete.run();
+        }
     }
 }
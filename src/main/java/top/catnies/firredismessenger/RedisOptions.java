@@ -0,0 +1,452 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * RedisManager 的可选配置, 不传入时使用默认值.
+ */
+@Getter
+public class RedisOptions {
+
+    private final long timeoutTickMs; // 超时时间轮每一格的精度(毫秒)
+    private final int timeoutWheelSize; // 超时时间轮的格数
+    private final int callbackCapacity; // 最多同时等待回复的数据包数量
+    private final int callbackStripes; // 回调关联表的分段数量
+    private final CallbackTable.OverflowPolicy callbackOverflowPolicy; // 回调关联表满了之后的处理策略
+    private final PacketCodec codec; // 数据包编解码器
+    private final boolean inboxRouting; // 是否通过接收方的收件箱频道投递定向消息
+    private final String inboxChannelPrefix; // 收件箱频道名前缀
+    private final int orderedLanes; // 有序分发模式的串行通道数量
+    @Nullable private final Executor dispatchExecutor; // 自定义的消息分发执行器
+    private final boolean virtualThreadDispatch; // 是否为每条消息创建一个虚拟线程
+    private final int maxDispatchConcurrency; // 同时执行的处理器数量上限, 0 表示不限制
+    private final int dispatchQueueCapacity; // 分发队列容量, 0 表示不限制
+    private final int dispatchMaxInFlight; // 同时处理中的数据包数量上限
+    private final DispatchQueue.OverflowPolicy dispatchOverflowPolicy; // 分发队列满了之后的处理策略
+    private final long dispatchPauseMs; // 分发队列满了之后暂停读取的最长时间
+    private final int publishBatchSize; // 批量发布的批次大小, 0 表示不批量发布
+    private final long publishLingerMs; // 批量发布时第一条消息最多等待的毫秒数
+    private final boolean publishEnvelope; // 是否把同一频道的多个数据包打包成一条消息
+    private final int publishConnections; // 发布连接池的连接数量, 0 表示使用订阅连接发布
+    private final PublishConnectionPool.Affinity publishAffinity; // 选择发布连接的方式
+    private final int subscriberConnections; // 订阅连接数量, 频道按哈希分散到各条连接上
+    private final int outboundBufferSize; // 连接中断期间缓冲的发布数量, 0 表示不缓冲
+    private final long reconnectMinDelayMs; // 重连的最短等待时间
+    private final long reconnectMaxDelayMs; // 重连的最长等待时间
+    private final boolean coalesceRequests; // 是否合并相同的进行中请求
+    private final Map<String, RequestCoalescer.CachePolicy> responseCaches; // 主题 -> 回复缓存的配置
+    @Nullable private final MessengerMetrics metrics; // 自定义的运行指标实现
+    private final Set<String> streamChannels; // 通过 Redis Streams 发送的频道
+    private final String streamKeyPrefix; // 流的键名前缀
+    private final long streamMaxLength; // 每个流保留的大约消息数量
+    private final int streamReadBatchSize; // 每次从每个流读取的最大消息数量
+    private final long streamBlockMs; // 没有新消息时阻塞读取的最长时间
+    private final long streamClaimIdleMs; // 未确认消息空闲多久后被重新认领, 0 表示不认领
+
+    private RedisOptions(Builder builder) {
+        this.timeoutTickMs = builder.timeoutTickMs;
+        this.timeoutWheelSize = builder.timeoutWheelSize;
+        this.callbackCapacity = builder.callbackCapacity;
+        this.callbackStripes = builder.callbackStripes;
+        this.callbackOverflowPolicy = builder.callbackOverflowPolicy;
+        this.codec = builder.codec;
+        this.inboxRouting = builder.inboxRouting;
+        this.inboxChannelPrefix = builder.inboxChannelPrefix;
+        this.orderedLanes = builder.orderedLanes;
+        this.dispatchExecutor = builder.dispatchExecutor;
+        this.virtualThreadDispatch = builder.virtualThreadDispatch;
+        this.maxDispatchConcurrency = builder.maxDispatchConcurrency;
+        this.dispatchQueueCapacity = builder.dispatchQueueCapacity;
+        this.dispatchMaxInFlight = builder.dispatchMaxInFlight;
+        this.dispatchOverflowPolicy = builder.dispatchOverflowPolicy;
+        this.dispatchPauseMs = builder.dispatchPauseMs;
+        this.publishBatchSize = builder.publishBatchSize;
+        this.publishLingerMs = builder.publishLingerMs;
+        this.publishEnvelope = builder.publishEnvelope;
+        this.publishConnections = builder.publishConnections;
+        this.publishAffinity = builder.publishAffinity;
+        this.subscriberConnections = builder.subscriberConnections;
+        this.outboundBufferSize = builder.outboundBufferSize;
+        this.reconnectMinDelayMs = builder.reconnectMinDelayMs;
+        this.reconnectMaxDelayMs = builder.reconnectMaxDelayMs;
+        this.coalesceRequests = builder.coalesceRequests;
+        this.responseCaches = Map.copyOf(builder.responseCaches);
+        this.metrics = builder.metrics;
+        this.streamChannels = Set.copyOf(builder.streamChannels);
+        this.streamKeyPrefix = builder.streamKeyPrefix;
+        this.streamMaxLength = builder.streamMaxLength;
+        this.streamReadBatchSize = builder.streamReadBatchSize;
+        this.streamBlockMs = builder.streamBlockMs;
+        this.streamClaimIdleMs = builder.streamClaimIdleMs;
+    }
+
+    /**
+     * 获取默认配置
+     *
+     * @return 默认配置
+     */
+    public static RedisOptions defaults() {
+        return builder().build();
+    }
+
+    /**
+     * 获取配置的构造器
+     *
+     * @return 构造器
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 配置建造者
+     */
+    public static class Builder {
+
+        private long timeoutTickMs = 10;
+        private int timeoutWheelSize = 512;
+        private int callbackCapacity = 65536;
+        private int callbackStripes = 16;
+        private CallbackTable.OverflowPolicy callbackOverflowPolicy = CallbackTable.OverflowPolicy.EVICT_OLDEST;
+        private PacketCodec codec = JsonPacketCodec.INSTANCE;
+        private boolean inboxRouting;
+        private String inboxChannelPrefix = "fir:inbox:";
+        private int orderedLanes = 64;
+        private Executor dispatchExecutor;
+        private boolean virtualThreadDispatch;
+        private int maxDispatchConcurrency;
+        private int dispatchQueueCapacity;
+        private int dispatchMaxInFlight = 256;
+        private DispatchQueue.OverflowPolicy dispatchOverflowPolicy = DispatchQueue.OverflowPolicy.DROP_OLDEST;
+        private long dispatchPauseMs;
+        private int publishBatchSize;
+        private long publishLingerMs = 2;
+        private boolean publishEnvelope;
+        private int publishConnections;
+        private PublishConnectionPool.Affinity publishAffinity = PublishConnectionPool.Affinity.CHANNEL_HASH;
+        private int subscriberConnections = 1;
+        private int outboundBufferSize = 10000;
+        private long reconnectMinDelayMs = 100;
+        private long reconnectMaxDelayMs = 30000;
+        private boolean coalesceRequests;
+        private final Map<String, RequestCoalescer.CachePolicy> responseCaches = new HashMap<>();
+        private MessengerMetrics metrics;
+        private final Set<String> streamChannels = new HashSet<>();
+        private String streamKeyPrefix = "fir:stream:";
+        private long streamMaxLength = 100000;
+        private int streamReadBatchSize = 128;
+        private long streamBlockMs = 1000;
+        private long streamClaimIdleMs = 60000;
+
+        /**
+         * 超时时间轮的精度, 越小超时回调触发越准时, 但时间轮线程唤醒越频繁.
+         */
+        public Builder timeoutTickMs(long timeoutTickMs) {
+            if (timeoutTickMs <= 0) throw new IllegalArgumentException("timeoutTickMs 必须大于 0 !");
+            this.timeoutTickMs = timeoutTickMs;
+            return this;
+        }
+
+        /**
+         * 超时时间轮的格数, 会向上取整到 2 的幂. 超时时间超过 格数 x 精度 的任务会在时间轮上多转几圈.
+         */
+        public Builder timeoutWheelSize(int timeoutWheelSize) {
+            if (timeoutWheelSize <= 0) throw new IllegalArgumentException("timeoutWheelSize 必须大于 0 !");
+            this.timeoutWheelSize = timeoutWheelSize;
+            return this;
+        }
+
+        /**
+         * 最多同时等待回复的数据包数量, 只有设置了回调或超时回调的数据包才会占用名额; 上限对所有分段合计生效.
+         */
+        public Builder callbackCapacity(int callbackCapacity) {
+            if (callbackCapacity <= 0) throw new IllegalArgumentException("callbackCapacity 必须大于 0 !");
+            this.callbackCapacity = callbackCapacity;
+            return this;
+        }
+
+        /**
+         * 回调关联表的分段数量, 分段越多并发注册时的锁竞争越小.
+         */
+        public Builder callbackStripes(int callbackStripes) {
+            if (callbackStripes <= 0) throw new IllegalArgumentException("callbackStripes 必须大于 0 !");
+            this.callbackStripes = callbackStripes;
+            return this;
+        }
+
+        /**
+         * 等待回复的数据包达到上限后的处理策略.
+         */
+        public Builder callbackOverflowPolicy(CallbackTable.OverflowPolicy callbackOverflowPolicy) {
+            this.callbackOverflowPolicy = callbackOverflowPolicy;
+            return this;
+        }
+
+        /**
+         * 数据包编解码器, 默认使用与旧版本兼容的 JSON 格式, 可换成更紧凑的 {@link BinaryPacketCodec}.
+         */
+        public Builder codec(PacketCodec codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * 是否通过接收方的收件箱频道投递定向消息和回复消息, 只发给一个服务器的消息不再被 Redis 复制给频道上的所有订阅者. 默认关闭.
+         * 新版本客户端总是订阅自己的收件箱频道, 所以开启分为两步: 先让所有客户端升级到新版本 (仍然发到原频道, 但两种方式都能接收),
+         * 再逐台开启; 集群中还有旧版本客户端时开启, 发给它们的定向消息和回复会丢失.
+         */
+        public Builder inboxRouting(boolean inboxRouting) {
+            this.inboxRouting = inboxRouting;
+            return this;
+        }
+
+        /**
+         * 收件箱频道名前缀, 完整的频道名为 前缀 + 服务器ID, 所有客户端必须一致.
+         */
+        public Builder inboxChannelPrefix(String inboxChannelPrefix) {
+            this.inboxChannelPrefix = inboxChannelPrefix;
+            return this;
+        }
+
+        /**
+         * 有序分发模式的串行通道数量. 键被散列到这些通道上, 通道越多不相关的主题或发送者互相阻塞的概率越小.
+         */
+        public Builder orderedLanes(int orderedLanes) {
+            if (orderedLanes <= 0) throw new IllegalArgumentException("orderedLanes 必须大于 0 !");
+            this.orderedLanes = orderedLanes;
+            return this;
+        }
+
+        /**
+         * 使用自定义的执行器分发消息和执行回复回调, 例如游戏服务器的主线程调度器.
+         * 自定义执行器的生命周期由调用方管理, RedisManager 关闭时不会关闭它.
+         */
+        public Builder dispatchExecutor(@Nullable Executor dispatchExecutor) {
+            this.dispatchExecutor = dispatchExecutor;
+            return this;
+        }
+
+        /**
+         * 为每个处理器任务创建一个虚拟线程, 适合在处理器中执行数据库查询、HTTP 请求等阻塞操作.
+         * 需要 Java 21 及以上, 低版本会退回到按需创建的平台线程. 建议同时设置 {@link #maxDispatchConcurrency(int)}.
+         */
+        public Builder virtualThreadDispatch(boolean virtualThreadDispatch) {
+            this.virtualThreadDispatch = virtualThreadDispatch;
+            return this;
+        }
+
+        /**
+         * 同时执行的处理器和回调数量上限, 超出的任务排队等待, 0 表示不限制. 对所有分发执行器都生效.
+         */
+        public Builder maxDispatchConcurrency(int maxDispatchConcurrency) {
+            if (maxDispatchConcurrency < 0) throw new IllegalArgumentException("maxDispatchConcurrency 不能小于 0 !");
+            this.maxDispatchConcurrency = maxDispatchConcurrency;
+            return this;
+        }
+
+        /**
+         * 分发队列容量, 超过后按 {@link #dispatchOverflowPolicy(DispatchQueue.OverflowPolicy)} 处理. 默认 0 表示不限制.
+         */
+        public Builder dispatchQueueCapacity(int dispatchQueueCapacity) {
+            if (dispatchQueueCapacity < 0) throw new IllegalArgumentException("dispatchQueueCapacity 不能小于 0 !");
+            this.dispatchQueueCapacity = dispatchQueueCapacity;
+            return this;
+        }
+
+        /**
+         * 启用分发队列时, 同时处理中的数据包数量上限. 一个数据包的所有处理器执行完后才算处理完成.
+         */
+        public Builder dispatchMaxInFlight(int dispatchMaxInFlight) {
+            if (dispatchMaxInFlight <= 0) throw new IllegalArgumentException("dispatchMaxInFlight 必须大于 0 !");
+            this.dispatchMaxInFlight = dispatchMaxInFlight;
+            return this;
+        }
+
+        /**
+         * 分发队列满了之后的处理策略.
+         */
+        public Builder dispatchOverflowPolicy(DispatchQueue.OverflowPolicy dispatchOverflowPolicy) {
+            this.dispatchOverflowPolicy = dispatchOverflowPolicy;
+            return this;
+        }
+
+        /**
+         * 分发队列满了之后, 暂停从订阅连接 (关闭 Netty 的 autoRead, 不阻塞 IO 线程) 和 Streams 读取数据, 队列降到一半以下时恢复.
+         * 最多暂停的毫秒数, 超时后恢复读取, 新到达的数据包按溢出策略处理. 默认 0 表示不暂停.
+         */
+        public Builder dispatchPauseMs(long dispatchPauseMs) {
+            if (dispatchPauseMs < 0) throw new IllegalArgumentException("dispatchPauseMs 不能小于 0 !");
+            this.dispatchPauseMs = dispatchPauseMs;
+            return this;
+        }
+
+        /**
+         * 批量发布的批次大小, 攒够这么多条 PUBLISH 后立即刷新到网络. 默认 0 表示每条消息单独发送.
+         * 开启后会额外创建一条专用于发布的连接.
+         */
+        public Builder publishBatchSize(int publishBatchSize) {
+            if (publishBatchSize < 0) throw new IllegalArgumentException("publishBatchSize 不能小于 0 !");
+            this.publishBatchSize = publishBatchSize;
+            return this;
+        }
+
+        /**
+         * 批量发布时, 第一条未刷新的消息最多等待的毫秒数, 也可以随时调用 {@link RedisManager#flush()} 立即发送.
+         */
+        public Builder publishLingerMs(long publishLingerMs) {
+            if (publishLingerMs < 0) throw new IllegalArgumentException("publishLingerMs 不能小于 0 !");
+            this.publishLingerMs = publishLingerMs;
+            return this;
+        }
+
+        /**
+         * 批量发布时, 把同一频道的多个数据包打包成一条 Redis 消息. 接收方需要是支持拆包的新版本客户端.
+         */
+        public Builder publishEnvelope(boolean publishEnvelope) {
+            this.publishEnvelope = publishEnvelope;
+            return this;
+        }
+
+        /**
+         * 发布连接池的连接数量, 发布量超过单条连接的上限时调大. 默认 0 表示在订阅连接上发布, 开启批量发布时至少使用 1 条独立连接.
+         */
+        public Builder publishConnections(int publishConnections) {
+            if (publishConnections < 0) throw new IllegalArgumentException("publishConnections 不能小于 0 !");
+            this.publishConnections = publishConnections;
+            return this;
+        }
+
+        /**
+         * 有多条发布连接时选择连接的方式, 默认按频道哈希, 保证同一频道的发布顺序.
+         */
+        public Builder publishAffinity(PublishConnectionPool.Affinity publishAffinity) {
+            if (publishAffinity == null) throw new IllegalArgumentException("publishAffinity 不能为空 !");
+            this.publishAffinity = publishAffinity;
+            return this;
+        }
+
+        /**
+         * 订阅连接数量, 频道按名字的哈希分散到各条连接上, 由不同的事件循环读取. 默认 1. Redis Cluster 模式下不使用该配置.
+         */
+        public Builder subscriberConnections(int subscriberConnections) {
+            if (subscriberConnections <= 0) throw new IllegalArgumentException("subscriberConnections 必须大于 0 !");
+            this.subscriberConnections = subscriberConnections;
+            return this;
+        }
+
+        /**
+         * 连接中断期间最多缓冲的发布数量, 连接恢复后按顺序补发, 满了之后丢弃最旧的. 默认 10000, 0 表示不缓冲, 交给 Lettuce 自己的命令队列.
+         */
+        public Builder outboundBufferSize(int outboundBufferSize) {
+            if (outboundBufferSize < 0) throw new IllegalArgumentException("outboundBufferSize 不能小于 0 !");
+            this.outboundBufferSize = outboundBufferSize;
+            return this;
+        }
+
+        /**
+         * 重连的指数退避范围, 从 minMs 开始每次翻倍, 最长 maxMs. 默认 100 毫秒到 30 秒.
+         */
+        public Builder reconnectDelay(long minMs, long maxMs) {
+            if (minMs <= 0 || maxMs < minMs) throw new IllegalArgumentException("重连等待时间必须大于 0, 且 maxMs 不能小于 minMs !");
+            this.reconnectMinDelayMs = minMs;
+            this.reconnectMaxDelayMs = maxMs;
+            return this;
+        }
+
+        /**
+         * 合并相同的请求: 频道、接收方、主题和内容都相同的请求正在等待回复时, 新的请求不再发送, 共用同一条回复.
+         * 对 {@link RedisManager#request} 和带回调的 {@link RedisManager#publish} 生效, 不影响 scatterGather. 默认关闭.
+         */
+        public Builder coalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * 为主题开启回复缓存, 有效期内相同的请求直接使用缓存的回复, 不再发送. 适合短时间内结果不变的查询, 例如在线人数.
+         * @param subject 请求的主题
+         * @param ttlMs 回复的有效期
+         * @param maxEntries 最多缓存的回复数量, 满了之后淘汰最久没有使用的
+         */
+        public Builder responseCache(String subject, long ttlMs, int maxEntries) {
+            this.responseCaches.put(subject, new RequestCoalescer.CachePolicy(ttlMs, maxEntries));
+            return this;
+        }
+
+        /**
+         * 自定义的运行指标实现, 例如直接写入自己的监控系统, 不需要时可以传入 {@link MessengerMetrics#NOOP}.
+         * 默认每个 RedisManager 使用一个独立的 {@link DefaultMessengerMetrics}, 通过 {@link RedisManager#getMetrics()} 读取快照.
+         */
+        public Builder metrics(@Nullable MessengerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * 通过 Redis Streams 发送的频道. 发布到这些频道的消息会追加到流中, 接收方重启或断线期间的消息不会丢失.
+         * 接收方需要用 {@code @RedisSubject(delivery = DeliveryMode.STREAM)} 或 {@link RedisManager#subscribeStream(String)} 消费这些频道.
+         */
+        public Builder streamChannels(String... streamChannels) {
+            this.streamChannels.addAll(Arrays.asList(streamChannels));
+            return this;
+        }
+
+        /**
+         * 流的键名前缀, 完整的键名为 前缀 + 频道名, 所有客户端必须一致.
+         */
+        public Builder streamKeyPrefix(String streamKeyPrefix) {
+            this.streamKeyPrefix = streamKeyPrefix;
+            return this;
+        }
+
+        /**
+         * 每个流保留的大约消息数量, 追加时按 MAXLEN ~ 近似裁剪. 离线时间内的消息超过这个数量时, 较早的消息会丢失.
+         */
+        public Builder streamMaxLength(long streamMaxLength) {
+            if (streamMaxLength <= 0) throw new IllegalArgumentException("streamMaxLength 必须大于 0 !");
+            this.streamMaxLength = streamMaxLength;
+            return this;
+        }
+
+        /**
+         * 每次从每个流读取的最大消息数量.
+         */
+        public Builder streamReadBatchSize(int streamReadBatchSize) {
+            if (streamReadBatchSize <= 0) throw new IllegalArgumentException("streamReadBatchSize 必须大于 0 !");
+            this.streamReadBatchSize = streamReadBatchSize;
+            return this;
+        }
+
+        /**
+         * 没有新消息时阻塞读取的最长时间, 也是新增消费频道最多需要等待的时间.
+         */
+        public Builder streamBlockMs(long streamBlockMs) {
+            if (streamBlockMs <= 0) throw new IllegalArgumentException("streamBlockMs 必须大于 0 !");
+            this.streamBlockMs = streamBlockMs;
+            return this;
+        }
+
+        /**
+         * 未确认的消息空闲多久后由 XAUTOCLAIM 重新认领 (需要 Redis 6.2 及以上), 0 表示不认领.
+         */
+        public Builder streamClaimIdleMs(long streamClaimIdleMs) {
+            if (streamClaimIdleMs < 0) throw new IllegalArgumentException("streamClaimIdleMs 不能小于 0 !");
+            this.streamClaimIdleMs = streamClaimIdleMs;
+            return this;
+        }
+
+        public RedisOptions build() {
+            return new RedisOptions(this);
+        }
+
+    }
+
+}
@@ -2,12 +2,21 @@ package top.catnies.firredismessenger;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.UUID;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 
 @Data
@@ -18,13 +27,26 @@ public class RedisPacket {
     @NotNull private String sender; // 消息发送者
     @NotNull private String receiver; // 消息接收者
     @NotNull private String subject; // 消息主题
-    @NotNull private String payload; // 消息内容
+    // 消息内容相关的字段可能在多个处理器线程中首次访问时才加载, 全部为 volatile, 保证其他线程看到完整的对象;
+    // equals, hashCode 和 toString 不直接读取这些字段, 而是通过 getPayload() 和 isBinary() 比较, 延迟解码的数据包与已解码的相等
+    @EqualsAndHashCode.Exclude @ToString.Exclude
+    @NotNull private volatile String payload; // 消息内容, 延迟解码的数据包在首次访问前为空
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+    @Nullable private transient volatile Supplier<String> payloadLoader; // 延迟解码消息内容的加载器
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @EqualsAndHashCode.Exclude @ToString.Exclude
+    @Nullable private Boolean binaryPayload; // 是否是二进制消息内容, JSON 中二进制内容以 Base64 放在 payload 中, 不是二进制时为空, 不写入 JSON
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+    @Nullable private transient volatile ByteBuffer payloadBuffer; // 二进制消息内容, 收到的数据包直接指向原始消息
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+    @Nullable private transient volatile Supplier<ByteBuffer> payloadBufferLoader; // 延迟解压二进制消息内容的加载器
     @Nullable private transient Consumer<String> callback; // 接收到目标服务器回复消息后的回调, 泛型携带的是目标服务器回复的消息;
     @Nullable private transient Consumer<RedisPacket> onTimeout; // 超时未回复时触发的回调, 泛型携带的是发送的包;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+    @Nullable private transient RedisManager manager; // 收发该数据包的管理器, 便携方法通过它发布
 
     /** Message MetaData **/
-    private final UUID messageId = UUID.randomUUID();
-    private final long createTimestamp = System.currentTimeMillis();
+    private final UUID messageId;
+    private final long createTimestamp;
     private UUID responseId; // 当数据包是回复数据包时, 需要携带回复数据包目标的原始ID;
 
     /** Message Additional Data **/
@@ -39,6 +61,15 @@ public class RedisPacket {
      * @param payload 内容, 消息内容
      */
     public RedisPacket(@NotNull String sender, @NotNull String receiver, @NotNull String subject, @NotNull String payload) {
+        this(UUID.randomUUID(), System.currentTimeMillis(), sender, receiver, subject, payload);
+    }
+
+    /**
+     * 解码时使用, 还原数据包原有的ID和创建时间
+     */
+    RedisPacket(@NotNull UUID messageId, long createTimestamp, @NotNull String sender, @NotNull String receiver, @NotNull String subject, @NotNull String payload) {
+        this.messageId = messageId;
+        this.createTimestamp = createTimestamp;
         this.sender = sender;
         this.receiver = receiver;
         this.subject = subject;
@@ -57,6 +88,22 @@ public class RedisPacket {
         return new RedisPacket(sender, receiver, subject, payload);
     }
 
+    /**
+     * 创建消息内容为二进制数据的 Redis 数据包, 例如 protobuf 编码后的消息.
+     * 使用二进制编解码器时内容原样写入消息, 不经过 Base64 和 JSON 转义; 使用 JSON 编解码器时以 Base64 写入 payload 字段, 旧版本客户端读到的是 Base64 字符串.
+     * 数组不会被复制, 创建数据包之后不要再修改它.
+     * @param sender 发送者, 填写发送数据包的服务器唯一标识符
+     * @param receiver 接收者, 填写接收数据包的服务器的唯一标识符
+     * @param subject 主题, 为消息进行分类
+     * @param payload 内容, 二进制数据
+     * @return 数据包
+     */
+    public static RedisPacket ofBytes(@NotNull String sender, @NotNull String receiver, @NotNull String subject, byte @NotNull [] payload) {
+        RedisPacket packet = new RedisPacket(UUID.randomUUID(), System.currentTimeMillis(), sender, receiver, subject, "");
+        packet.setPayloadBuffer(ByteBuffer.wrap(payload));
+        return packet;
+    }
+
     /**
      * 创建一个可广播全部监听者的 Redis 数据包
      * @param sender 发送者, 填写发送数据包的服务器唯一标识符
@@ -77,6 +124,30 @@ public class RedisPacket {
     public static RedisPacket ofResponse(@NotNull RedisPacket original, @NotNull String responsePayload) {
         RedisPacket responsePacket = new RedisPacket(original.receiver, original.sender, original.subject, responsePayload);
         responsePacket.responseId = original.messageId;
+        responsePacket.manager = original.manager;
+        return responsePacket;
+    }
+
+    /**
+     * 创建一个响应回复的 Redis 数据包, 回复内容序列化为 JSON
+     * @param original 接收到的准备回复的数据包
+     * @param responsePayload 回复的对象, 请求方可以用 {@link #getPayloadAs(Class)} 还原
+     * @return 数据包
+     */
+    public static RedisPacket ofResponse(@NotNull RedisPacket original, @NotNull Object responsePayload) {
+        return ofResponse(original, SHARED_GSON.toJson(responsePayload));
+    }
+
+    /**
+     * 创建一个响应回复的 Redis 数据包, 回复内容为二进制数据
+     * @param original 接收到的准备回复的数据包
+     * @param responsePayload 回复的二进制数据, 不会被复制
+     * @return 数据包
+     */
+    public static RedisPacket ofResponse(@NotNull RedisPacket original, byte @NotNull [] responsePayload) {
+        RedisPacket responsePacket = ofBytes(original.receiver, original.sender, original.subject, responsePayload);
+        responsePacket.responseId = original.messageId;
+        responsePacket.manager = original.manager;
         return responsePacket;
     }
 
@@ -100,17 +171,176 @@ public class RedisPacket {
         return this;
     }
 
+    /**
+     * 获取消息内容, 延迟解码的数据包会在首次访问时才解码消息内容.
+     * 二进制消息内容返回它的 Base64 字符串, 请使用 {@link #getPayloadBuffer()} 读取原始数据.
+     * @return 消息内容
+     */
+    @EqualsAndHashCode.Include(rank = -1) @ToString.Include(name = "payload", rank = -1)
+    public @NotNull String getPayload() {
+        String value = payload;
+        if (value == null) {
+            Supplier<String> loader = payloadLoader;
+            if (loader != null) payload = value = loader.get(); // 并发首次访问时可能重复解码, 结果相同
+            else if (isBinary()) payload = value = Base64.getEncoder().encodeToString(payloadArray());
+        }
+        return value;
+    }
+
+    /**
+     * @return 消息内容是否是二进制数据
+     */
+    @EqualsAndHashCode.Include(rank = -1) @ToString.Include(name = "binaryPayload", rank = -1)
+    public boolean isBinary() {
+        return Boolean.TRUE.equals(binaryPayload);
+    }
+
+    /**
+     * 获取消息内容的只读视图. 二进制编解码器收到的二进制内容直接指向 Redis 消息的原始字节, 不会复制;
+     * 文本内容返回它的 UTF-8 编码. 每次调用返回位置独立的新视图, 多个处理器可以同时读取.
+     * @return 只读的消息内容
+     */
+    public @NotNull ByteBuffer getPayloadBuffer() {
+        return payloadBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 消息内容的字节副本
+     */
+    public byte @NotNull [] getPayloadBytes() {
+        ByteBuffer buffer = payloadBuffer().duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // 获取内部的消息内容缓冲区, 调用方不能修改它的内容和位置
+    private ByteBuffer payloadBuffer() {
+        ByteBuffer buffer = payloadBuffer;
+        if (buffer != null) return buffer;
+        Supplier<ByteBuffer> loader = payloadBufferLoader;
+        if (loader != null) buffer = loader.get();
+        else if (isBinary()) buffer = ByteBuffer.wrap(Base64.getDecoder().decode(getPayload())); // JSON 编解码器收到的二进制内容
+        else buffer = ByteBuffer.wrap(getPayload().getBytes(StandardCharsets.UTF_8));
+        payloadBuffer = buffer; // 并发首次访问时可能重复解码, 结果相同
+        return buffer;
+    }
+
+    /**
+     * 编码器使用, 获取二进制消息内容的数组, 内容恰好占满整个数组时不会复制, 调用方不能修改它
+     * @return 二进制消息内容
+     */
+    byte[] payloadArray() {
+        ByteBuffer buffer = payloadBuffer();
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        return getPayloadBytes();
+    }
+
+    /**
+     * 将 JSON 格式的消息内容反序列化为对象
+     * @param type 目标类型
+     * @return 消息对象
+     * @throws com.google.gson.JsonSyntaxException 消息内容不是合法的 JSON
+     */
+    public <T> T getPayloadAs(@NotNull Class<T> type) {
+        return SHARED_GSON.fromJson(getPayload(), type);
+    }
+
+    public void setPayload(@NotNull String payload) {
+        this.payload = payload;
+        this.payloadLoader = null;
+        this.binaryPayload = null;
+        this.payloadBuffer = null;
+        this.payloadBufferLoader = null;
+    }
+
+    /**
+     * 绑定消息内容的延迟加载器, 解码器使用
+     * @param payloadLoader 加载器
+     */
+    void setLazyPayload(@NotNull Supplier<String> payloadLoader) {
+        this.payload = null;
+        this.payloadLoader = payloadLoader;
+    }
+
+    /**
+     * 设置二进制消息内容, 解码器使用
+     * @param payloadBuffer 消息内容, 调用方之后不能修改它的内容和位置
+     */
+    void setPayloadBuffer(@NotNull ByteBuffer payloadBuffer) {
+        this.payload = null;
+        this.payloadLoader = null;
+        this.binaryPayload = Boolean.TRUE;
+        this.payloadBuffer = payloadBuffer;
+        this.payloadBufferLoader = null;
+    }
+
+    /**
+     * 绑定二进制消息内容的延迟加载器, 解码器使用
+     * @param payloadBufferLoader 加载器
+     */
+    void setLazyPayloadBuffer(@NotNull Supplier<ByteBuffer> payloadBufferLoader) {
+        this.payload = null;
+        this.payloadLoader = null;
+        this.binaryPayload = Boolean.TRUE;
+        this.payloadBuffer = null;
+        this.payloadBufferLoader = payloadBufferLoader;
+    }
+
+    /**
+     * 标记 payload 中是 Base64 编码的二进制内容, JSON 解码器使用
+     */
+    void markBinary() {
+        this.binaryPayload = Boolean.TRUE;
+    }
+
     /** 序列化和反序列化方法 **/
     public String toJson() {
+        getPayload(); // 序列化前确保延迟解码的内容已经加载
         return SHARED_GSON.toJson(this);
     }
     public static RedisPacket fromJson(String json) {
         return SHARED_GSON.fromJson(json, RedisPacket.class);
     }
 
+    /**
+     * 同一个 JVM 内投递时为每个接收方创建的浅拷贝, 共用消息内容, 不经过序列化; 发送方的回调和所属管理器不复制
+     * @return 数据包的浅拷贝
+     */
+    RedisPacket copyForDelivery() {
+        RedisPacket copy = new RedisPacket(messageId, createTimestamp, sender, receiver, subject, payload);
+        copy.payloadLoader = payloadLoader;
+        copy.binaryPayload = binaryPayload;
+        copy.payloadBuffer = payloadBuffer;
+        copy.payloadBufferLoader = payloadBufferLoader;
+        copy.responseId = responseId;
+        copy.publishTimestamp = publishTimestamp;
+        copy.channel = channel;
+        return copy;
+    }
+
+    /**
+     * 绑定收发该数据包的管理器, 管理器发送或收到数据包时调用
+     */
+    void bindManager(@NotNull RedisManager manager) {
+        this.manager = manager;
+    }
+
     /** 拓展便携方法 **/
+
+    /**
+     * 通过收发该数据包的管理器发布, 回复数据包沿用原始数据包的管理器; 自己创建且尚未发送过的数据包使用默认管理器.
+     * 同一个 JVM 中有多个管理器时, 请直接调用 {@link RedisManager#publish(String, RedisPacket)}.
+     * @param channel 目标频道
+     * @throws IllegalStateException 数据包没有绑定管理器, 也没有正在运行的管理器
+     */
+    @SuppressWarnings("deprecation")
     public void publish(@NotNull String channel) {
-        RedisManager.getInstance().publish(channel, this);
+        RedisManager owner = manager != null ? manager : RedisManager.getInstance();
+        if (owner == null) throw new IllegalStateException("数据包没有绑定管理器, 也没有正在运行的 RedisManager !");
+        owner.publish(channel, this);
     }
 
 
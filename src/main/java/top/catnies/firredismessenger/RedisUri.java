@@ -1,9 +1,45 @@
 package top.catnies.firredismessenger;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redis 连接地址.
+ * @param redisUri Redis 链接URL, Cluster 模式下可以用逗号分隔多个种子节点
+ * @param cluster 是否是 Redis Cluster, 是的话使用分片发布订阅 (SPUBLISH / SSUBSCRIBE), 需要 Redis 7.0 以上
+ */
 public record RedisUri(
-        String redisUri // Redis 链接URL
+        String redisUri, // Redis 链接URL
+        boolean cluster // 是否是 Redis Cluster
 ) {
 
+    /**
+     * @param redisUri 单机 Redis 的链接URL
+     */
+    public RedisUri(String redisUri) {
+        this(redisUri, false);
+    }
+
+    /**
+     * 创建 Redis Cluster 的连接地址
+     * @param seedUris 种子节点的链接URL, 连接后会自动发现其他节点
+     * @return 连接地址
+     */
+    public static RedisUri cluster(String... seedUris) {
+        return new RedisUri(String.join(",", seedUris), true);
+    }
+
+    /**
+     * @return 拆分后的链接URL, 单机模式只有一个
+     */
+    public List<String> redisUris() {
+        List<String> uris = new ArrayList<>();
+        for (String uri : redisUri.split(",")) {
+            if (!uri.isBlank()) uris.add(uri.trim());
+        }
+        return uris;
+    }
+
     /**
      * 获取 URI 的构造器
      *
@@ -23,6 +59,7 @@ public record RedisUri(
         private String ip = "localhost";
         private int host = 6379;
         private int database = 0;
+        private boolean cluster;
 
         public Builder userName(String userName) {
             this.userName = userName;
@@ -49,11 +86,20 @@ public record RedisUri(
             return this;
         }
 
+        /**
+         * 是否是 Redis Cluster, Cluster 不支持选择数据库, database 会被忽略
+         */
+        public Builder cluster(boolean cluster) {
+            this.cluster = cluster;
+            return this;
+        }
+
         public RedisUri build() {
+            String path = cluster ? "" : "/" + database;
             if (userName == null || password == null) {
-                return new RedisUri("redis://" + ip + ":" + host + "/" + database);
+                return new RedisUri("redis://" + ip + ":" + host + path, cluster);
             } else {
-                return new RedisUri("redis://" + password + "@" + ip + ":" + host + "/" + database);
+                return new RedisUri("redis://" + password + "@" + ip + ":" + host + path, cluster);
             }
         }
 
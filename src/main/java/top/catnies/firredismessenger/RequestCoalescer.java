@@ -0,0 +1,189 @@
+package top.catnies.firredismessenger;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 请求合并与回复缓存, 由 {@link RedisManager#request(String, RedisPacket, long)} 使用.
+ * <ul>
+ *     <li>合并: 频道、接收方、主题和内容都相同的请求正在等待回复时, 新的请求不再发送, 而是共用同一个请求的回复 (包括它的截止时间)</li>
+ *     <li>缓存: 为指定主题配置回复缓存后, 有效期内相同的请求直接使用缓存的回复, 缓存满了之后淘汰最久没有使用的回复;
+ *     配置了缓存的主题总是合并请求, 避免缓存过期的瞬间大量请求同时发出</li>
+ * </ul>
+ * 共用的回复数据包是同一个对象, 处理回复时不要修改它.
+ */
+public class RequestCoalescer {
+    private final boolean coalescing;
+    private final Map<String, ResponseCache> responseCaches; // 主题 -> 回复缓存, 创建后不再改变
+    private final Map<RequestKey, CompletableFuture<RedisPacket>> inFlight = new ConcurrentHashMap<>();
+
+    @Getter private final LongAdder sentRequests = new LongAdder(); // 实际发出的请求数量
+    @Getter private final LongAdder coalescedRequests = new LongAdder(); // 合并到进行中请求的数量
+
+    /**
+     * 回复缓存的配置
+     * @param ttlMs 回复的有效期
+     * @param maxEntries 最多缓存的回复数量
+     */
+    public record CachePolicy(long ttlMs, int maxEntries) {
+        public CachePolicy {
+            if (ttlMs <= 0) throw new IllegalArgumentException("ttlMs 必须大于 0 !");
+            if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries 必须大于 0 !");
+        }
+    }
+
+    /**
+     * @param coalescing 是否合并所有主题的相同请求
+     * @param cachePolicies 主题 -> 回复缓存的配置
+     */
+    public RequestCoalescer(boolean coalescing, @NotNull Map<String, CachePolicy> cachePolicies) {
+        this.coalescing = coalescing;
+        Map<String, ResponseCache> caches = new HashMap<>();
+        cachePolicies.forEach((subject, policy) -> caches.put(subject, new ResponseCache(policy)));
+        this.responseCaches = Map.copyOf(caches);
+    }
+
+    /**
+     * @param subject 主题
+     * @return 该主题的请求是否经过合并或缓存
+     */
+    public boolean isActive(@NotNull String subject) {
+        return coalescing || responseCaches.containsKey(subject);
+    }
+
+    /**
+     * 发送请求, 命中缓存时直接返回缓存的回复, 有相同的请求正在等待回复时共用它的回复
+     * @param channel 目标频道
+     * @param packet 数据包
+     * @param sender 实际发送请求的方法
+     * @return 回复数据包, 异常情况与实际发送的请求相同
+     */
+    public CompletableFuture<RedisPacket> request(@NotNull String channel, @NotNull RedisPacket packet,
+                                                  @NotNull Function<RedisPacket, CompletableFuture<RedisPacket>> sender) {
+        RequestKey key = RequestKey.of(channel, packet);
+        ResponseCache cache = responseCaches.get(packet.getSubject());
+        if (cache != null) {
+            RedisPacket cached = cache.get(key);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<RedisPacket> shared = new CompletableFuture<>();
+        CompletableFuture<RedisPacket> existing = inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            coalescedRequests.increment();
+            return existing.copy(); // 调用方取消或完成自己的 Future 不会影响其他等待者
+        }
+
+        sentRequests.increment();
+        sender.apply(packet).whenComplete((response, error) -> {
+            // 先写入缓存再移除进行中的请求, 之后到达的相同请求要么命中缓存, 要么重新发送
+            if (error == null && cache != null) cache.put(key, response);
+            inFlight.remove(key, shared);
+            if (error == null) shared.complete(response);
+            else shared.completeExceptionally(error);
+        });
+        return shared.copy();
+    }
+
+    /**
+     * @return 正在等待回复的不同请求数量
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @param subject 主题
+     * @return 该主题的回复缓存, 没有配置时为空
+     */
+    public @Nullable ResponseCache getResponseCache(@NotNull String subject) {
+        return responseCaches.get(subject);
+    }
+
+    /**
+     * @return 主题 -> 回复缓存, 只读
+     */
+    public Map<String, ResponseCache> getResponseCaches() {
+        return responseCaches;
+    }
+
+
+    // 相同请求的判定依据, 二进制内容以 Base64 比较
+    private record RequestKey(String channel, String receiver, String subject, String payload, boolean binary) {
+        static RequestKey of(String channel, RedisPacket packet) {
+            return new RequestKey(channel, packet.getReceiver(), packet.getSubject(), packet.getPayload(), packet.isBinary());
+        }
+    }
+
+    /**
+     * 单个主题的回复缓存, 按最近使用顺序淘汰, 读取时检查有效期
+     */
+    public static final class ResponseCache {
+        private final long ttlNanos;
+        private final LinkedHashMap<RequestKey, Cached> entries;
+
+        @Getter private final LongAdder hits = new LongAdder(); // 命中次数
+        @Getter private final LongAdder misses = new LongAdder(); // 未命中次数, 包括已过期
+
+        ResponseCache(CachePolicy policy) {
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(policy.ttlMs());
+            int maxEntries = policy.maxEntries();
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RequestKey, Cached> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized @Nullable RedisPacket get(RequestKey key) {
+            Cached cached = entries.get(key);
+            if (cached != null && cached.expiresAt - System.nanoTime() > 0) {
+                hits.increment();
+                return cached.response;
+            }
+            if (cached != null) entries.remove(key);
+            misses.increment();
+            return null;
+        }
+
+        synchronized void put(RequestKey key, RedisPacket response) {
+            entries.put(key, new Cached(response, System.nanoTime() + ttlNanos));
+        }
+
+        /**
+         * @return 命中次数占查询次数的比例, 还没有查询过时为 0
+         */
+        public double getHitRate() {
+            long hit = hits.sum();
+            long total = hit + misses.sum();
+            return total == 0 ? 0.0 : (double) hit / total;
+        }
+
+        /**
+         * @return 当前缓存的回复数量, 包括已过期但还没有被访问到的
+         */
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * 清空缓存, 例如回复依赖的数据已经变化
+         */
+        public synchronized void invalidateAll() {
+            entries.clear();
+        }
+
+        private record Cached(RedisPacket response, long expiresAt) { }
+    }
+}
@@ -0,0 +1,80 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按键分组的串行执行通道.
+ * 键被散列到固定数量的通道上, 同一通道内的任务按提交顺序逐个执行, 不同通道之间在底层执行器上并行.
+ * 不同的键可能落在同一个通道上, 通道数量越多, 互不相关的键互相阻塞的概率越小.
+ */
+public class SerialLanes {
+    private static final int MAX_TASKS_PER_RUN = 64; // 每次占用线程最多执行的任务数, 之后让出线程保证公平
+
+    private final Lane[] lanes;
+    private final int mask;
+    private final Executor executor;
+
+    /**
+     * @param laneCount 通道数量, 会向上取整到 2 的幂
+     * @param executor 底层执行器
+     */
+    public SerialLanes(int laneCount, @NotNull Executor executor) {
+        if (laneCount <= 0) throw new IllegalArgumentException("laneCount 必须大于 0 !");
+        int size = 1;
+        while (size < laneCount) size <<= 1;
+        this.lanes = new Lane[size];
+        for (int i = 0; i < size; i++) lanes[i] = new Lane();
+        this.mask = size - 1;
+        this.executor = executor;
+    }
+
+    /**
+     * 在键对应的通道上执行任务
+     * @param keyHash 键的哈希值
+     * @param task 任务
+     */
+    public void execute(int keyHash, @NotNull Runnable task) {
+        int h = keyHash * 0x9E3779B9;
+        lanes[(h ^ (h >>> 16)) & mask].submit(task);
+    }
+
+
+    private final class Lane implements Runnable {
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Runnable task) {
+            queue.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                    Runnable task = queue.poll();
+                    if (task == null) break;
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        System.err.println("Error in Redis message handler: " + e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                if (!queue.isEmpty()) schedule();
+            }
+        }
+    }
+}
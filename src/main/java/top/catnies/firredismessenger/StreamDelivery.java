@@ -0,0 +1,274 @@
+package top.catnies.firredismessenger;
+
+import io.lettuce.core.Consumer;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XAddArgs;
+import io.lettuce.core.XAutoClaimArgs;
+import io.lettuce.core.XGroupCreateArgs;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.models.stream.ClaimedMessages;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于 Redis Streams 的可靠投递.
+ * 发送方用 XADD 把编码后的数据包追加到频道对应的流中, 并按 MAXLEN 近似裁剪;
+ * 每个服务器以自己的服务器ID作为消费组, 组内只有一个同名的消费者, 因此同一个服务器ID同时只能有一个实例在运行;
+ * 用 XREADGROUP 批量读取, 所有处理器执行完后才批量 XACK, 处理器执行期间进程崩溃的消息会重新投递 (至少一次).
+ * 服务器重启后先读取自己尚未确认的消息, 再读取新消息; 空闲超过 streamClaimIdleMs 的未确认消息由 XAUTOCLAIM 重新认领,
+ * 包括被分发队列的溢出策略丢弃的消息, 以及执行时间超过该时长的处理器仍在处理的消息, 后者会被重复投递.
+ */
+public class StreamDelivery {
+    private static final byte[] FIELD = "p".getBytes(StandardCharsets.UTF_8); // 存放数据包的字段名
+    private static final String NEW_MESSAGES = ">";
+    private static final String CLAIM_START = "0-0";
+    private static final long PAUSE_POLL_MS = 10; // 暂停读取期间检查是否恢复的间隔
+
+    private final RedisManager manager;
+    private final RedisOptions options;
+    private final byte[] group;
+    private final Consumer<byte[]> consumer;
+
+    private final StatefulRedisConnection<byte[], byte[]> commandConnection; // 发送, 确认和创建消费组
+    private final StatefulRedisConnection<byte[], byte[]> readConnection; // 阻塞读取专用
+    private final Map<String, StreamState> streams = new ConcurrentHashMap<>(); // [流的键: 消费状态]
+    private final Queue<PendingAck> acks = new ConcurrentLinkedQueue<>(); // 处理完等待确认的消息
+    private final AtomicInteger ackBacklog = new AtomicInteger();
+    private final Thread reader;
+    private volatile boolean running = true;
+    private long lastClaimMillis;
+    private boolean claimUnsupported; // Redis 6.2 以下没有 XAUTOCLAIM
+
+    @Getter private final LongAdder appended = new LongAdder(); // 追加的消息数量
+    @Getter private final LongAdder delivered = new LongAdder(); // 读取并交给路由器的消息数量
+    @Getter private final LongAdder acked = new LongAdder(); // 处理完并确认的消息数量
+    @Getter private final LongAdder claimed = new LongAdder(); // 重新认领的消息数量
+
+    /**
+     * @param redisClient Redis 客户端, 会额外创建两条连接
+     * @param manager 所属的管理器
+     */
+    public StreamDelivery(@NotNull RedisClient redisClient, @NotNull RedisManager manager) {
+        this.manager = manager;
+        this.options = manager.getOptions();
+        this.group = manager.getServerId().getBytes(StandardCharsets.UTF_8);
+        this.consumer = Consumer.from(group, group);
+        this.commandConnection = redisClient.connect(ByteArrayCodec.INSTANCE);
+        this.readConnection = redisClient.connect(ByteArrayCodec.INSTANCE);
+        this.reader = new Thread(this::readLoop, "FirRedisMessenger-StreamReader-" + manager.getServerId());
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * 把数据包追加到频道对应的流中
+     * @param channel 频道名
+     * @param packet 数据包
+     */
+    public void publish(@NotNull String channel, @NotNull RedisPacket packet) {
+        byte[] frame = options.getCodec().encode(packet);
+        String key = keyOf(channel);
+        manager.getMetrics().onPublish(key, frame.length);
+        XAddArgs args = new XAddArgs().maxlen(options.getStreamMaxLength()).approximateTrimming();
+        commandConnection.async().xadd(key.getBytes(StandardCharsets.UTF_8), args, FIELD, frame);
+        appended.increment();
+    }
+
+    /**
+     * 开始消费频道对应的流, 消费组不存在时从最新位置创建
+     * @param channel 频道名
+     */
+    public void consume(@NotNull String channel) {
+        String key = keyOf(channel);
+        if (streams.containsKey(key)) return;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            commandConnection.sync().xgroupCreate(XReadArgs.StreamOffset.from(keyBytes, "$"), group, XGroupCreateArgs.Builder.mkstream());
+        } catch (RedisCommandExecutionException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) throw e; // 消费组已存在, 从上次的位置继续
+        }
+        streams.put(key, new StreamState(channel, keyBytes));
+    }
+
+    /**
+     * 停止消费频道对应的流, 消费组会保留, 之后的消息在重新消费时继续投递
+     * @param channel 频道名
+     */
+    public void stopConsuming(@NotNull String channel) {
+        streams.remove(keyOf(channel));
+    }
+
+    /**
+     * @param channel 频道名
+     * @return 是否正在消费该频道
+     */
+    public boolean isConsuming(@NotNull String channel) {
+        return streams.containsKey(keyOf(channel));
+    }
+
+    /**
+     * 停止读取并关闭连接
+     */
+    public void close() {
+        running = false;
+        readConnection.close(); // 中断正在阻塞的读取
+        try {
+            reader.join(options.getStreamBlockMs() + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAcks(); // 仍在执行的处理器来不及确认, 下次启动时作为未确认消息重新投递
+        commandConnection.close();
+    }
+
+    private String keyOf(String channel) {
+        return options.getStreamKeyPrefix() + channel;
+    }
+
+    // 读取线程: 批量读取所有正在消费的流, 交给路由器后批量确认
+    private void readLoop() {
+        while (running) {
+            try {
+                if (streams.isEmpty()) {
+                    Thread.sleep(options.getStreamBlockMs());
+                    continue;
+                }
+                // 分发队列满了之后暂停读取, 消息留在流中, 不会因为溢出策略被丢弃
+                DispatchQueue dispatchQueue = manager.getMessageRouter().getDispatchQueue();
+                if (dispatchQueue != null && dispatchQueue.isReadPaused()) {
+                    Thread.sleep(PAUSE_POLL_MS);
+                    continue;
+                }
+                flushAcks();
+                claimIdle();
+
+                // 刚开始消费的流先读取自己尚未确认的消息, 读完后再读取新消息
+                List<StreamState> states = new ArrayList<>(streams.values());
+                boolean pendingPhase = false;
+                @SuppressWarnings("unchecked")
+                XReadArgs.StreamOffset<byte[]>[] offsets = new XReadArgs.StreamOffset[states.size()];
+                for (int i = 0; i < states.size(); i++) {
+                    StreamState state = states.get(i);
+                    pendingPhase |= state.pendingCursor != null;
+                    offsets[i] = XReadArgs.StreamOffset.from(state.key, state.pendingCursor != null ? state.pendingCursor : NEW_MESSAGES);
+                }
+                XReadArgs args = XReadArgs.Builder.count(options.getStreamReadBatchSize());
+                if (!pendingPhase) args.block(options.getStreamBlockMs()); // 读取未确认的消息时不能阻塞, 否则没有消息的流会拖慢其他流
+                List<StreamMessage<byte[], byte[]>> messages = readConnection.sync().xreadgroup(consumer, args, offsets);
+
+                Map<StreamState, String> lastIds = deliver(messages);
+                for (StreamState state : states) {
+                    if (state.pendingCursor == null) continue;
+                    String lastId = lastIds.get(state);
+                    state.pendingCursor = lastId; // 从上一批的最后一条之后继续读, 没有未确认的消息时切换到新消息
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) return;
+                System.err.println("Error in Redis stream read: " + e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // 重新认领空闲过久的未确认消息, 例如上次处理到一半就崩溃的消费者留下的消息.
+    // 还有流在读取自己的未确认消息时不认领, 否则同一条消息会被认领和未确认消息的读取各投递一次
+    private void claimIdle() {
+        long now = System.currentTimeMillis();
+        long idleMs = options.getStreamClaimIdleMs();
+        if (claimUnsupported || idleMs <= 0 || now - lastClaimMillis < idleMs / 2) return;
+        for (StreamState state : streams.values()) {
+            if (state.pendingCursor != null) return;
+        }
+        lastClaimMillis = now;
+        for (StreamState state : streams.values()) {
+            XAutoClaimArgs<byte[]> args = XAutoClaimArgs.Builder.xautoclaim(consumer, Duration.ofMillis(idleMs), state.claimCursor)
+                    .count(options.getStreamReadBatchSize());
+            ClaimedMessages<byte[], byte[]> result;
+            try {
+                result = commandConnection.sync().xautoclaim(state.key, args);
+            } catch (RedisCommandExecutionException e) {
+                claimUnsupported = true;
+                System.err.println("XAUTOCLAIM is not available, idle stream entries will not be reclaimed: " + e.getMessage());
+                return;
+            }
+            state.claimCursor = result.getId(); // 下次从返回的位置继续, 扫描完整个未确认列表后回到 0-0
+            claimed.add(result.getMessages().size());
+            deliver(result.getMessages());
+        }
+    }
+
+    // 把消息交给路由器, 所有处理器执行完后再确认, 返回每个流最后一条消息的ID
+    private Map<StreamState, String> deliver(List<StreamMessage<byte[], byte[]>> messages) {
+        if (messages.isEmpty()) return Map.of();
+        Map<StreamState, String> lastIds = new HashMap<>();
+        for (StreamMessage<byte[], byte[]> message : messages) {
+            StreamState state = streams.get(new String(message.getStream(), StandardCharsets.UTF_8));
+            if (state == null) continue;
+            String id = message.getId();
+            Map<byte[], byte[]> body = message.getBody();
+            if (body != null && !body.isEmpty()) {
+                manager.getMessageRouter().handleMessage(state.channel, body.values().iterator().next(), () -> ack(state, id));
+                delivered.increment();
+            } else {
+                ack(state, id); // 已被裁剪的消息没有内容, 直接确认
+            }
+            lastIds.put(state, id);
+        }
+        return lastIds;
+    }
+
+    // 登记处理完的消息, 由读取线程批量确认; 积压够一批时由处理完的线程直接确认
+    private void ack(StreamState state, String id) {
+        acks.add(new PendingAck(state, id));
+        if (ackBacklog.incrementAndGet() >= options.getStreamReadBatchSize()) flushAcks();
+    }
+
+    // 按流分组批量发送 XACK, 可以在任意线程调用
+    private void flushAcks() {
+        if (acks.isEmpty() || !commandConnection.isOpen()) return;
+        Map<StreamState, List<String>> batch = new HashMap<>();
+        PendingAck ack;
+        while ((ack = acks.poll()) != null) {
+            ackBacklog.decrementAndGet();
+            batch.computeIfAbsent(ack.state(), s -> new ArrayList<>()).add(ack.id());
+        }
+        batch.forEach((state, ids) -> {
+            commandConnection.async().xack(state.key, group, ids.toArray(new String[0]));
+            acked.add(ids.size());
+        });
+    }
+
+    private record PendingAck(StreamState state, String id) {
+    }
+
+    private static final class StreamState {
+        private final String channel;
+        private final byte[] key;
+        private volatile String pendingCursor = "0"; // 读取未确认消息的位置, 读完后为空
+        private String claimCursor = CLAIM_START; // XAUTOCLAIM 扫描未确认列表的位置, 只在读取线程中访问
+
+        StreamState(String channel, byte[] key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package top.catnies.firredismessenger;
+
+import io.lettuce.core.pubsub.PubSubCommandHandler;
+import io.lettuce.core.resource.NettyCustomizer;
+import io.netty.channel.Channel;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录 Lettuce 订阅连接底层的 Netty 通道, 用于分发队列满了之后暂停读取.
+ * 作为 {@link NettyCustomizer} 配置到客户端资源上, 每个新建或重连的通道都会经过这里, 只记录带有发布订阅处理器的通道.
+ * 暂停读取只是关闭通道的 autoRead, 不会阻塞 IO 线程, 同一个事件循环上的其他连接照常收发.
+ */
+final class SubscriberChannels implements NettyCustomizer {
+    private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+    private volatile boolean paused;
+
+    @Override
+    public void afterChannelInitialized(Channel channel) {
+        if (channel.pipeline().get(PubSubCommandHandler.class) == null) return;
+        channels.add(channel);
+        channel.closeFuture().addListener(future -> channels.remove(channel));
+        if (paused) channel.config().setAutoRead(false); // 暂停期间重连的通道同样不读取
+    }
+
+    /**
+     * 暂停或恢复从所有订阅连接读取数据, 可以在任意线程调用, 不会阻塞
+     * @param paused 是否暂停
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+        for (Channel channel : channels) channel.config().setAutoRead(!paused);
+    }
+}
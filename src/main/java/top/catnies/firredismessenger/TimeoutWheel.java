@@ -0,0 +1,288 @@
+package top.catnies.firredismessenger;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 哈希时间轮超时调度器.
+ * 注册和取消都是 O(1) 的队列操作, 由单个工作线程按固定精度推进时间轮,
+ * 每一格中到期的任务会被收集成一批, 作为一个任务交给执行器运行.
+ */
+public class TimeoutWheel {
+    private static final int MAX_TRANSFER_PER_TICK = 100_000; // 每格最多从注册队列搬运的任务数, 避免工作线程被注册风暴拖住
+
+    private final long tickNanos; // 每一格的时间精度
+    private final Bucket[] wheel; // 时间轮
+    private final int mask; // 时间轮下标掩码, 轮长为 2 的幂
+    private final long startTime; // 时间轮启动时间, 所有 deadline 都相对它计算
+
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>(); // 等待放入时间轮的任务
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>(); // 等待从时间轮移除的任务
+    private final AtomicLong pendingCount = new AtomicLong(); // 尚未到期或取消的任务数量
+
+    @Nullable private final Executor expiryExecutor; // 执行到期任务批次的执行器, 为空时在工作线程上直接执行
+    private final Thread workerThread;
+    private volatile boolean running = true;
+    private long tick; // 仅由工作线程读写
+
+    /**
+     * 创建时间轮
+     * @param tickDuration 每一格的时间精度
+     * @param unit 时间单位
+     * @param ticksPerWheel 时间轮的格数, 会向上取整到 2 的幂
+     * @param expiryExecutor 执行到期任务批次的执行器, 为空时在时间轮线程上直接执行
+     */
+    public TimeoutWheel(long tickDuration, @NotNull TimeUnit unit, int ticksPerWheel, @Nullable Executor expiryExecutor) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("tickDuration 必须大于 0 !");
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) throw new IllegalArgumentException("ticksPerWheel 必须在 1 ~ 2^30 之间 !");
+
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int size = 1;
+        while (size < ticksPerWheel) size <<= 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.expiryExecutor = expiryExecutor;
+
+        this.startTime = System.nanoTime();
+        this.workerThread = new Thread(this::runWorker, "FirRedisMessenger-TimeoutWheel");
+        this.workerThread.setDaemon(true);
+        this.workerThread.start();
+    }
+
+    /**
+     * 注册一个超时任务
+     * @param task 到期时执行的任务
+     * @param delay 延迟时间
+     * @param unit 时间单位
+     * @return 可用于取消的超时句柄
+     */
+    public Timeout newTimeout(@NotNull Runnable task, long delay, @NotNull TimeUnit unit) {
+        if (!running) throw new IllegalStateException("TimeoutWheel 已经关闭 !");
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingCount.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return 尚未到期或取消的任务数量
+     */
+    public long pendingTimeouts() {
+        return pendingCount.get();
+    }
+
+    /**
+     * 停止时间轮, 未到期的任务不会再被执行
+     */
+    public void stop() {
+        running = false;
+        workerThread.interrupt();
+        if (Thread.currentThread() == workerThread) return;
+        try {
+            workerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    // 工作线程主循环
+    private void runWorker() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) continue;
+
+            processCancelledTimeouts();
+            transferPendingTimeouts();
+            List<Timeout> expired = wheel[(int) (tick & mask)].expireTimeouts(deadline);
+            tick++;
+
+            if (!expired.isEmpty()) runExpired(expired);
+        }
+    }
+
+    // 等待到下一格的时间点, 返回相对启动时间的当前时间, 被中断时返回 -1
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long currentTime = System.nanoTime() - startTime;
+            long sleepMs = (deadline - currentTime + 999_999) / 1_000_000;
+            if (sleepMs <= 0) return currentTime;
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                if (!running) return -1;
+            }
+        }
+    }
+
+    // 把新注册的任务放入对应的格子
+    private void transferPendingTimeouts() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = pendingTimeouts.poll();
+            if (timeout == null) break;
+            if (timeout.state != Timeout.ST_INIT) continue; // 放入前已被取消
+
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick); // 已经过期的任务放到当前格, 本轮就会执行
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    // 把已取消的任务从格子中摘除
+    private void processCancelledTimeouts() {
+        while (true) {
+            Timeout timeout = cancelledTimeouts.poll();
+            if (timeout == null) break;
+            Bucket bucket = timeout.bucket;
+            if (bucket != null) bucket.remove(timeout);
+        }
+    }
+
+    // 批量执行到期任务
+    private void runExpired(List<Timeout> expired) {
+        Runnable batch = () -> {
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.task.run();
+                } catch (Throwable e) {
+                    System.err.println("Error in Redis timeout task: " + e.getMessage());
+                }
+            }
+        };
+        if (expiryExecutor == null) {
+            batch.run();
+            return;
+        }
+        try {
+            expiryExecutor.execute(batch);
+        } catch (Exception e) {
+            // 执行器已关闭等情况, 退回到工作线程上执行
+            batch.run();
+        }
+    }
+
+
+    /**
+     * 超时任务句柄
+     */
+    public static final class Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimeoutWheel timer;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+
+        // 以下字段仅由工作线程读写
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimeoutWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消超时任务
+         * @return 是否取消成功, 任务已经到期或已取消时返回 false
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) return false;
+            timer.pendingCount.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private boolean expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) return false;
+            timer.pendingCount.decrementAndGet();
+            return true;
+        }
+    }
+
+
+    /**
+     * 时间轮的一格, 双向链表保存任务, 仅由工作线程访问
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) timeout.prev.next = next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            if (timeout == head) {
+                if (timeout == tail) {
+                    head = tail = null;
+                } else {
+                    head = next;
+                }
+            } else if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        // 收集本格中到期的任务
+        List<Timeout> expireTimeouts(long deadline) {
+            List<Timeout> expired = null;
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    if (timeout.deadline <= deadline) {
+                        remove(timeout);
+                        if (timeout.expire()) {
+                            if (expired == null) expired = new ArrayList<>();
+                            expired.add(timeout);
+                        }
+                    }
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+            return expired == null ? List.of() : expired;
+        }
+    }
+}
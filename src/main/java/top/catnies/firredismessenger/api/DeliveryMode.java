@@ -0,0 +1,14 @@
+package top.catnies.firredismessenger.api;
+
+/**
+ * 频道消息的投递方式.
+ */
+public enum DeliveryMode {
+
+    // Redis 发布订阅, 不在线或连接中断期间发布的消息会丢失 (默认)
+    PUBSUB,
+
+    // Redis Streams, 每个服务器一个消费组, 重启或断线期间发布的消息在恢复后继续投递
+    STREAM
+
+}
@@ -0,0 +1,17 @@
+package top.catnies.firredismessenger.api;
+
+/**
+ * 监听器方法的分发方式.
+ */
+public enum DispatchMode {
+
+    // 每个处理器作为独立任务并行执行, 不保证顺序 (默认)
+    PARALLEL,
+
+    // 同一频道同一主题的消息按到达顺序串行处理, 同一个数据包的处理器按权重从高到低依次执行
+    ORDERED_BY_SUBJECT,
+
+    // 同一频道同一发送者的消息按到达顺序串行处理, 同一个数据包的处理器按权重从高到低依次执行
+    ORDERED_BY_SENDER
+
+}
@@ -9,10 +9,10 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface RedisSubject {
 
-    // 监听的消息主题（必须填写）
+    // 监听的消息主题（必须填写）, 支持 * ? [...] 通配符, 语法与 Redis 的 glob 一致
     String subject();
 
-    // 监听的频道列表（必须填写）
+    // 监听的频道列表（必须填写）, 支持 * ? [...] 通配符, 带通配符时按模式订阅
     String channel();
 
     // 权重
@@ -21,4 +21,25 @@ public @interface RedisSubject {
     // 是否自动订阅相关频道
     boolean autoSubscribe() default true;
 
+    // 分发方式, 有序模式下同一数据包的处理器在同一个任务中按权重依次执行
+    DispatchMode dispatchMode() default DispatchMode.PARALLEL;
+
+    // 投递方式, 使用 STREAM 时发送方也需要通过 RedisOptions.streamChannels 把该频道配置为 Streams 频道
+    DeliveryMode delivery() default DeliveryMode.PUBSUB;
+
+    // 每个发送者每秒最多交给该方法处理的消息数量, 0 表示不限制
+    double senderRate() default 0;
+
+    // 每个主题每秒最多交给该方法处理的消息数量 (所有发送者合计), 0 表示不限制
+    double subjectRate() default 0;
+
+    // 速率限制允许的瞬时突发数量, 0 表示与每秒数量相同
+    int burst() default 0;
+
+    // 超出速率限制时的处理方式
+    ThrottleAction throttleAction() default ThrottleAction.DROP;
+
+    // 使用 DELAY 时最多延迟的毫秒数, 需要等待更久的消息会被丢弃
+    long maxThrottleDelayMs() default 1000;
+
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package top.catnies.firredismessenger.api;
+
+/**
+ * 消息超出监听器方法的速率限制时的处理方式.
+ */
+public enum ThrottleAction {
+
+    // 直接丢弃, 该处理器不会收到这条消息 (默认)
+    DROP,
+
+    // 延迟到令牌桶允许时再以最低优先级进入分发队列, 需要等待的时间超过 maxThrottleDelayMs 或等待中的消息过多时丢弃
+    DELAY,
+
+    // 转到低优先级通道处理, 线程数为 maxDispatchConcurrency 的四分之一, 不占用正常的分发线程, 通道满了之后丢弃
+    LOW_PRIORITY
+
+}
@@ -0,0 +1,168 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallbackTableTest {
+
+    private static RedisCallback.CallbackEntry entry() {
+        return new RedisCallback.CallbackEntry(RedisPacket.of("A", "B", "s", "p"), null, null, null, 1);
+    }
+
+    private static long key(RedisCallback.CallbackEntry entry) {
+        return CallbackTable.keyOf(entry.getPacket().getMessageId());
+    }
+
+    private static boolean put(CallbackTable table) {
+        RedisCallback.CallbackEntry entry = entry();
+        return table.put(key(entry), entry);
+    }
+
+    @Test
+    void putGetRemove() {
+        CallbackTable table = new CallbackTable(16, 4, CallbackTable.OverflowPolicy.REJECT, e -> fail("不应淘汰"));
+        RedisCallback.CallbackEntry entry = entry();
+        assertTrue(table.put(key(entry), entry));
+        assertSame(entry, table.get(key(entry), entry.getPacket().getMessageId()));
+        assertEquals(1, table.size());
+
+        assertSame(entry, table.remove(key(entry), entry.getPacket().getMessageId()));
+        assertNull(table.get(key(entry), entry.getPacket().getMessageId()));
+        assertNull(table.remove(key(entry), entry.getPacket().getMessageId()));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    void keyCollisionIsCheckedAgainstMessageId() {
+        CallbackTable table = new CallbackTable(16, 1, CallbackTable.OverflowPolicy.REJECT, e -> { });
+        RedisCallback.CallbackEntry entry = entry();
+        RedisCallback.CallbackEntry other = entry();
+        table.put(key(entry), entry);
+        // 同一个键, 不同的数据包ID
+        assertNull(table.get(key(entry), other.getPacket().getMessageId()));
+        assertNull(table.remove(key(entry), other.getPacket().getMessageId()));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void linearProbeDeleteKeepsChainsReachable() {
+        // 单段并且装满, 负载因子达到 0.5, 会形成较长的探测链
+        CallbackTable table = new CallbackTable(256, 1, CallbackTable.OverflowPolicy.REJECT, e -> fail("不应淘汰"));
+        List<RedisCallback.CallbackEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            RedisCallback.CallbackEntry entry = entry();
+            assertTrue(table.put(key(entry), entry));
+            entries.add(entry);
+        }
+        Collections.shuffle(entries, new Random(42));
+
+        // 每删除一个, 剩余的都必须还能找到
+        for (int i = 0; i < entries.size(); i++) {
+            RedisCallback.CallbackEntry removed = entries.get(i);
+            assertSame(removed, table.remove(key(removed), removed.getPacket().getMessageId()));
+            for (int j = i + 1; j < entries.size(); j++) {
+                RedisCallback.CallbackEntry remaining = entries.get(j);
+                assertSame(remaining, table.get(key(remaining), remaining.getPacket().getMessageId()));
+            }
+            assertEquals(entries.size() - i - 1, table.size());
+        }
+    }
+
+    @Test
+    void evictOldestRemovesInInsertionOrder() {
+        List<RedisCallback.CallbackEntry> evicted = new ArrayList<>();
+        CallbackTable table = new CallbackTable(4, 1, CallbackTable.OverflowPolicy.EVICT_OLDEST, evicted::add);
+        List<RedisCallback.CallbackEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            RedisCallback.CallbackEntry entry = entry();
+            assertTrue(table.put(key(entry), entry));
+            entries.add(entry);
+        }
+        assertEquals(List.of(entries.get(0), entries.get(1)), evicted);
+        assertEquals(4, table.size());
+
+        // 移除中间的任务后, 最旧的仍然按插入顺序淘汰
+        table.remove(key(entries.get(3)), entries.get(3).getPacket().getMessageId());
+        put(table);
+        assertEquals(2, evicted.size());
+        put(table);
+        assertSame(entries.get(2), evicted.get(2));
+    }
+
+    @Test
+    void rejectAndFailFastWhenFull() {
+        CallbackTable reject = new CallbackTable(2, 1, CallbackTable.OverflowPolicy.REJECT, e -> { });
+        for (int i = 0; i < 2; i++) assertTrue(put(reject));
+        RedisCallback.CallbackEntry entry = entry();
+        assertFalse(reject.put(key(entry), entry));
+        assertNull(reject.get(key(entry), entry.getPacket().getMessageId()));
+
+        CallbackTable failFast = new CallbackTable(2, 1, CallbackTable.OverflowPolicy.FAIL_FAST, e -> { });
+        for (int i = 0; i < 2; i++) put(failFast);
+        assertThrows(CallbackOverflowException.class, () -> put(failFast));
+    }
+
+    @Test
+    void capacityIsEnforcedAcrossStripes() {
+        // 容量不能被段数整除, 上限仍然精确为 5, 而不是按段向上取整
+        CallbackTable table = new CallbackTable(5, 4, CallbackTable.OverflowPolicy.REJECT, e -> { });
+        assertEquals(5, table.capacity());
+        for (int i = 0; i < 5; i++) assertTrue(put(table));
+        for (int i = 0; i < 10; i++) assertFalse(put(table));
+        assertEquals(5, table.size());
+
+        // 清空后名额全部归还
+        RedisCallback.CallbackEntry removed = table.clear().get(0);
+        assertNull(table.get(key(removed), removed.getPacket().getMessageId()));
+        for (int i = 0; i < 5; i++) assertTrue(put(table));
+        assertFalse(put(table));
+    }
+
+    @Test
+    void evictOldestAcrossStripes() {
+        List<RedisCallback.CallbackEntry> evicted = new ArrayList<>();
+        CallbackTable table = new CallbackTable(8, 8, CallbackTable.OverflowPolicy.EVICT_OLDEST, evicted::add);
+        List<RedisCallback.CallbackEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            RedisCallback.CallbackEntry entry = entry();
+            assertTrue(table.put(key(entry), entry));
+            entries.add(entry);
+        }
+        // 无论落在哪一段, 总是淘汰整张表中最旧的任务
+        assertEquals(entries.subList(0, 12), evicted);
+        assertEquals(8, table.size());
+        for (RedisCallback.CallbackEntry entry : entries.subList(12, 20)) {
+            assertSame(entry, table.get(key(entry), entry.getPacket().getMessageId()));
+        }
+    }
+
+    @Test
+    void skewedStripeGrowsUpToGlobalCapacity() {
+        // 所有键都落在同一段, 该段超过初始大小后扩容, 直到整张表的容量
+        CallbackTable table = new CallbackTable(64, 8, CallbackTable.OverflowPolicy.REJECT, e -> { });
+        List<RedisCallback.CallbackEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            RedisCallback.CallbackEntry entry = entry();
+            assertTrue(table.put(i + 1, entry));
+            entries.add(entry);
+        }
+        assertFalse(table.put(65, entry()));
+        for (int i = 0; i < 64; i++) {
+            assertSame(entries.get(i), table.get(i + 1, entries.get(i).getPacket().getMessageId()));
+        }
+    }
+
+    @Test
+    void clearReturnsAllEntries() {
+        CallbackTable table = new CallbackTable(256, 8, CallbackTable.OverflowPolicy.REJECT, e -> { });
+        for (int i = 0; i < 20; i++) put(table);
+        assertEquals(20, table.clear().size());
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,157 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DispatchQueueTest {
+
+    // 记录启动顺序的任务, 由测试手动完成
+    private static final class TestJob extends DispatchQueue.Job {
+        private final String name;
+        private final List<String> started;
+        private Runnable onComplete;
+        private boolean ranInline;
+
+        TestJob(String name, int priority, List<String> started) {
+            super(priority);
+            this.name = name;
+            this.started = started;
+        }
+
+        @Override
+        protected void start(Runnable onComplete) {
+            this.onComplete = onComplete;
+            started.add(name);
+        }
+
+        @Override
+        protected void runInline() {
+            ranInline = true;
+            started.add(name);
+        }
+
+        void complete() {
+            onComplete.run();
+        }
+    }
+
+    // 容量 2, 同时处理 1 个: 第一个任务开始处理, 后两个排队, 之后的任务触发溢出策略
+    private static List<TestJob> fill(DispatchQueue queue, List<String> started, int... priorities) {
+        List<TestJob> jobs = new ArrayList<>();
+        for (int i = 0; i < priorities.length; i++) {
+            TestJob job = new TestJob("j" + i, priorities[i], started);
+            jobs.add(job);
+            queue.offer(job);
+        }
+        return jobs;
+    }
+
+    @Test
+    void startsInArrivalOrderWithinInFlightLimit() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(8, 2, DispatchQueue.OverflowPolicy.DROP_NEWEST);
+        List<TestJob> jobs = fill(queue, started, 0, 0, 0, 0);
+        assertEquals(List.of("j0", "j1"), started);
+        assertEquals(2, queue.size());
+
+        jobs.get(1).complete();
+        assertEquals(List.of("j0", "j1", "j2"), started);
+        jobs.get(1).complete(); // 重复完成不会多释放名额
+        assertEquals(List.of("j0", "j1", "j2"), started);
+        jobs.get(0).complete();
+        assertEquals(List.of("j0", "j1", "j2", "j3"), started);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void dropOldest() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(2, 1, DispatchQueue.OverflowPolicy.DROP_OLDEST);
+        List<TestJob> jobs = fill(queue, started, 0, 0, 0, 0);
+        assertEquals(1, queue.getDroppedOldest());
+
+        jobs.get(0).complete();
+        jobs.get(2).complete();
+        assertEquals(List.of("j0", "j2", "j3"), started);
+    }
+
+    @Test
+    void dropNewest() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(2, 1, DispatchQueue.OverflowPolicy.DROP_NEWEST);
+        List<TestJob> jobs = fill(queue, started, 0, 0, 0, 0);
+        assertEquals(1, queue.getDroppedNewest());
+
+        jobs.get(0).complete();
+        jobs.get(1).complete();
+        assertEquals(List.of("j0", "j1", "j2"), started);
+    }
+
+    @Test
+    void callerRunsOutsideIoThread() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(2, 1, DispatchQueue.OverflowPolicy.CALLER_RUNS);
+        List<TestJob> jobs = fill(queue, started, 0, 0, 0, 0);
+        assertTrue(jobs.get(3).ranInline);
+        assertEquals(1, queue.getCallerRuns());
+        assertEquals(0, queue.getCallerRunsRejected());
+        assertEquals(List.of("j0", "j3"), started);
+    }
+
+    @Test
+    void priorityShedding() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(2, 1, DispatchQueue.OverflowPolicy.PRIORITY_SHEDDING);
+        // j0 开始处理, j1 (1) 和 j2 (5) 排队; j3 (3) 挤掉 j1; j4 (0) 比队列中的都低, 自己被丢弃
+        List<TestJob> jobs = fill(queue, started, 0, 1, 5, 3, 0);
+        assertEquals(2, queue.getShedByPriority());
+
+        jobs.get(0).complete();
+        jobs.get(2).complete();
+        assertEquals(List.of("j0", "j2", "j3"), started);
+    }
+
+    @Test
+    void pausesReadingWhenFullAndResumesAtHalf() {
+        List<Boolean> paused = new CopyOnWriteArrayList<>();
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(4, 1, DispatchQueue.OverflowPolicy.DROP_NEWEST, 1000, paused::add, null);
+        List<TestJob> jobs = fill(queue, started, 0, 0, 0, 0, 0);
+        assertTrue(queue.isReadPaused());
+        assertEquals(List.of(true), paused);
+        assertEquals(1, queue.getPauses());
+
+        jobs.get(0).complete(); // 队列剩 3 个, 仍在一半以上
+        assertTrue(queue.isReadPaused());
+        jobs.get(1).complete(); // 队列剩 2 个, 恢复读取
+        assertFalse(queue.isReadPaused());
+        assertEquals(List.of(true, false), paused);
+    }
+
+    @Test
+    void failedStartReleasesSlotOnce() {
+        List<String> started = new CopyOnWriteArrayList<>();
+        DispatchQueue queue = new DispatchQueue(4, 1, DispatchQueue.OverflowPolicy.DROP_NEWEST);
+        queue.offer(new DispatchQueue.Job(0) {
+            @Override
+            protected void start(Runnable onComplete) {
+                onComplete.run();
+                throw new IllegalStateException("boom");
+            }
+
+            @Override
+            protected void runInline() {
+            }
+        });
+        List<TestJob> jobs = fill(queue, started, 0, 0);
+        // 失败的任务只释放一个名额, 之后仍然一次只处理一个
+        assertEquals(List.of("j0"), started);
+        jobs.get(0).complete();
+        assertEquals(List.of("j0", "j1"), started);
+    }
+}
@@ -0,0 +1,67 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+import top.catnies.firredismessenger.api.ThrottleAction;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlowLimiterTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static RedisPacket from(String sender) {
+        return RedisPacket.of(sender, "*", "chat", "p");
+    }
+
+    @Test
+    void burstThenDropUntilNextToken() {
+        // 每秒 10 个, 即每 100ms 一个令牌, 允许突发 2 个
+        FlowLimiter limiter = new FlowLimiter(10, 0, 2, ThrottleAction.DROP, 0);
+        long now = 1_000_000 * MS;
+        assertEquals(0, limiter.acquire(from("a"), now));
+        assertEquals(0, limiter.acquire(from("a"), now));
+        assertTrue(limiter.acquire(from("a"), now) < 0);
+        assertTrue(limiter.acquire(from("a"), now + 99 * MS) < 0);
+        assertEquals(0, limiter.acquire(from("a"), now + 100 * MS));
+        assertEquals(Map.of("a", 2L), limiter.getThrottledBySender());
+    }
+
+    @Test
+    void sendersHaveSeparateBuckets() {
+        FlowLimiter limiter = new FlowLimiter(1, 0, 1, ThrottleAction.DROP, 0);
+        long now = 1_000_000 * MS;
+        assertEquals(0, limiter.acquire(from("a"), now));
+        assertTrue(limiter.acquire(from("a"), now) < 0);
+        assertEquals(0, limiter.acquire(from("b"), now));
+    }
+
+    @Test
+    void subjectBucketIsSharedBySenders() {
+        FlowLimiter limiter = new FlowLimiter(0, 1, 1, ThrottleAction.DROP, 0);
+        long now = 1_000_000 * MS;
+        assertEquals(0, limiter.acquire(from("a"), now));
+        assertTrue(limiter.acquire(from("b"), now) < 0);
+        assertEquals(Map.of("chat", 1L), limiter.getThrottledBySubject());
+    }
+
+    @Test
+    void delayReturnsWaitWithinAllowance() {
+        FlowLimiter limiter = new FlowLimiter(10, 0, 1, ThrottleAction.DELAY, 250);
+        long now = 1_000_000 * MS;
+        assertEquals(0, limiter.acquire(from("a"), now));
+        assertEquals(100 * MS, limiter.acquire(from("a"), now));
+        assertEquals(200 * MS, limiter.acquire(from("a"), now));
+        // 需要等待 300ms, 超过 250ms 的上限, 丢弃并且不占用令牌
+        assertTrue(limiter.acquire(from("a"), now) < 0);
+        assertEquals(200 * MS, limiter.acquire(from("a"), now + 100 * MS));
+    }
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new FlowLimiter(0, 0, 0, ThrottleAction.DROP, 0));
+        assertThrows(IllegalArgumentException.class, () -> new FlowLimiter(-1, 0, 0, ThrottleAction.DROP, 0));
+        assertThrows(IllegalArgumentException.class, () -> new FlowLimiter(1, 0, -1, ThrottleAction.DROP, 0));
+    }
+}
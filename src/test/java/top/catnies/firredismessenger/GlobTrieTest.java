@@ -0,0 +1,99 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobTrieTest {
+
+    private static Set<String> match(GlobTrie<String> trie, String text) {
+        Set<String> result = new HashSet<>();
+        trie.match(text, result);
+        return result;
+    }
+
+    @Test
+    void isPattern() {
+        assertTrue(GlobTrie.isPattern("order.*"));
+        assertTrue(GlobTrie.isPattern("order.?"));
+        assertTrue(GlobTrie.isPattern("order.[ab]"));
+        assertFalse(GlobTrie.isPattern("order.created"));
+    }
+
+    @Test
+    void matchesRedisGlobSyntax() {
+        String[][] cases = {
+                // 模式, 文本, 是否匹配
+                {"*", "", "true"},
+                {"*", "anything", "true"},
+                {"order.*", "order.created", "true"},
+                {"order.*", "order", "false"},
+                {"*.created", "order.created", "true"},
+                {"a*b*c", "aXXbYYc", "true"},
+                {"a*b*c", "aXXcYYb", "false"},
+                {"h?llo", "hello", "true"},
+                {"h?llo", "hllo", "false"},
+                {"h[ae]llo", "hallo", "true"},
+                {"h[ae]llo", "hillo", "false"},
+                {"h[^e]llo", "hallo", "true"},
+                {"h[^e]llo", "hello", "false"},
+                {"h[a-c]llo", "hbllo", "true"},
+                {"h[c-a]llo", "hbllo", "true"},
+                {"h[a-c]llo", "hdllo", "false"},
+                {"a\\*b", "a*b", "true"},
+                {"a\\*b", "aXb", "false"},
+                {"a[\\]]b", "a]b", "true"},
+                {"a[bc", "ab", "true"},
+                {"a**b", "ab", "true"},
+        };
+        for (String[] c : cases) {
+            boolean expected = Boolean.parseBoolean(c[2]);
+            assertEquals(expected, GlobTrie.matches(c[0], c[1]), c[0] + " ~ " + c[1]);
+
+            GlobTrie<String> trie = new GlobTrie<>();
+            trie.add(c[0], "v");
+            assertEquals(expected, trie.matchesAny(c[1]), "trie " + c[0] + " ~ " + c[1]);
+        }
+    }
+
+    @Test
+    void collectsValuesFromAllMatchingPatterns() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.add("order.*", "all");
+        trie.add("order.c*", "c");
+        trie.add("order.created", "exact");
+        trie.add("order.?", "single");
+        trie.add("user.*", "user");
+
+        assertEquals(Set.of("all", "c", "exact"), match(trie, "order.created"));
+        assertEquals(Set.of("all", "single"), match(trie, "order.x"));
+        assertEquals(Set.of(), match(trie, "shop.order"));
+    }
+
+    @Test
+    void removeDetachesOnlyThatValue() {
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.add("order.*", "a");
+        trie.add("order.*", "b");
+        assertTrue(trie.remove("order.*", "a"));
+        assertFalse(trie.remove("order.*", "a"));
+        assertFalse(trie.remove("missing.*", "b"));
+        assertEquals(Set.of("b"), match(trie, "order.x"));
+    }
+
+    @Test
+    void manyStarsDoNotBacktrackExponentially() {
+        String pattern = "a*a*a*a*a*a*a*a*a*a*b";
+        String text = "a".repeat(5000);
+        GlobTrie<String> trie = new GlobTrie<>();
+        trie.add(pattern, "v");
+
+        long start = System.nanoTime();
+        assertFalse(GlobTrie.matches(pattern, text));
+        assertFalse(trie.matchesAny(text));
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+    }
+}
@@ -0,0 +1,100 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import top.catnies.firredismessenger.api.RedisListener;
+import top.catnies.firredismessenger.api.RedisSubject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 管理器级别的请求回复, 多个管理器通过内存传输层在同一个 JVM 中通信
+ */
+class LoopbackRequestTest {
+    private final LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+    private final List<RedisManager> managers = new ArrayList<>();
+
+    // 定向请求原样回复内容, 广播请求回复自己的服务器 ID (广播的回复发送方为 "*", 无法区分回复者)
+    public static class Responder implements RedisListener {
+        private final String serverId;
+
+        public Responder(String serverId) {
+            this.serverId = serverId;
+        }
+
+        @RedisSubject(channel = "rpc", subject = "echo")
+        public void echo(RedisPacket packet) {
+            RedisPacket.ofResponse(packet, packet.getReceiver().equals(RedisManager.ALL_RECEIVERS) ? serverId : packet.getPayload()).publish("rpc");
+        }
+    }
+
+    // 未开启收件箱路由时回复发到请求所在的频道, 请求方需要订阅它
+    private RedisManager start(String serverId) {
+        RedisManager manager = new RedisManager(serverId, RedisOptions.defaults(), new LoopbackTransport(hub));
+        manager.subscribeChannel("rpc");
+        managers.add(manager);
+        return manager;
+    }
+
+    private RedisManager startResponder(String serverId) {
+        RedisManager manager = start(serverId);
+        manager.registerListeners(new Responder(serverId));
+        return manager;
+    }
+
+    @AfterEach
+    void shutdown() {
+        managers.forEach(RedisManager::shutdown);
+    }
+
+    @Test
+    void requestReceivesReply() throws Exception {
+        RedisManager client = start("client");
+        startResponder("server");
+
+        RedisPacket reply = client.request("rpc", RedisPacket.of("client", "server", "echo", "hello"), 2000).get(2, TimeUnit.SECONDS);
+        assertEquals("hello", reply.getPayload());
+        assertEquals("server", reply.getSender());
+        assertEquals(0, client.getCallbackManager().getPendingCount());
+    }
+
+    @Test
+    void requestTimesOutWithoutResponder() {
+        RedisManager client = start("client");
+        startResponder("server");
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> client.request("rpc", RedisPacket.of("client", "nobody", "echo", "hello"), 100).get(2, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+    }
+
+    @Test
+    void scatterGatherCollectsExpectedReplies() throws Exception {
+        RedisManager client = start("client");
+        for (int i = 0; i < 3; i++) startResponder("server-" + i);
+
+        List<RedisPacket> replies = client.scatterGather("rpc", RedisPacket.ofBoardCast("client", "echo", "ping"), 3, 2000)
+                .get(2, TimeUnit.SECONDS);
+        assertEquals(Set.of("server-0", "server-1", "server-2"), replies.stream().map(RedisPacket::getPayload).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void scatterGatherReturnsPartialRepliesAtDeadline() throws Exception {
+        RedisManager client = start("client");
+        for (int i = 0; i < 2; i++) startResponder("server-" + i);
+
+        long start = System.nanoTime();
+        List<RedisPacket> replies = client.scatterGather("rpc", RedisPacket.ofBoardCast("client", "echo", "ping"), 5, 200)
+                .get(2, TimeUnit.SECONDS);
+        assertEquals(2, replies.size());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
@@ -0,0 +1,142 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketCodecTest {
+
+    private static RedisPacket fullPacket(String payload) {
+        RedisPacket packet = new RedisPacket(UUID.randomUUID(), Long.MAX_VALUE, "server-a", "server-b", "订单.创建", payload);
+        packet.setResponseId(UUID.randomUUID());
+        packet.setPublishTimestamp(1_700_000_000_000L);
+        packet.setChannel("orders");
+        return packet;
+    }
+
+    @Test
+    void jsonRoundTrip() {
+        JsonPacketCodec codec = new JsonPacketCodec();
+        RedisPacket packet = fullPacket("{\"id\": 1}");
+        assertEquals(packet, codec.decode(codec.encode(packet)));
+        assertEquals(packet, codec.decodeLazy(codec.encode(packet)));
+    }
+
+    @Test
+    void binaryRoundTripWithVarintBoundaries() {
+        BinaryPacketCodec codec = new BinaryPacketCodec();
+        // 长度跨过 1, 2, 3 字节 varint 的边界
+        for (int length : new int[]{0, 1, 127, 128, 16383, 16384, 100_000}) {
+            RedisPacket packet = fullPacket("x".repeat(length));
+            RedisPacket decoded = codec.decode(codec.encode(packet));
+            assertEquals(packet, decoded, "length " + length);
+            assertEquals(Long.MAX_VALUE, decoded.getCreateTimestamp());
+        }
+        RedisPacket minimal = RedisPacket.of("a", "b", "s", "p");
+        assertEquals(minimal, codec.decodeLazy(codec.encode(minimal)));
+    }
+
+    @Test
+    void dictionaryShrinksFramesAndRoundTrips() {
+        RedisPacket packet = fullPacket("p");
+        BinaryPacketCodec plain = new BinaryPacketCodec();
+        BinaryPacketCodec dictionary = new BinaryPacketCodec(List.of("server-a", "server-b", "订单.创建", "orders"));
+        byte[] frame = dictionary.encode(packet);
+        assertTrue(frame.length < plain.encode(packet).length);
+        assertEquals(packet, dictionary.decode(frame));
+        // 没有相同字典的解码器无法还原字典下标
+        assertThrows(IllegalArgumentException.class, () -> plain.decode(frame));
+    }
+
+    @Test
+    void compressedPayloadRoundTrips() {
+        PayloadCompressor compressor = new PayloadCompressor(64, null);
+        BinaryPacketCodec codec = new BinaryPacketCodec(List.of(), compressor);
+        RedisPacket packet = fullPacket("压缩".repeat(500));
+        byte[] frame = codec.encode(packet);
+        assertTrue(frame.length < packet.getPayload().getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(1, compressor.getCompressedPackets().sum());
+        assertEquals(packet, codec.decode(frame));
+
+        // 短内容不压缩
+        RedisPacket small = fullPacket("short");
+        assertEquals(small, codec.decode(codec.encode(small)));
+        assertEquals(1, compressor.getCompressedPackets().sum());
+    }
+
+    @Test
+    void binaryPayloadRoundTripsThroughBothCodecs() {
+        byte[] bytes = {0, 1, 2, (byte) 0xFF, (byte) 0x80, 127};
+        RedisPacket packet = RedisPacket.ofBytes("a", "b", "proto", bytes);
+        for (PacketCodec codec : List.of(new JsonPacketCodec(), new BinaryPacketCodec(),
+                new BinaryPacketCodec(List.of(), new PayloadCompressor(1, null)))) {
+            RedisPacket decoded = codec.decode(codec.encode(packet));
+            assertTrue(decoded.isBinary(), codec.getClass().getSimpleName());
+            assertArrayEquals(bytes, decoded.getPayloadBytes());
+            assertTrue(decoded.getPayloadBuffer().isReadOnly());
+            assertEquals(packet, decoded);
+        }
+    }
+
+    @Test
+    void binaryPayloadIsViewOfFrame() {
+        BinaryPacketCodec codec = new BinaryPacketCodec();
+        byte[] frame = codec.encode(RedisPacket.ofBytes("a", "b", "proto", new byte[]{1, 2, 3}));
+        RedisPacket decoded = codec.decodeLazy(frame);
+        frame[frame.length - 1] = 9; // 内容在最后, 修改原始消息会反映到视图上
+        ByteBuffer buffer = decoded.getPayloadBuffer();
+        assertEquals(3, buffer.remaining());
+        assertEquals(9, buffer.get(2));
+    }
+
+    @Test
+    void codecsDecodeEachOther() {
+        RedisPacket packet = fullPacket("互通");
+        JsonPacketCodec json = new JsonPacketCodec();
+        BinaryPacketCodec binary = new BinaryPacketCodec();
+        assertEquals(packet, json.decode(binary.encode(packet)));
+        assertEquals(packet, json.decodeLazy(binary.encode(packet)));
+        assertEquals(packet, binary.decode(json.encode(packet)));
+        assertEquals(packet, binary.decodeLazy(json.encode(packet)));
+
+        // 只接受 JSON 的解码器拒绝二进制格式
+        assertThrows(IllegalArgumentException.class, () -> new JsonPacketCodec(null).decodeLazy(binary.encode(packet)));
+    }
+
+    @Test
+    void decodesFrameInsideLargerMessage() {
+        RedisPacket packet = fullPacket("region");
+        for (PacketCodec codec : List.of(new JsonPacketCodec(), new BinaryPacketCodec())) {
+            byte[] frame = codec.encode(packet);
+            byte[] message = new byte[frame.length + 10];
+            System.arraycopy(frame, 0, message, 5, frame.length);
+            assertEquals(packet, codec.decodeLazy(message, 5, frame.length));
+        }
+    }
+
+    @Test
+    void rejectsTruncatedFrames() {
+        RedisPacket packet = fullPacket("truncated payload");
+        for (PacketCodec codec : List.of(new JsonPacketCodec(), new BinaryPacketCodec())) {
+            byte[] frame = codec.encode(packet);
+            assertThrows(IllegalArgumentException.class, () -> codec.decodeLazy(frame, 0, frame.length / 2).getPayload(),
+                    codec.getClass().getSimpleName());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new BinaryPacketCodec().decode(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> new BinaryPacketCodec().decode(new byte[]{0x42}));
+    }
+
+    @Test
+    void lazyPacketEqualsEagerPacket() {
+        BinaryPacketCodec codec = new BinaryPacketCodec();
+        RedisPacket packet = fullPacket("lazy");
+        RedisPacket lazy = codec.decodeLazy(codec.encode(packet));
+        assertEquals(packet.hashCode(), lazy.hashCode());
+        assertEquals(packet.toString(), lazy.toString());
+    }
+}
@@ -0,0 +1,64 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketEnvelopeTest {
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void packUnpackRoundTrip() {
+        byte[] large = new byte[300]; // 长度需要 2 字节 varint
+        Arrays.fill(large, (byte) 7);
+        List<byte[]> frames = List.of(new byte[]{1, 2, 3}, new byte[0], large);
+
+        byte[] message = PacketEnvelope.pack(frames);
+        assertTrue(PacketEnvelope.isEnvelope(message));
+
+        List<ByteBuffer> unpacked = PacketEnvelope.unpack(message);
+        assertEquals(frames.size(), unpacked.size());
+        for (int i = 0; i < frames.size(); i++) assertArrayEquals(frames.get(i), bytes(unpacked.get(i)));
+    }
+
+    @Test
+    void unpackSlicesWithoutCopying() {
+        byte[] message = PacketEnvelope.pack(List.of(new byte[]{1, 2}, new byte[]{3, 4}));
+        List<ByteBuffer> frames = PacketEnvelope.unpack(message);
+        for (ByteBuffer frame : frames) assertSame(message, frame.array());
+        assertEquals(3, message[frames.get(1).arrayOffset()]);
+    }
+
+    @Test
+    void envelopedFramesDecode() {
+        BinaryPacketCodec codec = new BinaryPacketCodec();
+        RedisPacket first = RedisPacket.of("a", "b", "s", "first");
+        RedisPacket second = RedisPacket.ofBytes("a", "b", "s", new byte[]{9, 8});
+        byte[] message = PacketEnvelope.pack(List.of(codec.encode(first), codec.encode(second)));
+
+        List<ByteBuffer> frames = PacketEnvelope.unpack(message);
+        assertEquals(first, codec.decodeLazy(message, frames.get(0).arrayOffset(), frames.get(0).remaining()));
+        RedisPacket decoded = codec.decodeLazy(message, frames.get(1).arrayOffset(), frames.get(1).remaining());
+        assertArrayEquals(new byte[]{9, 8}, decoded.getPayloadBytes());
+    }
+
+    @Test
+    void rejectsMalformedMessages() {
+        assertFalse(PacketEnvelope.isEnvelope(new byte[0]));
+        assertFalse(PacketEnvelope.isEnvelope("{}".getBytes()));
+        assertThrows(IllegalArgumentException.class, () -> PacketEnvelope.unpack("{}".getBytes()));
+
+        byte[] message = PacketEnvelope.pack(List.of(new byte[]{1, 2, 3}));
+        assertThrows(IllegalArgumentException.class, () -> PacketEnvelope.unpack(Arrays.copyOf(message, message.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> PacketEnvelope.unpack(new byte[]{PacketEnvelope.MAGIC, (byte) 0x80}));
+    }
+}
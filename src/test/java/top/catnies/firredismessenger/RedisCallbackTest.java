@@ -0,0 +1,88 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RedisCallbackTest {
+    private final RedisCallback callbacks = new RedisCallback(RedisOptions.defaults());
+
+    @AfterEach
+    void shutdown() {
+        callbacks.shutdown();
+    }
+
+    @Test
+    void expiresWithoutReply() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        RedisPacket packet = RedisPacket.of("A", "B", "s", "p");
+        assertTrue(callbacks.registerRequest(packet, 50, 1, response -> { }, expired::countDown));
+        assertEquals(1, callbacks.getPendingCount());
+        assertTrue(expired.await(2, TimeUnit.SECONDS));
+        assertEquals(0, callbacks.getPendingCount());
+        assertNull(callbacks.acceptResponse(packet.getMessageId()));
+    }
+
+    @Test
+    void collectsExpectedResponsesThenCompletes() {
+        RedisPacket packet = RedisPacket.of("A", "*", "s", "p");
+        callbacks.registerRequest(packet, 5000, 2, response -> { }, () -> { });
+        assertNotNull(callbacks.acceptResponse(packet.getMessageId()));
+        assertEquals(1, callbacks.getPendingCount());
+        assertNotNull(callbacks.acceptResponse(packet.getMessageId()));
+        assertEquals(0, callbacks.getPendingCount());
+        assertNull(callbacks.acceptResponse(packet.getMessageId()));
+    }
+
+    @Test
+    void suspendedTimeoutsAreExtendedByOutage() throws InterruptedException {
+        AtomicInteger expired = new AtomicInteger();
+        CountDownLatch fired = new CountDownLatch(1);
+        RedisPacket packet = RedisPacket.of("A", "B", "s", "p");
+        callbacks.registerRequest(packet, 100, 1, response -> { }, () -> {
+            expired.incrementAndGet();
+            fired.countDown();
+        });
+
+        // 中断期间到期的任务不会超时
+        callbacks.suspendTimeouts();
+        assertTrue(callbacks.isTimeoutsSuspended());
+        Thread.sleep(300);
+        assertEquals(0, expired.get());
+
+        // 恢复后按中断时长顺延, 而不是立即超时
+        callbacks.resumeTimeouts();
+        assertFalse(callbacks.isTimeoutsSuspended());
+        Thread.sleep(30);
+        assertEquals(0, expired.get());
+        assertEquals(1, callbacks.getPendingCount());
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertEquals(1, callbacks.getExtendedTimeouts().sum());
+    }
+
+    @Test
+    void replyDuringOutageStillCompletes() {
+        RedisPacket packet = RedisPacket.of("A", "B", "s", "p");
+        callbacks.registerRequest(packet, 100, 1, response -> { }, () -> { });
+        callbacks.suspendTimeouts();
+        assertNotNull(callbacks.acceptResponse(packet.getMessageId()));
+        callbacks.resumeTimeouts();
+        assertEquals(0, callbacks.getPendingCount());
+    }
+
+    @Test
+    void failCallbackTaskFiresTimeoutImmediately() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        RedisPacket packet = RedisPacket.of("A", "B", "s", "p");
+        callbacks.registerRequest(packet, 60_000, 1, response -> { }, expired::countDown);
+        assertTrue(callbacks.failCallbackTask(packet.getMessageId()));
+        assertFalse(callbacks.failCallbackTask(packet.getMessageId()));
+        assertTrue(expired.await(2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,102 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestCoalescerTest {
+
+    // 记录实际发出的请求, 由测试手动回复
+    private static final class Sender implements Function<RedisPacket, CompletableFuture<RedisPacket>> {
+        private final List<CompletableFuture<RedisPacket>> sent = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<RedisPacket> apply(RedisPacket packet) {
+            CompletableFuture<RedisPacket> future = new CompletableFuture<>();
+            sent.add(future);
+            return future;
+        }
+    }
+
+    private static RedisPacket request(String payload) {
+        return RedisPacket.of("A", "B", "price", payload);
+    }
+
+    @Test
+    void identicalRequestsShareOneReply() {
+        RequestCoalescer coalescer = new RequestCoalescer(true, Map.of());
+        Sender sender = new Sender();
+        CompletableFuture<RedisPacket> first = coalescer.request("ch", request("q"), sender);
+        CompletableFuture<RedisPacket> second = coalescer.request("ch", request("q"), sender);
+        CompletableFuture<RedisPacket> other = coalescer.request("ch", request("other"), sender);
+        assertEquals(2, sender.sent.size());
+        assertEquals(1, coalescer.getCoalescedRequests().sum());
+        assertEquals(2, coalescer.getInFlightCount());
+
+        RedisPacket reply = RedisPacket.of("B", "A", "price", "42");
+        sender.sent.get(0).complete(reply);
+        assertSame(reply, first.join());
+        assertSame(reply, second.join());
+        assertFalse(other.isDone());
+        assertEquals(1, coalescer.getInFlightCount());
+
+        // 回复之后的相同请求重新发送
+        coalescer.request("ch", request("q"), sender);
+        assertEquals(3, sender.sent.size());
+    }
+
+    @Test
+    void cancellingOneWaiterDoesNotAffectOthers() {
+        RequestCoalescer coalescer = new RequestCoalescer(true, Map.of());
+        Sender sender = new Sender();
+        CompletableFuture<RedisPacket> first = coalescer.request("ch", request("q"), sender);
+        CompletableFuture<RedisPacket> second = coalescer.request("ch", request("q"), sender);
+        first.cancel(false);
+
+        sender.sent.get(0).complete(RedisPacket.of("B", "A", "price", "42"));
+        assertEquals("42", second.join().getPayload());
+    }
+
+    @Test
+    void failureIsSharedAndNotCached() {
+        RequestCoalescer coalescer = new RequestCoalescer(false, Map.of("price", new RequestCoalescer.CachePolicy(60_000, 16)));
+        Sender sender = new Sender();
+        CompletableFuture<RedisPacket> first = coalescer.request("ch", request("q"), sender);
+        CompletableFuture<RedisPacket> second = coalescer.request("ch", request("q"), sender);
+        sender.sent.get(0).completeExceptionally(new TimeoutException());
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+
+        coalescer.request("ch", request("q"), sender);
+        assertEquals(2, sender.sent.size());
+    }
+
+    @Test
+    void cachedReplyIsReusedWithinTtl() throws InterruptedException {
+        RequestCoalescer coalescer = new RequestCoalescer(false, Map.of("price", new RequestCoalescer.CachePolicy(100, 16)));
+        assertTrue(coalescer.isActive("price"));
+        assertFalse(coalescer.isActive("other"));
+        Sender sender = new Sender();
+
+        coalescer.request("ch", request("q"), sender);
+        sender.sent.get(0).complete(RedisPacket.of("B", "A", "price", "42"));
+        assertEquals("42", coalescer.request("ch", request("q"), sender).join().getPayload());
+        assertEquals(1, sender.sent.size());
+
+        RequestCoalescer.ResponseCache cache = coalescer.getResponseCache("price");
+        assertNotNull(cache);
+        assertEquals(1, cache.getHits().sum());
+        assertEquals(1, cache.size());
+
+        Thread.sleep(150);
+        coalescer.request("ch", request("q"), sender);
+        assertEquals(2, sender.sent.size());
+    }
+}
@@ -0,0 +1,69 @@
+package top.catnies.firredismessenger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeoutWheelTest {
+    private final TimeoutWheel wheel = new TimeoutWheel(10, TimeUnit.MILLISECONDS, 8, null);
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    void expiresAfterDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        TimeoutWheel.Timeout timeout = wheel.newTimeout(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertEquals(0, wheel.pendingTimeouts());
+    }
+
+    @Test
+    void expiresAfterMultipleRounds() throws InterruptedException {
+        // 8 格 x 10ms, 200ms 需要转好几圈
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicLong elapsed = new AtomicLong();
+        long start = System.nanoTime();
+        wheel.newTimeout(() -> {
+            elapsed.set(System.nanoTime() - start);
+            fired.countDown();
+        }, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws InterruptedException {
+        AtomicBoolean fired = new AtomicBoolean();
+        TimeoutWheel.Timeout timeout = wheel.newTimeout(() -> fired.set(true), 30, TimeUnit.MILLISECONDS);
+        assertEquals(1, wheel.pendingTimeouts());
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, wheel.pendingTimeouts());
+
+        Thread.sleep(100);
+        assertFalse(fired.get());
+    }
+
+    @Test
+    void rejectsTimeoutsAfterStop() {
+        wheel.stop();
+        assertThrows(IllegalStateException.class, () -> wheel.newTimeout(() -> { }, 10, TimeUnit.MILLISECONDS));
+    }
+}